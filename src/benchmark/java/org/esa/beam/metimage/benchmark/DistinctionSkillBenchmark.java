@@ -0,0 +1,99 @@
+package org.esa.beam.metimage.benchmark;
+
+import org.esa.beam.metimage.math.DensityHistogram;
+import org.esa.beam.metimage.math.DistinctionSkill;
+import org.esa.beam.metimage.math.MetImageHistogram;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the distinction skill of a cloud and a noCloud histogram, by exact integration over
+ * the bins and by the legacy quadrature. The histograms are aggregated in the setup, so only the skill
+ * computation is measured; its cost depends on the number of bins rather than on the number of samples.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DistinctionSkillBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int numSamples;
+
+    @Param({"20", "100", "1000"})
+    private int numberOfBins;
+
+    private MetImageHistogram cloudHisto;
+    private MetImageHistogram noCloudHisto;
+    private DensityHistogram cloudDensityHisto;
+    private DensityHistogram noCloudDensityHisto;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final double[] cloudSamples = new double[numSamples];
+        final double[] noCloudSamples = new double[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            cloudSamples[i] = 5.0 + 2.0 * random.nextGaussian();
+            noCloudSamples[i] = -3.0 + random.nextGaussian();
+        }
+        final double min = Math.min(min(cloudSamples), min(noCloudSamples));
+        final double max = Math.max(max(cloudSamples), max(noCloudSamples));
+
+        cloudHisto = MetImageHistogram.createAggregatedHistogram(cloudSamples, numSamples, numberOfBins, min, max);
+        noCloudHisto = MetImageHistogram.createAggregatedHistogram(noCloudSamples, numSamples, numberOfBins, min, max);
+        cloudDensityHisto = createDensityHistogram(cloudSamples, min, max);
+        noCloudDensityHisto = createDensityHistogram(noCloudSamples, min, max);
+    }
+
+    @Benchmark
+    public double distinctionSkill() {
+        return DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudHisto, cloudHisto,
+                                                                                     numSamples, numSamples);
+    }
+
+    @Benchmark
+    public double distinctionSkillOfDensityHistograms() {
+        return DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudDensityHisto,
+                                                                                     cloudDensityHisto,
+                                                                                     numSamples, numSamples);
+    }
+
+    @Benchmark
+    public double distinctionSkillByQuadrature() {
+        return DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(noCloudDensityHisto,
+                                                                                                 cloudDensityHisto,
+                                                                                                 numSamples,
+                                                                                                 numSamples);
+    }
+
+    private DensityHistogram createDensityHistogram(double[] samples, double min, double max) {
+        final DensityHistogram histo = new DensityHistogram();
+        histo.resetEqualBins(numberOfBins, min, max);
+        histo.aggregate(samples, numSamples);
+        histo.computeDensityFunctions();
+        return histo;
+    }
+
+    private static double min(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static double max(double[] values) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
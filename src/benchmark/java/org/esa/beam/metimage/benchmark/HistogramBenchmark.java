@@ -0,0 +1,99 @@
+package org.esa.beam.metimage.benchmark;
+
+import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.DensityHistogram;
+import org.esa.beam.metimage.math.MetImageHistogram;
+import org.esa.beam.metimage.math.SortedSampleSummary;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the histogram kernels: aggregation on equal bins, histogram equalization and the
+ * Freedman-Diaconis bin number estimate. The samples are drawn from a mixture of two normal distributions,
+ * similar to the measures of a scene with cloudy and clear pixels.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HistogramBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int numSamples;
+
+    private double[] samples;
+    private double min;
+    private double max;
+    private SortedSampleSummary summary;
+    private DensityHistogram densityHistogram;
+
+    @Setup
+    public void setUp() {
+        samples = createSamples(new Random(42), numSamples);
+        summary = new SortedSampleSummary(samples);
+        min = summary.getMin();
+        max = summary.getMax();
+        densityHistogram = new DensityHistogram();
+    }
+
+    static double[] createSamples(Random random, int numSamples) {
+        final double[] samples = new double[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            samples[i] = (i % 3 == 0) ? 5.0 + 2.0 * random.nextGaussian() : -3.0 + random.nextGaussian();
+        }
+        return samples;
+    }
+
+    @Benchmark
+    public MetImageHistogram createAggregatedHistogram() {
+        return MetImageHistogram.createAggregatedHistogram(samples, numSamples, MetImageConstants.NUM_BINS, min, max);
+    }
+
+    @Benchmark
+    public DensityHistogram aggregateDensityHistogram() {
+        densityHistogram.resetEqualBins(MetImageConstants.NUM_BINS, min, max);
+        densityHistogram.aggregate(samples, numSamples);
+        densityHistogram.computeDensityFunctions();
+        return densityHistogram;
+    }
+
+    @Benchmark
+    public SortedSampleSummary createSortedSampleSummary() {
+        return new SortedSampleSummary(samples);
+    }
+
+    @Benchmark
+    public MetImageHistogram createAggregatedEqualizedHistogram() {
+        return MetImageHistogram.createAggregatedEqualizedHistogram(samples);
+    }
+
+    @Benchmark
+    public MetImageHistogram createAggregatedEqualizedHistogramFromSummary() {
+        return MetImageHistogram.createAggregatedEqualizedHistogram(summary);
+    }
+
+    @Benchmark
+    public DensityHistogram createExactEqualizedDensityHistogramFromSummary() {
+        final int nBins = MetImageHistogram.findOptimalNumberOfBins(summary);
+        densityHistogram.resetUnequalBins(MetImageHistogram.getEqualFrequencyBinBorders(summary, nBins));
+        densityHistogram.aggregate(summary.getSortedSamples(), summary.getCount());
+        densityHistogram.computeDensityFunctions();
+        return densityHistogram;
+    }
+
+    @Benchmark
+    public int findOptimalNumberOfBins() {
+        return MetImageHistogram.findOptimalNumberOfBins(samples);
+    }
+
+    @Benchmark
+    public int findOptimalNumberOfBinsFromSummary() {
+        return MetImageHistogram.findOptimalNumberOfBins(summary);
+    }
+}
@@ -0,0 +1,216 @@
+package org.esa.beam.metimage.benchmark;
+
+import org.esa.beam.metimage.operator.ModisMeasures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the MODIS measures and the radiance to brightness temperature conversion, evaluated
+ * for all samples of a synthetic scene. The radiances and reflectances are uniformly distributed over
+ * typical ranges, so that nearly all samples pass the validity checks of the measures.
+ * <p/>
+ * The measure 7 functions (3x3 uniformity) and the O2 absorption measure just pass their argument
+ * through and are not benchmarked.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MeasureBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int numSamples;
+
+    private double[] rad3700;
+    private double[] rad7300;
+    private double[] rad11000;
+    private double[] rad12000;
+    private float[] rad11000Float;
+    private double[] rhoA;
+    private double[] rhoB;
+    private double[] rhoC;
+    private double[] temperatures;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        rad3700 = uniform(random, 0.1, 1.9);
+        rad7300 = uniform(random, 1.0, 4.9);
+        rad11000 = uniform(random, 3.0, 14.0);
+        rad12000 = uniform(random, 3.0, 14.0);
+        rhoA = uniform(random, 0.01, 0.99);
+        rhoB = uniform(random, 0.01, 0.99);
+        rhoC = uniform(random, 0.01, 0.99);
+        rad11000Float = new float[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            rad11000Float[i] = (float) rad11000[i];
+        }
+        temperatures = new double[numSamples];
+    }
+
+    @Benchmark
+    public double convertRadianceToTemperature() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.convertModisEmissiveRadianceToTemperature(rad11000[i], 31);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double[] convertRadiancesToTemperatures() {
+        ModisMeasures.convertModisEmissiveRadiancesToTemperatures(rad11000Float, 31, temperatures);
+        return temperatures;
+    }
+
+    @Benchmark
+    public double heritageMeasureBT11() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.heritageMeasureBT11(rad11000[i], 290.0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double heritageMeasureSplitWindow() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.heritageMeasureSplitWindow(rad11000[i], rad12000[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double heritageMeasureNegativeBT37minusBT11Night() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.heritageMeasureNegativeBT37minusBT11Night(rad3700[i], rad11000[i], (i & 1) == 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double heritageMeasurePositiveBT37minusBT11NightMixedScene() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.heritageMeasurePositiveBT37minusBT11NightMixedScene(rad3700[i], rad12000[i],
+                                                                                     (i & 1) == 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double heritageMeasureSolarBrightnessThresholdsOcean() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.heritageMeasureSolarBrightnessThresholdsOcean(rhoA[i], (i & 1) == 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double heritageMeasureSolarBrightnessThresholdsLand() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.heritageMeasureSolarBrightnessThresholdsLand(rhoA[i], (i & 1) == 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureR138WaterVapour() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureR138WaterVapour(rhoA[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureBT11() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureBT11(rad3700[i], rad7300[i], rad12000[i], rad11000[i],
+                                                (i & 1) == 0, (i & 2) == 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureCO2() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureCO2(rad12000[i], rad11000[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureBT37minusBT87Deserts() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureBT37minusBT87Deserts(rad3700[i], rad12000[i], (i & 1) == 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasurePositiveBT37minusBT11Day06Glint() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasurePositiveBT37minusBT11Day06Glint(rad3700[i], rad11000[i], rhoA[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureRhoSB_3_5_7_add() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureRhoSB_3_5_7_add(rhoA[i], rhoB[i], rhoC[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureRhoSB_3_5_7_log_multiply() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureRhoSB_3_5_7_log_multiply(rhoA[i], rhoB[i], rhoC[i], true);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureRhoSB_1_3_4() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureRhoSB_1_3_4(rhoA[i], rhoB[i], rhoC[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double newMeasureLogEmiss_25_32_23() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sum += ModisMeasures.newMeasureLogEmiss_25_32_23(rad3700[i], rad12000[i], rad7300[i]);
+        }
+        return sum;
+    }
+
+    private double[] uniform(Random random, double min, double max) {
+        final double[] values = new double[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            values[i] = min + (max - min) * random.nextDouble();
+        }
+        return values;
+    }
+}
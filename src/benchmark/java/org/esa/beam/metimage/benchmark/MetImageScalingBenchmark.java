@@ -0,0 +1,107 @@
+package org.esa.beam.metimage.benchmark;
+
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.metimage.operator.MetImageOp;
+import org.esa.beam.metimage.operator.SyntheticModisOp;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * End-to-end benchmark of {@link MetImageOp} over scene sizes and thread counts. For each scene size a
+ * synthetic product (see {@link SyntheticModisOp}) is written as BEAM-DIMAP product, which is then processed
+ * with each number of threads. Reported are the wall time, the throughput in pixels per second and the peak
+ * heap usage of each run.
+ * <p/>
+ * Usage: MetImageScalingBenchmark [sizes [threads [workDir]]], e.g.
+ * 'MetImageScalingBenchmark 512x512,1354x2030,2708x4060 1,2,4,8', or with Maven:
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark.mainClass=org.esa.beam.metimage.benchmark.MetImageScalingBenchmark
+ * -Dbenchmark.args="1354x2030 1,4"
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class MetImageScalingBenchmark {
+
+    private static final String DEFAULT_SIZES = "512x512,1354x2030,2708x4060";
+    private static final String DEFAULT_THREADS = "1,2,4,8";
+
+    public static void main(String[] args) throws IOException {
+        final String[] sizes = (args.length > 0 ? args[0] : DEFAULT_SIZES).split(",");
+        final String[] threads = (args.length > 1 ? args[1] : DEFAULT_THREADS).split(",");
+        final File workDir = args.length > 2 ? new File(args[2]) :
+                new File(System.getProperty("java.io.tmpdir"), "metimage-scaling-benchmark");
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Cannot create work directory '" + workDir + "'");
+        }
+
+        System.out.println("width\theight\tthreads\tseconds\tpixels/s\tpeak heap [MB]");
+        for (String size : sizes) {
+            final String[] dimensions = size.trim().split("x");
+            final int width = Integer.parseInt(dimensions[0]);
+            final int height = Integer.parseInt(dimensions[1]);
+            final File sceneFile = writeSyntheticScene(workDir, width, height);
+            for (String numThreads : threads) {
+                runMetImage(sceneFile, new File(workDir, "out"), width, height, Integer.parseInt(numThreads.trim()));
+            }
+        }
+    }
+
+    private static File writeSyntheticScene(File workDir, int width, int height) throws IOException {
+        final File sceneFile = new File(workDir, "synthetic_" + width + "x" + height + ".dim");
+        if (!sceneFile.exists()) {
+            final SyntheticModisOp generator = new SyntheticModisOp();
+            generator.setParameter("width", width);
+            generator.setParameter("height", height);
+            final Product scene = generator.getTargetProduct();
+            ProductIO.writeProduct(scene, sceneFile, "BEAM-DIMAP", false);
+            scene.dispose();
+        }
+        return sceneFile;
+    }
+
+    private static void runMetImage(File sceneFile, File outputDir, int width, int height, int numThreads)
+            throws IOException {
+        final Product scene = ProductIO.readProduct(sceneFile);
+        System.gc();
+        resetPeakHeapUsage();
+
+        final MetImageOp metImageOp = new MetImageOp();
+        metImageOp.setSourceProduct(scene);
+        metImageOp.setParameter("outputASCIIDirectory", outputDir);
+        metImageOp.setParameter("outputJSONDirectory", outputDir);
+        metImageOp.setParameter("numberOfThreads", numThreads);
+        final long startTime = System.nanoTime();
+        // all skills are computed when the operator is initialized
+        metImageOp.getTargetProduct();
+        final double seconds = (System.nanoTime() - startTime) / 1.E9;
+        final long peakHeap = getPeakHeapUsage();
+
+        System.out.printf("%d\t%d\t%d\t%.2f\t%.0f\t%.1f%n", width, height, numThreads, seconds,
+                          width * (double) height / seconds, peakHeap / (1024.0 * 1024.0));
+        metImageOp.dispose();
+        scene.dispose();
+    }
+
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // sum of the peak usages of all heap pools, an upper bound of the actual peak heap usage
+    private static long getPeakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
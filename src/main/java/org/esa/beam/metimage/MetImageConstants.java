@@ -83,6 +83,41 @@ public class MetImageConstants {
             MEASURE_NEW_7
     };
 
+    // fixed binning of the measures for histograms merged over several granules (index: measure ID - 1).
+    // Samples outside of it are put into the first or last bin. N5 divides by rho600, which has no lower limit:
+    // with BT3.7 - BT11 within about +-100 K and rho600 down to 0.01 over dark ocean it reaches +-10000.
+    // The standard deviations H7 and N7 and the reflectance N1 are binned logarithmically with 1000 bins per
+    // decade: their clear sky values are small (N7 is sigma(rho600) of about 0 - 0.3 at day, but a standard
+    // deviation in K at night), and their values of 0 and below min are put into the first bin.
+    public static final double[] MEASURE_BINNING_MIN = {
+            -150.0,   // H1: BT11 - Tskin [K]
+            -150.0,   // H2: BT11 - BT12 [K]
+            -150.0,   // H3: BT3.7 - BT11 [K]
+            -150.0,   // H4: BT3.7 - BT12 [K]
+            -0.1,     // H5: rho860
+            -0.1,     // H6: rho600
+            1.0E-3,   // H7: sigma(BT11) [K]
+            1.0E-4,   // N1: rho1380
+            -150.0,   // N2: BT7.3 - BT8.6/BT11 [K]
+            -150.0,   // N3: BT13 - BT11 [K]
+            -150.0,   // N4: BT3.7 - BT8.6 [K]
+            -10000.0, // N5: (BT3.7 - BT11) / rho600 [K]
+            0.0,      // N6: not available
+            1.0E-4    // N7: sigma(BT12 - BT3.7) [K] (night), sigma(rho600) (day)
+    };
+    public static final double[] MEASURE_BINNING_MAX = {
+            150.0, 150.0, 150.0, 150.0, 1.5, 2.0, 100.0,
+            1.0, 150.0, 150.0, 150.0, 10000.0, 1.0, 100.0
+    };
+    public static final int[] MEASURE_BINNING_NUM_BINS = {
+            1500, 1500, 1500, 1500, 800, 1050, 5000,
+            4000, 1500, 1500, 1500, 10000, 10, 6000
+    };
+    public static final boolean[] MEASURE_BINNING_LOGARITHMIC = {
+            false, false, false, false, false, false, true,
+            true, false, false, false, false, false, true
+    };
+
     public static final String[] DAYTIME_FILTER_ID = {"ALL", "DAY", "NIGHT", "TWILIGHT"};
     public static final String[] SURFACE_FILTER_ID = {"ALL", "LAND", "SEA", "ICE"};
     public static final String[] CLOUDTYPE_FILTER_ID = {"ALL", "LOW", "MIDLEVEL", "HIGH", "SEMITRANSPARENT"};
@@ -0,0 +1,179 @@
+package org.esa.beam.metimage.math;
+
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.util.Arrays;
+
+/**
+ * Double precision histogram with equal or unequal bins, providing the alpha-normalized pdf and the cdf
+ * in the same way as {@link MetImageHistogram}.
+ * <p/>
+ * Unlike MetImageHistogram, the cdf is computed by a single prefix sum, samples are assigned to unequal
+ * bins by binary search, and an instance can be reset and reused for another binning, so that the
+ * histograms of all measures and filter combinations do not each allocate new arrays. The bin counts are long,
+ * as histograms merged over many granules may hold more than 2^31 samples.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class DensityHistogram {
+
+    private final int alpha;
+
+    private int numBins;
+    private boolean equalBins;
+    private double min;
+    private double max;
+    private double scale;
+
+    private double[] binBorders;   // one element more than number of bins!
+    private long[] binCounts;
+    private double[] pdf;
+    private double[] cdf;          // one element more than number of bins!
+
+    public DensityHistogram() {
+        this(MetImageConstants.ALPHA);
+    }
+
+    public DensityHistogram(int alpha) {
+        this.alpha = alpha;
+    }
+
+    /**
+     * Clears the histogram and sets up equally spaced bins.
+     *
+     * @param numBins - the number of bins
+     * @param min     - the lower border of the first bin
+     * @param max     - the upper border of the last bin
+     */
+    public void resetEqualBins(int numBins, double min, double max) {
+        allocate(numBins);
+        this.equalBins = true;
+        this.min = min;
+        this.max = max;
+        this.scale = numBins / (max - min);
+        for (int i = 0; i <= numBins; i++) {
+            binBorders[i] = min + i * (max - min) / numBins;
+        }
+    }
+
+    /**
+     * Clears the histogram and sets up bins with the given borders.
+     *
+     * @param borders - the bin borders in ascending order (one element more than the number of bins)
+     */
+    public void resetUnequalBins(double[] borders) {
+        allocate(borders.length - 1);
+        this.equalBins = false;
+        this.min = borders[0];
+        this.max = borders[borders.length - 1];
+        System.arraycopy(borders, 0, binBorders, 0, borders.length);
+    }
+
+    /**
+     * Adds a sample. NaN, infinite values and values outside [min, max] are ignored.
+     *
+     * @param value - the sample
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a number of samples of the same value. NaN, infinite values and values outside [min, max] are ignored.
+     *
+     * @param value - the sample
+     * @param count - the number of samples
+     */
+    public void add(double value, long count) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || value < min || value > max) {
+            return;
+        }
+        int binIndex = equalBins ? (int) ((value - min) * scale) : findUnequalBinIndex(value);
+        if (binIndex >= numBins) {
+            binIndex = numBins - 1;
+        }
+        binCounts[binIndex] += count;
+    }
+
+    /**
+     * Adds the first samples of a buffer.
+     *
+     * @param values    - the sample buffer
+     * @param numValues - the number of valid samples at the beginning of the buffer
+     */
+    public void aggregate(double[] values, int numValues) {
+        for (int i = 0; i < numValues; i++) {
+            add(values[i]);
+        }
+    }
+
+    public void computeDensityFunctions() {
+        for (int i = 0; i < numBins; i++) {
+            pdf[i] = binCounts[i] + alpha * 1.0 / (numBins + alpha * MetImageConstants.NUM_BINS);
+        }
+        double sum = 0.0;
+        cdf[0] = 0.0;
+        for (int i = 0; i < numBins; i++) {
+            sum += pdf[i];
+            cdf[i + 1] = sum;
+        }
+        for (int i = 1; i <= numBins; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double[] getBinBorders() {
+        return binBorders;
+    }
+
+    public long[] getBinCounts() {
+        return binCounts;
+    }
+
+    public double[] getPdf() {
+        return pdf;
+    }
+
+    public double[] getCdf() {
+        return cdf;
+    }
+
+    // first bin whose upper border is greater than the value (values beyond the last border go to the last bin)
+    private int findUnequalBinIndex(double value) {
+        int low = 1;
+        int high = numBins;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (value < binBorders[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low - 1;
+    }
+
+    private void allocate(int numBins) {
+        if (binCounts == null || this.numBins != numBins) {
+            this.numBins = numBins;
+            binBorders = new double[numBins + 1];
+            binCounts = new long[numBins];
+            pdf = new double[numBins];
+            cdf = new double[numBins + 1];
+        } else {
+            Arrays.fill(binCounts, 0);
+        }
+    }
+}
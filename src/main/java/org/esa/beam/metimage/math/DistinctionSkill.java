@@ -15,9 +15,19 @@ import util.MetImageUtils;
  */
 public class DistinctionSkill {
 
+    /**
+     * Computes the distinction skill of two histograms by exact integration (see
+     * {@link #computeDistinctionSkillFromCramerMisesAndersonMetric(double[], double[], double[], double[], double[], long, long)}).
+     *
+     * @param noCloudHisto - histogram A
+     * @param cloudHisto   - histogram B
+     * @param numA         - number of samples of histogram A
+     * @param numB         - number of samples of histogram B
+     * @return double - the distinction skill
+     */
     public static double computeDistinctionSkillFromCramerMisesAndersonMetric(MetImageHistogram noCloudHisto,
                                                                               MetImageHistogram cloudHisto,
-                                                                              int numA, int numB) {
+                                                                              long numA, long numB) {
         final double[] pdfA = MetImageUtils.getAsPrimitiveDoubles(noCloudHisto.getPdf());
         final double[] pdfB = MetImageUtils.getAsPrimitiveDoubles(cloudHisto.getPdf());
         final double[] cdfA = MetImageUtils.getAsPrimitiveDoubles(noCloudHisto.getCdf());
@@ -26,6 +36,62 @@ public class DistinctionSkill {
         return computeDistinctionSkillFromCramerMisesAndersonMetric(pdfA, pdfB, cdfA, cdfB, bins, numA, numB);
     }
 
+    /**
+     * Computes the distinction skill of two double precision histograms on the same bins by exact integration.
+     *
+     * @param noCloudHisto - histogram A
+     * @param cloudHisto   - histogram B
+     * @param numA         - number of samples of histogram A
+     * @param numB         - number of samples of histogram B
+     * @return double - the distinction skill
+     */
+    public static double computeDistinctionSkillFromCramerMisesAndersonMetric(DensityHistogram noCloudHisto,
+                                                                              DensityHistogram cloudHisto,
+                                                                              long numA, long numB) {
+        return computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudHisto.getPdf(), cloudHisto.getPdf(),
+                                                                    noCloudHisto.getCdf(), cloudHisto.getCdf(),
+                                                                    noCloudHisto.getBinBorders(), numA, numB);
+    }
+
+    /**
+     * Computes the distinction skill of two double precision histograms on the same bins by numerical
+     * quadrature (legacy method).
+     *
+     * @param noCloudHisto - histogram A
+     * @param cloudHisto   - histogram B
+     * @param numA         - number of samples of histogram A
+     * @param numB         - number of samples of histogram B
+     * @return double - the distinction skill
+     */
+    public static double computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(DensityHistogram noCloudHisto,
+                                                                                          DensityHistogram cloudHisto,
+                                                                                          long numA, long numB) {
+        return computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(noCloudHisto.getPdf(), cloudHisto.getPdf(),
+                                                                                noCloudHisto.getCdf(), cloudHisto.getCdf(),
+                                                                                noCloudHisto.getBinBorders(), numA, numB);
+    }
+
+    /**
+     * Computes the distinction skill of two histograms by numerical quadrature (legacy method, see
+     * {@link #computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(double[], double[], double[], double[], double[], long, long)}).
+     *
+     * @param noCloudHisto - histogram A
+     * @param cloudHisto   - histogram B
+     * @param numA         - number of samples of histogram A
+     * @param numB         - number of samples of histogram B
+     * @return double - the distinction skill
+     */
+    public static double computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(MetImageHistogram noCloudHisto,
+                                                                                          MetImageHistogram cloudHisto,
+                                                                                          long numA, long numB) {
+        final double[] pdfA = MetImageUtils.getAsPrimitiveDoubles(noCloudHisto.getPdf());
+        final double[] pdfB = MetImageUtils.getAsPrimitiveDoubles(cloudHisto.getPdf());
+        final double[] cdfA = MetImageUtils.getAsPrimitiveDoubles(noCloudHisto.getCdf());
+        final double[] cdfB = MetImageUtils.getAsPrimitiveDoubles(cloudHisto.getCdf());
+        final double[] bins = MetImageUtils.getAsPrimitiveDoubles(noCloudHisto.getEqualBinBorders());
+        return computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(pdfA, pdfB, cdfA, cdfB, bins, numA, numB);
+    }
+
 
     /**
      * Computes the distinction skill based on Cramer-v.Mises-Anderson Metric following R.Preusker, FUB
@@ -40,7 +106,7 @@ public class DistinctionSkill {
      * @return double - the distinction skill
      */
     public static double computeDistinctionSkillFromCramerMisesAndersonMetric(double[] pdfa, double[] pdfb, double[] bins,
-                                                                              int numA, int numB) {
+                                                                              long numA, long numB) {
 
         final int nPdfa = pdfa.length;
         final int nPdfb = pdfb.length;
@@ -57,6 +123,10 @@ public class DistinctionSkill {
     /**
      * Computes the distinction skill based on Cramer-v.Mises-Anderson Metric following R.Preusker, FUB
      * (Python implementation: MI_tools.py)
+     * <p/>
+     * The cdfs are piecewise linear on the bin borders, so the integral 3 * int (cdfa - cdfb)^2 d(cdfab)
+     * is evaluated exactly: on a bin with the cdf differences d0, d1 at its borders it contributes
+     * (cdfab1 - cdfab0) * (d0^2 + d0*d1 + d1^2).
      *
      * @param pdfa - empirical pdf A
      * @param pdfb - empirical pdf B
@@ -66,12 +136,59 @@ public class DistinctionSkill {
      * @param numA - number of samples of pdfa
      * @param numB - number of samples of pdfb  (Needed to calculate the empirical pdf of the two functions together.
     If not given, equal numbers are assumed.)
-     * @return double - the distinction skill
+     * @return double - the distinction skill, NaN if the bins are not strictly increasing
      */
     public static double computeDistinctionSkillFromCramerMisesAndersonMetric(double[] pdfa, double[] pdfb,
                                                                               double[] cdfa, double[] cdfb,
                                                                               double[] bins,
-                                                                              int numA, int numB) {
+                                                                              long numA, long numB) {
+
+        final int nPdfa = pdfa.length;
+        final int nPdfb = pdfb.length;
+        final int nBins = bins.length;
+
+        checkHistogramDimensions(nPdfa, nPdfb, nBins);
+
+        // same preconditions as for the spline interpolation of the quadrature method
+        if (nBins < 2) {
+            return Double.NaN;
+        }
+        for (int i = 1; i < nBins; i++) {
+            if (!(bins[i] > bins[i - 1])) {
+                return Double.NaN;
+            }
+        }
+
+        final double[] cdfab = getCdfAb(cdfa, cdfb, numA, numB);
+
+        double integral = 0.0;
+        for (int i = 0; i < nBins - 1; i++) {
+            final double d0 = cdfa[i] - cdfb[i];
+            final double d1 = cdfa[i + 1] - cdfb[i + 1];
+            integral += (cdfab[i + 1] - cdfab[i]) * (d0 * d0 + d0 * d1 + d1 * d1);
+        }
+        return integral;
+    }
+
+    /**
+     * Computes the distinction skill based on Cramer-v.Mises-Anderson Metric following R.Preusker, FUB
+     * (Python implementation: MI_tools.py) by evaluating spline interpolations of the cdfs at
+     * NUM_QUANTILES points and trapezoidal integration (legacy method).
+     *
+     * @param pdfa - empirical pdf A
+     * @param pdfb - empirical pdf B
+     * @param cdfa - empirical cdf A
+     * @param cdfb - empirical cdf B
+     * @param bins - the bins (one element more than the pdfs!)
+     * @param numA - number of samples of pdfa
+     * @param numB - number of samples of pdfb  (Needed to calculate the empirical pdf of the two functions together.
+    If not given, equal numbers are assumed.)
+     * @return double - the distinction skill
+     */
+    public static double computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(double[] pdfa, double[] pdfb,
+                                                                                          double[] cdfa, double[] cdfb,
+                                                                                          double[] bins,
+                                                                                          long numA, long numB) {
 
         final int nPdfa = pdfa.length;
         final int nPdfb = pdfb.length;
@@ -120,10 +237,13 @@ public class DistinctionSkill {
         }
     }
 
-    private static double[] getCdfAb(double[] cdfa, double[] cdfb, int numCloud, int numNoCloud) {
+    private static double[] getCdfAb(double[] cdfa, double[] cdfb, long numCloud, long numNoCloud) {
+        // weights in double, the sample numbers of merged histograms may exceed the int range
+        final double weightA = numCloud;
+        final double weightB = numNoCloud;
         double[] cdfAb = new double[cdfa.length];
         for (int i=0; i<cdfa.length; i++) {
-            cdfAb[i] = (cdfa[i]*numCloud + cdfb[i]*numNoCloud)/(numCloud + numNoCloud);
+            cdfAb[i] = (cdfa[i]*weightA + cdfb[i]*weightB)/(weightA + weightB);
         }
         return cdfAb;
     }
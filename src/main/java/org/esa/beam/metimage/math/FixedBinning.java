@@ -0,0 +1,171 @@
+package org.esa.beam.metimage.math;
+
+/**
+ * Equally spaced bins over a fixed value range. Histograms of different scenes on the same fixed binning
+ * can be merged by adding their bin counts, independent of the value ranges of the individual scenes.
+ * <p/>
+ * A logarithmic binning spaces the bins equally in log(value), for non-negative measures whose values span
+ * several orders of magnitude (e.g. a standard deviation in reflectance at day and in K at night), so that
+ * the bins stay fine compared to the value range of every filter combination.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class FixedBinning {
+
+    private final double min;
+    private final double max;
+    private final int numBins;
+    private final boolean logarithmic;
+    private final double offset;
+    private final double scale;
+
+    /**
+     * @param min     - the lower border of the first bin
+     * @param max     - the upper border of the last bin
+     * @param numBins - the number of bins
+     */
+    public FixedBinning(double min, double max, int numBins) {
+        this(min, max, numBins, false);
+    }
+
+    /**
+     * @param min         - the lower border of the first bin, greater than 0 for a logarithmic binning
+     * @param max         - the upper border of the last bin
+     * @param numBins     - the number of bins
+     * @param logarithmic - if set, the bins are equally spaced in log(value)
+     */
+    public FixedBinning(double min, double max, int numBins, boolean logarithmic) {
+        if (numBins <= 0 || !(max > min) || logarithmic && !(min > 0.0)) {
+            throw new IllegalArgumentException("Invalid binning: [" + min + ", " + max + "], " + numBins + " bins" +
+                                                       (logarithmic ? ", logarithmic" : ""));
+        }
+        this.min = min;
+        this.max = max;
+        this.numBins = numBins;
+        this.logarithmic = logarithmic;
+        this.offset = logarithmic ? Math.log(min) : min;
+        this.scale = numBins / (logarithmic ? Math.log(max) - offset : max - min);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    public boolean isLogarithmic() {
+        return logarithmic;
+    }
+
+    /**
+     * Provides the bin of a value. The upper border of the last bin belongs to the last bin.
+     *
+     * @param value - the value (not NaN)
+     * @return int - the bin index, -1 if the value is below min, numBins if it is above max
+     */
+    public int getBinIndex(double value) {
+        if (value < min) {
+            return -1;
+        }
+        if (value > max) {
+            return numBins;
+        }
+        final int binIndex = (int) (((logarithmic ? Math.log(value) : value) - offset) * scale);
+        // a value on a border may be rounded into the neighbouring bin, as given by getBinBorder
+        if (binIndex > 0 && value < getBinBorder(binIndex)) {
+            return binIndex - 1;
+        }
+        if (binIndex < numBins - 1 && value >= getBinBorder(binIndex + 1)) {
+            return binIndex + 1;
+        }
+        return Math.min(binIndex, numBins - 1);
+    }
+
+    /**
+     * @param binIndex - the bin index (0..numBins)
+     * @return double - the lower border of the bin (the upper border of the last bin for numBins)
+     */
+    public double getBinBorder(int binIndex) {
+        if (binIndex == numBins) {
+            return max;
+        }
+        if (logarithmic) {
+            return binIndex == 0 ? min : Math.exp(offset + binIndex / scale);
+        }
+        return min + binIndex * (max - min) / numBins;
+    }
+
+    /**
+     * Provides the borders of coarser bins covering a range of bins. The coarse bins approximate equal widths in
+     * value (also for a logarithmic binning): each inner border is the border of this binning nearest to the
+     * equally spaced one, so that every bin of this binning lies in exactly one coarse bin. Coarse bins which
+     * would have no width are merged.
+     *
+     * @param firstBin      - the first bin to cover
+     * @param lastBin       - the last bin to cover
+     * @param numCoarseBins - the requested number of coarse bins, reduced to the number of covered bins if necessary
+     * @return double[] - the borders of the coarse bins (one element more than the number of coarse bins)
+     */
+    public double[] getCoarseBinBorders(int firstBin, int lastBin, int numCoarseBins) {
+        final int numCovered = lastBin - firstBin + 1;
+        final int numTargetBins = Math.min(numCoarseBins, numCovered);
+        final double lower = getBinBorder(firstBin);
+        final double upper = getBinBorder(lastBin + 1);
+        final int[] borderIndices = new int[numTargetBins + 1];
+        int numBorders = 0;
+        borderIndices[numBorders++] = firstBin;
+        for (int j = 1; j < numTargetBins; j++) {
+            final double target = lower + j * (upper - lower) / numTargetBins;
+            int index = getBinIndex(target);
+            if (index < numBins && target - getBinBorder(index) > getBinBorder(index + 1) - target) {
+                index++;
+            }
+            if (index > borderIndices[numBorders - 1] && index <= lastBin) {
+                borderIndices[numBorders++] = index;
+            }
+        }
+        borderIndices[numBorders++] = lastBin + 1;
+
+        double[] borders = new double[numBorders];
+        for (int j = 0; j < numBorders; j++) {
+            borders[j] = getBinBorder(borderIndices[j]);
+        }
+        return borders;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FixedBinning)) {
+            return false;
+        }
+        final FixedBinning that = (FixedBinning) o;
+        return numBins == that.numBins &&
+                logarithmic == that.logarithmic &&
+                Double.compare(min, that.min) == 0 &&
+                Double.compare(max, that.max) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(min);
+        int result = (int) (bits ^ (bits >>> 32));
+        bits = Double.doubleToLongBits(max);
+        result = 31 * result + (int) (bits ^ (bits >>> 32));
+        result = 31 * result + (logarithmic ? 1 : 0);
+        return 31 * result + numBins;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + min + ", " + max + "], " + numBins + " bins" + (logarithmic ? ", logarithmic" : "");
+    }
+}
@@ -0,0 +1,197 @@
+package org.esa.beam.metimage.math;
+
+import java.util.Arrays;
+
+/**
+ * Sample counts on a {@link FixedBinning}. Merging two histograms just adds their counts, so the result
+ * does not depend on how the samples were split into histograms or in which order these are merged.
+ * Values outside the binning range are not binned but counted as underflow and overflow; when aggregated into
+ * a coarser histogram, these are put into the first and last bin.
+ * <p/>
+ * The fine fixed bins are meant to be accumulated over many scenes; the distinction skill is then
+ * computed on a coarser {@link DensityHistogram} (see {@link #aggregateInto(DensityHistogram)}).
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class MergeableHistogram {
+
+    private final FixedBinning binning;
+    private final long[] binCounts;
+    private long underflowCount;
+    private long overflowCount;
+
+    public MergeableHistogram(FixedBinning binning) {
+        this.binning = binning;
+        this.binCounts = new long[binning.getNumBins()];
+    }
+
+    /**
+     * Adds a sample. NaN values are ignored.
+     *
+     * @param value - the sample
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        final int binIndex = binning.getBinIndex(value);
+        if (binIndex < 0) {
+            underflowCount++;
+        } else if (binIndex >= binCounts.length) {
+            overflowCount++;
+        } else {
+            binCounts[binIndex]++;
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram.
+     *
+     * @param other - a histogram on the same binning
+     */
+    public void merge(MergeableHistogram other) {
+        if (!binning.equals(other.binning)) {
+            throw new IllegalArgumentException("Cannot merge histograms on different binnings: " +
+                                                       binning + " / " + other.binning);
+        }
+        for (int i = 0; i < binCounts.length; i++) {
+            binCounts[i] += other.binCounts[i];
+        }
+        underflowCount += other.underflowCount;
+        overflowCount += other.overflowCount;
+    }
+
+    /**
+     * Adds samples to a bin.
+     *
+     * @param binIndex - the bin index
+     * @param count    - the number of samples
+     */
+    public void addBinCount(int binIndex, long count) {
+        binCounts[binIndex] += count;
+    }
+
+    /**
+     * Adds samples outside the binning range.
+     *
+     * @param underflow - the number of samples below the range
+     * @param overflow  - the number of samples above the range
+     */
+    public void addOutOfRangeCounts(long underflow, long overflow) {
+        underflowCount += underflow;
+        overflowCount += overflow;
+    }
+
+    public void clear() {
+        Arrays.fill(binCounts, 0L);
+        underflowCount = 0;
+        overflowCount = 0;
+    }
+
+    public FixedBinning getBinning() {
+        return binning;
+    }
+
+    /**
+     * @return long[] - the bin counts (not a copy)
+     */
+    public long[] getBinCounts() {
+        return binCounts;
+    }
+
+    /**
+     * @return long - the number of binned samples, not counting underflow and overflow
+     */
+    public long getNumSamples() {
+        long numSamples = 0;
+        for (long binCount : binCounts) {
+            numSamples += binCount;
+        }
+        return numSamples;
+    }
+
+    /**
+     * @return long - the number of all samples, including underflow and overflow
+     */
+    public long getTotalCount() {
+        return getNumSamples() + underflowCount + overflowCount;
+    }
+
+    public long getUnderflowCount() {
+        return underflowCount;
+    }
+
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * @return int - the first bin with a non-zero count, -1 if the histogram is empty
+     */
+    public int getFirstOccupiedBin() {
+        for (int i = 0; i < binCounts.length; i++) {
+            if (binCounts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return int - the last bin with a non-zero count, -1 if the histogram is empty
+     */
+    public int getLastOccupiedBin() {
+        for (int i = binCounts.length - 1; i >= 0; i--) {
+            if (binCounts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return int - the first bin with a non-zero count, 0 if there is underflow, -1 if there are no samples
+     */
+    public int getFirstCoveredBin() {
+        if (underflowCount > 0) {
+            return 0;
+        }
+        final int firstOccupiedBin = getFirstOccupiedBin();
+        return firstOccupiedBin < 0 && overflowCount > 0 ? binCounts.length - 1 : firstOccupiedBin;
+    }
+
+    /**
+     * @return int - the last bin with a non-zero count, the last bin if there is overflow, -1 if there are no samples
+     */
+    public int getLastCoveredBin() {
+        if (overflowCount > 0) {
+            return binCounts.length - 1;
+        }
+        final int lastOccupiedBin = getLastOccupiedBin();
+        return lastOccupiedBin < 0 && underflowCount > 0 ? 0 : lastOccupiedBin;
+    }
+
+    /**
+     * Adds the counts to a coarser histogram. The bin borders of the target must be aligned with the fixed
+     * bin borders (see {@link FixedBinning#getCoarseBinBorders(int, int, int)}), so that each fixed bin falls
+     * into exactly one target bin. Underflow and overflow are added to the first and last fixed bin, so the
+     * target must cover these if there are any (see {@link #getFirstCoveredBin()}, {@link #getLastCoveredBin()}).
+     *
+     * @param target - the target histogram
+     */
+    public void aggregateInto(DensityHistogram target) {
+        for (int i = 0; i < binCounts.length; i++) {
+            long count = binCounts[i];
+            if (i == 0) {
+                count += underflowCount;
+            }
+            if (i == binCounts.length - 1) {
+                count += overflowCount;
+            }
+            if (count > 0) {
+                final double binCenter = 0.5 * (binning.getBinBorder(i) + binning.getBinBorder(i + 1));
+                target.add(binCenter, count);
+            }
+        }
+    }
+}
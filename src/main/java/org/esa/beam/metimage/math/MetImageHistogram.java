@@ -3,9 +3,6 @@ package org.esa.beam.metimage.math;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.commons.math3.analysis.interpolation.LinearInterpolator;
 import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
-import org.apache.commons.math3.stat.descriptive.rank.Max;
-import org.apache.commons.math3.stat.descriptive.rank.Min;
-import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 import org.esa.beam.metimage.MetImageConstants;
 import org.esa.beam.util.Guardian;
 import org.esa.beam.util.math.Histogram;
@@ -13,8 +10,6 @@ import org.esa.beam.util.math.IndexValidator;
 import org.esa.beam.util.math.Range;
 import util.MetImageUtils;
 
-import java.util.Arrays;
-
 /**
  * Histogram class for MetImage purposes
  *
@@ -53,13 +48,34 @@ public class MetImageHistogram extends Histogram {
         return cloudHisto;
     }
 
+    public static MetImageHistogram createAggregatedHistogram(double[] samples, int numSamples,
+                                                              int numberOfBins, double min, double max) {
+        MetImageHistogram histo = new MetImageHistogram(new int[numberOfBins],
+                                                        min, max,
+                                                        MetImageConstants.ALPHA);
+        histo.aggregate(samples, numSamples);
+        histo.computeDensityFunctions();
+        return histo;
+    }
+
     public static MetImageHistogram createAggregatedEqualizedHistogram(double[] srcSamples) {
+        return createAggregatedEqualizedHistogram(new SortedSampleSummary(srcSamples));
+    }
 
-        int nBins = MetImageHistogram.findOptimalNumberOfBins(srcSamples);
+    /**
+     * Creates the equalized histogram of samples given by their sorted summary.
+     *
+     * @param summary - the sorted samples
+     * @return MetImageHistogram - the histogram with unequal bins of about equal frequency
+     */
+    public static MetImageHistogram createAggregatedEqualizedHistogram(SortedSampleSummary summary) {
+
+        int nBins = MetImageHistogram.findOptimalNumberOfBins(summary);
+        final double[] srcSamples = summary.getSortedSamples();
 
         // first get a 'normal' histo with 1000 equally spaced bins...
-        final double maxSrcSamples = (new Max()).evaluate(srcSamples);
-        final double minSrcSamples = (new Min()).evaluate(srcSamples);
+        final double maxSrcSamples = summary.getMax();
+        final double minSrcSamples = summary.getMin();
         final MetImageHistogram equalSpacedBinsHisto = new MetImageHistogram(new int[1000],
                                                                              minSrcSamples,
                                                                              maxSrcSamples,
@@ -89,6 +105,36 @@ public class MetImageHistogram extends Histogram {
         return equalizedHistogram;
     }
 
+    /**
+     * Provides bin borders of equal frequency as order statistics of the sorted samples: border k of nBinBorders
+     * borders is the order statistic at rank k / (nBinBorders - 1). Tied samples give repeated order statistics;
+     * these are merged, so that no bin has zero width and there may be fewer borders than requested.
+     *
+     * @param summary     - the sorted samples
+     * @param nBinBorders - the number of bin borders (one more than the number of bins)
+     * @return double[] - the strictly increasing bin borders, from min to max
+     * @throws IllegalArgumentException - if the samples have no spread
+     */
+    public static double[] getEqualFrequencyBinBorders(SortedSampleSummary summary, int nBinBorders) {
+        double[] binBorders = new double[nBinBorders];
+        int numDistinct = 0;
+        for (int i = 0; i < nBinBorders; i++) {
+            final double binBorder = summary.getOrderStatistic(i * 1.0 / (nBinBorders - 1));
+            if (numDistinct == 0 || binBorder > binBorders[numDistinct - 1]) {
+                binBorders[numDistinct++] = binBorder;
+            }
+        }
+        if (numDistinct < 2) {
+            throw new IllegalArgumentException("Samples have no spread - cannot derive equal frequency bins.");
+        }
+        if (numDistinct < nBinBorders) {
+            final double[] distinctBinBorders = new double[numDistinct];
+            System.arraycopy(binBorders, 0, distinctBinBorders, 0, numDistinct);
+            binBorders = distinctBinBorders;
+        }
+        return binBorders;
+    }
+
     public float[] getEqualBinBorders() {
         return equalBinBorders;
     }
@@ -115,17 +161,22 @@ public class MetImageHistogram extends Histogram {
     }
 
     public static int findOptimalNumberOfBins(double[] b) {
+        return findOptimalNumberOfBins(new SortedSampleSummary(b));
+    }
 
-        Arrays.sort(b);
-        Percentile pp = new Percentile();
-        final double p75 = pp.evaluate(b, 75.0);
-        final double p25 = pp.evaluate(b, 25.0);
+    /**
+     * Provides the optimal number of bins following the Freedman-Diaconis rule.
+     *
+     * @param summary - the sorted samples
+     * @return int - the number of bins, or -1 if the samples have no spread
+     */
+    public static int findOptimalNumberOfBins(SortedSampleSummary summary) {
 
-        final double pDiff = p75 - p25;
-        final double h = 2.0 * pDiff / (Math.pow(b.length, 1. / 3.));
+        final double pDiff = summary.getInterquartileRange();
+        final double h = 2.0 * pDiff / (Math.pow(summary.getCount(), 1. / 3.));
 
-        final double maxB = (new Max()).evaluate(b);
-        final double minB = (new Min()).evaluate(b);
+        final double maxB = summary.getMax();
+        final double minB = summary.getMin();
 
         if (h > 0 && maxB > minB) {
             return (int) Math.ceil((maxB - minB) / h);
@@ -134,6 +185,31 @@ public class MetImageHistogram extends Histogram {
         }
     }
 
+    /**
+     * Aggregates the first values of a buffer into this histogram. This allows to bin a sample stream
+     * chunk by chunk with the same binning as {@link #aggregate}, without holding all samples in memory.
+     *
+     * @param values    - the value buffer
+     * @param numValues - the number of valid values at the beginning of the buffer
+     */
+    public void aggregate(double[] values, final int numValues) {
+        aggregate(values, false, new IndexValidator() {
+            @Override
+            public boolean validateIndex(int index) {
+                return index < numValues;
+            }
+        }, ProgressMonitor.NULL);
+    }
+
+    public void aggregateUnequalBins(final double[] values, final int numValues) {
+        aggregateUnequalBins(values, new IndexValidator() {
+            @Override
+            public boolean validateIndex(int index) {
+                return index < numValues;
+            }
+        });
+    }
+
     public void aggregateUnequalBins(final double[] values, final IndexValidator validator) {
         Guardian.assertNotNull("validator", validator);
         final int[] newCounts = computeUnequalBins(values, getUnequalBinBorders(), validator,
@@ -165,21 +241,17 @@ public class MetImageHistogram extends Histogram {
     }
 
     private void computeCdf() {
+        // running float sum, same summation order as summing up each prefix separately
         final int nCdf = cdf.length;
-        cdf[nCdf - 1] = getCumulativeSum(pdf, 0, nCdf - 1);
-        for (int i = 0; i < nCdf; i++) {
-            cdf[i] = getCumulativeSum(pdf, 0, i) / cdf[nCdf - 1];
-        }
-    }
-
-    private float getCumulativeSum(float[] array, int startIndex, int endIndex) {
         float sum = 0.0f;
-        final int start = Math.max(0, startIndex);
-        final int end = Math.min(array.length, endIndex);
-        for (int i = start; i < end; i++) {
-            sum += array[i];
+        cdf[0] = sum;
+        for (int i = 1; i < nCdf; i++) {
+            sum += pdf[i - 1];
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < nCdf; i++) {
+            cdf[i] /= sum;
         }
-        return sum;
     }
 
     private int[] computeUnequalBins(final double[] values,
@@ -215,12 +287,18 @@ public class MetImageHistogram extends Histogram {
     }
 
     private int findUnequalBinIndex(double value, double[] binBorders) {
-        for (int i = 1; i < binBorders.length; i++) {
-            if (value < binBorders[i]) {
-                return i - 1;
+        // binary search for the first upper border greater than the value
+        int low = 1;
+        int high = binBorders.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (value < binBorders[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
         }
-        return binBorders.length - 1;
+        return low - 1;
     }
 
 }
@@ -0,0 +1,131 @@
+package org.esa.beam.metimage.math;
+
+import java.util.Arrays;
+
+/**
+ * Sorted copy of a set of samples, computed once and shared by all steps of the histogram equalization.
+ * Count, min, max, quantiles and the interquartile range are then available in O(1), and the
+ * caller's sample array is never reordered.
+ * <p/>
+ * Percentiles are estimated as in commons-math Percentile (position p * (n + 1) / 100, linear
+ * interpolation between the neighbouring order statistics).
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class SortedSampleSummary {
+
+    private final double[] sortedSamples;
+
+    /**
+     * @param samples - the samples (not modified)
+     */
+    public SortedSampleSummary(double[] samples) {
+        this(samples, samples.length);
+    }
+
+    /**
+     * @param samples    - the sample buffer (not modified)
+     * @param numSamples - the number of valid samples at the beginning of the buffer
+     */
+    public SortedSampleSummary(double[] samples, int numSamples) {
+        sortedSamples = Arrays.copyOf(samples, numSamples);
+        Arrays.sort(sortedSamples);
+    }
+
+    /**
+     * Summary of the union of two sample buffers.
+     *
+     * @param samples1    - the first sample buffer (not modified)
+     * @param numSamples1 - the number of valid samples of the first buffer
+     * @param samples2    - the second sample buffer (not modified)
+     * @param numSamples2 - the number of valid samples of the second buffer
+     */
+    public SortedSampleSummary(double[] samples1, int numSamples1, double[] samples2, int numSamples2) {
+        sortedSamples = new double[numSamples1 + numSamples2];
+        System.arraycopy(samples1, 0, sortedSamples, 0, numSamples1);
+        System.arraycopy(samples2, 0, sortedSamples, numSamples1, numSamples2);
+        Arrays.sort(sortedSamples);
+    }
+
+    public int getCount() {
+        return sortedSamples.length;
+    }
+
+    public double getMin() {
+        return sortedSamples.length > 0 ? sortedSamples[0] : Double.NaN;
+    }
+
+    public double getMax() {
+        return sortedSamples.length > 0 ? sortedSamples[sortedSamples.length - 1] : Double.NaN;
+    }
+
+    /**
+     * @param p - the percentile (0..100)
+     * @return double - the estimated percentile, NaN if there are no samples
+     */
+    public double getPercentile(double p) {
+        final int n = sortedSamples.length;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return sortedSamples[0];
+        }
+        final double pos = p * (n + 1) / 100;
+        final double fpos = Math.floor(pos);
+        final int intPos = (int) fpos;
+        final double dif = pos - fpos;
+        if (pos < 1) {
+            return sortedSamples[0];
+        }
+        if (pos >= n) {
+            return sortedSamples[n - 1];
+        }
+        final double lower = sortedSamples[intPos - 1];
+        final double upper = sortedSamples[intPos];
+        return lower + dif * (upper - lower);
+    }
+
+    /**
+     * @param q - the quantile (0..1)
+     * @return double - the estimated quantile
+     */
+    public double getQuantile(double q) {
+        return getPercentile(100.0 * q);
+    }
+
+    /**
+     * Provides an order statistic at a fractional rank, interpolating linearly between neighbouring samples.
+     * Rank 0 is the minimum, rank 1 the maximum.
+     *
+     * @param q - the fractional rank (0..1)
+     * @return double - the order statistic, NaN if there are no samples
+     */
+    public double getOrderStatistic(double q) {
+        final int n = sortedSamples.length;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        final double pos = Math.max(0.0, Math.min(1.0, q)) * (n - 1);
+        final int intPos = (int) Math.floor(pos);
+        if (intPos >= n - 1) {
+            return sortedSamples[n - 1];
+        }
+        final double dif = pos - intPos;
+        return sortedSamples[intPos] + dif * (sortedSamples[intPos + 1] - sortedSamples[intPos]);
+    }
+
+    /**
+     * @return double - the interquartile range (75th minus 25th percentile)
+     */
+    public double getInterquartileRange() {
+        return getPercentile(75.0) - getPercentile(25.0);
+    }
+
+    /**
+     * @return double[] - the sorted samples (not a copy, must not be modified)
+     */
+    public double[] getSortedSamples() {
+        return sortedSamples;
+    }
+}
@@ -0,0 +1,423 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background writer of the ASCII tables, JSON histograms and histogram archives, so that the threads computing the skills do not
+ * perform any file I/O. Output is handed over through a bounded queue (producers only wait if the queue is
+ * full) and written by a single thread in the order of submission, so the rows of a table are written in the
+ * order they are appended. The writer thread drains up to {@link #MAX_BATCH_SIZE} jobs at a time and flushes
+ * the buffered text files once per batch; with metrics, the time of each batch is measured as
+ * {@link MetImageMetrics.Phase#OUTPUT_WRITE}. Data files are written at given positions, so their layout does not
+ * depend on the order of submission.
+ * <p/>
+ * A failure to write a text or data file is reported by {@link #close()}, or only logged by {@link #closeQuietly()}
+ * if the output is incomplete anyway because its producer has failed; a file written by {@link #writeFile} which
+ * cannot be written is skipped with a warning, as the JSON histograms were before.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class AsyncOutputWriter {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int MAX_BATCH_SIZE = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SUBMIT_TIMEOUT_MILLIS = 100;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final BlockingQueue<Job> queue;
+    private final Thread thread;
+    private final List<OutputFile> outputFiles;
+    private final MetImageMetrics metrics;
+    private volatile String error;
+    private volatile boolean closed;
+
+    public AsyncOutputWriter() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AsyncOutputWriter(int queueCapacity) {
+        this(queueCapacity, null);
+    }
+
+    /**
+     * Creates the writer and starts its thread.
+     *
+     * @param queueCapacity - the maximum number of pending jobs
+     * @param metrics       - the metrics of the run, may be null
+     */
+    public AsyncOutputWriter(int queueCapacity, MetImageMetrics metrics) {
+        this.metrics = metrics;
+        queue = new ArrayBlockingQueue<Job>(queueCapacity);
+        outputFiles = new ArrayList<OutputFile>();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processJobs();
+                } catch (Error e) {
+                    // the pending output is lost, which is reported by close()
+                    setError(null, e);
+                    throw e;
+                }
+            }
+        }, "MetImage output writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates (or truncates) a text file which is written by appending. The file is opened on the calling
+     * thread, so a file which cannot be created is reported immediately.
+     *
+     * @param file - the text file
+     * @return TextFile - the handle for appending
+     * @throws IOException - if the file cannot be created
+     */
+    public TextFile openTextFile(File file) throws IOException {
+        final FileChannel channel = new FileOutputStream(file).getChannel();
+        final Writer writer = new BufferedWriter(Channels.newWriter(channel, CHARSET.newEncoder(), -1), BUFFER_SIZE);
+        final TextFile textFile = new TextFile(file, writer);
+        addOutputFile(textFile);
+        return textFile;
+    }
+
+    /**
+     * Creates (or truncates) a binary file which is written at given positions. The file is opened on the
+     * calling thread, so a file which cannot be created is reported immediately.
+     *
+     * @param file - the data file
+     * @return DataFile - the handle for writing
+     * @throws IOException - if the file cannot be created
+     */
+    public DataFile openDataFile(File file) throws IOException {
+        final DataFile dataFile = new DataFile(file, new FileOutputStream(file).getChannel());
+        addOutputFile(dataFile);
+        return dataFile;
+    }
+
+    /**
+     * Appends text to a text file.
+     *
+     * @param textFile - the text file
+     * @param text     - the text
+     */
+    public void append(final TextFile textFile, final String text) {
+        submit(new Job() {
+            @Override
+            void run() throws IOException {
+                textFile.append(text);
+            }
+        });
+    }
+
+    /**
+     * Writes bytes to a data file.
+     *
+     * @param dataFile - the data file
+     * @param bytes    - the bytes, not to be modified after submission
+     * @param position - the file position of the first byte
+     */
+    public void write(final DataFile dataFile, final ByteBuffer bytes, final long position) {
+        submit(new Job() {
+            @Override
+            void run() throws IOException {
+                dataFile.write(bytes, position);
+            }
+        });
+    }
+
+    /**
+     * Writes a complete file, replacing an existing one.
+     *
+     * @param file    - the file
+     * @param content - the content of the file
+     */
+    public void writeFile(final File file, final String content) {
+        submit(new Job() {
+            @Override
+            void run() {
+                try {
+                    writeChannel(file, CHARSET.encode(content));
+                } catch (IOException e) {
+                    System.out.println("WARNING: Could not write to file '" +
+                            file.getAbsolutePath() + "' - skipping. Reason: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes all pending output, stops the writer thread and closes the text and data files. Output submitted after
+     * closing is rejected.
+     *
+     * @throws OperatorException - if a text or data file could not be written
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(new Job() {
+                @Override
+                void run() {
+                    // marks the end of the jobs
+                }
+
+                @Override
+                boolean isLast() {
+                    return true;
+                }
+            });
+        } catch (OperatorException e) {
+            // the writer thread has stopped, the files are closed nevertheless
+            setError(null, e);
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while writing output.");
+        }
+        for (OutputFile outputFile : getOutputFiles()) {
+            try {
+                outputFile.close();
+            } catch (IOException e) {
+                setError(outputFile.file, e);
+            }
+        }
+        if (error != null) {
+            throw new OperatorException(error);
+        }
+    }
+
+    /**
+     * Closes the writer after its producer has failed: the pending output is still written, but a failure to
+     * write it is only logged, so that it does not mask the failure of the producer.
+     */
+    public void closeQuietly() {
+        try {
+            close();
+        } catch (OperatorException e) {
+            System.out.println("WARNING: " + e.getMessage());
+        }
+    }
+
+    void submit(Job job) {
+        if (closed && !job.isLast() || !thread.isAlive()) {
+            throw new OperatorException("Output writer is closed.");
+        }
+        try {
+            // the writer thread may stop while the queue is full, so waiting for space must not be unbounded
+            while (!queue.offer(job, SUBMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!thread.isAlive()) {
+                    throw new OperatorException("Output writer has stopped" +
+                                                        (error != null ? ": " + error : "."));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while queueing output.");
+        }
+    }
+
+    private void processJobs() {
+        final List<Job> batch = new ArrayList<Job>(MAX_BATCH_SIZE);
+        boolean last = false;
+        while (!last) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // only close() ends the writer, so that no output is lost
+                continue;
+            }
+            final MetImageMetrics.Stopwatch stopwatch = metrics != null ? metrics.start() : null;
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            for (Job job : batch) {
+                try {
+                    job.run();
+                } catch (IOException e) {
+                    setError(null, e);
+                } catch (RuntimeException e) {
+                    setError(null, e);
+                }
+                last |= job.isLast();
+            }
+            batch.clear();
+            flushOutputFiles();
+            if (metrics != null) {
+                metrics.stop(stopwatch, MetImageMetrics.Phase.OUTPUT_WRITE);
+            }
+        }
+    }
+
+    private void flushOutputFiles() {
+        for (OutputFile outputFile : getOutputFiles()) {
+            try {
+                outputFile.flush();
+            } catch (IOException e) {
+                setError(outputFile.file, e);
+            }
+        }
+    }
+
+    private void addOutputFile(OutputFile outputFile) {
+        synchronized (outputFiles) {
+            outputFiles.add(outputFile);
+        }
+    }
+
+    private OutputFile[] getOutputFiles() {
+        synchronized (outputFiles) {
+            return outputFiles.toArray(new OutputFile[outputFiles.size()]);
+        }
+    }
+
+    private void setError(File file, Throwable e) {
+        if (error == null) {
+            error = "Unable to write output" + (file != null ? " '" + file + "'" : "") + ": " + e.getMessage();
+        }
+    }
+
+    private static void writeChannel(File file, ByteBuffer bytes) throws IOException {
+        final FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // a text or data file, closed by close()
+    private abstract static class OutputFile {
+
+        final File file;
+
+        OutputFile(File file) {
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        abstract void flush() throws IOException;
+
+        abstract void close() throws IOException;
+    }
+
+    /**
+     * Handle of a text file written by appending. All access is made by the writer thread,
+     * except for closing.
+     */
+    public static class TextFile extends OutputFile {
+
+        private final Writer writer;
+        private boolean dirty;
+        private boolean failed;
+
+        private TextFile(File file, Writer writer) {
+            super(file);
+            this.writer = writer;
+        }
+
+        private void append(String text) throws IOException {
+            if (failed) {
+                return;
+            }
+            try {
+                writer.write(text);
+                dirty = true;
+            } catch (IOException e) {
+                failed = true;
+                throw new IOException("'" + file + "': " + e.getMessage());
+            }
+        }
+
+        @Override
+        void flush() throws IOException {
+            if (dirty && !failed) {
+                dirty = false;
+                try {
+                    writer.flush();
+                } catch (IOException e) {
+                    failed = true;
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Handle of a binary file written at given positions. All access is made by the writer thread,
+     * except for closing.
+     */
+    public static class DataFile extends OutputFile {
+
+        private final FileChannel channel;
+        private boolean failed;
+
+        private DataFile(File file, FileChannel channel) {
+            super(file);
+            this.channel = channel;
+        }
+
+        private void write(ByteBuffer bytes, long position) throws IOException {
+            if (failed) {
+                return;
+            }
+            try {
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+            } catch (IOException e) {
+                failed = true;
+                throw new IOException("'" + file + "': " + e.getMessage());
+            }
+        }
+
+        @Override
+        void flush() {
+            // written without buffering
+        }
+
+        @Override
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // a unit of output, run by the writer thread
+    abstract static class Job {
+
+        abstract void run() throws IOException;
+
+        boolean isLast() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.esa.beam.metimage.operator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes GZIP compressed binary files (measure caches, histogram partials, checkpoints) under a temporary name
+ * and renames them when complete, so that a reader never sees an incomplete file and an existing file is kept
+ * if writing fails.
+ * <p/>
+ * The temporary file is synced to the disk before it is renamed, so that after a crash the renamed file is
+ * never empty or truncated. Where renaming onto an existing file fails, the existing file is renamed to a
+ * backup first and only deleted when the new file is in place; readers use {@link #resolve(File)} to fall back
+ * to the backup if a crash has interrupted the replacement. The directory itself cannot be synced with the
+ * Java 6 API, so a rename just before a crash may be lost, leaving the previous file.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+class AtomicFileWriter {
+
+    static final String BACKUP_SUFFIX = ".bak";
+
+    /**
+     * The content of a file.
+     */
+    interface Content {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private AtomicFileWriter() {
+    }
+
+    /**
+     * Writes a file.
+     *
+     * @param file    - the file, replaced if it exists
+     * @param content - the content
+     * @throws IOException if writing or renaming fails; the temporary file is deleted then
+     */
+    static void writeGzipped(File file, Content content) throws IOException {
+        final File tmpFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            final FileOutputStream fileOut = new FileOutputStream(tmpFile);
+            try {
+                final GZIPOutputStream gzipOut = new GZIPOutputStream(fileOut);
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzipOut));
+                content.write(out);
+                out.flush();
+                gzipOut.finish();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            replace(tmpFile, file);
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Provides the file to read: the file itself or, if a replacement has been interrupted before the new file
+     * was in place, its backup.
+     *
+     * @param file - the file
+     * @return File - the file or its backup
+     */
+    static File resolve(File file) {
+        final File backupFile = getBackupFile(file);
+        return !file.exists() && backupFile.exists() ? backupFile : file;
+    }
+
+    /**
+     * @param file - the file
+     * @return boolean - true if the file or its backup exists
+     */
+    static boolean exists(File file) {
+        return resolve(file).exists();
+    }
+
+    /**
+     * Deletes a file and its backup.
+     *
+     * @param file - the file
+     * @return boolean - true if neither the file nor its backup exists afterwards
+     */
+    static boolean delete(File file) {
+        final File backupFile = getBackupFile(file);
+        final boolean deleted = !file.exists() || file.delete();
+        return (!backupFile.exists() || backupFile.delete()) && deleted;
+    }
+
+    static File getBackupFile(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + BACKUP_SUFFIX);
+    }
+
+    private static void replace(File tmpFile, File file) throws IOException {
+        final File backupFile = getBackupFile(file);
+        // renaming onto an existing file is atomic on POSIX file systems, but fails on some platforms
+        if (!tmpFile.renameTo(file)) {
+            if (!file.exists()) {
+                throw new IOException("cannot rename '" + tmpFile + "' to '" + file + "'");
+            }
+            // the existing file is complete, so an older backup is not needed anymore
+            if (backupFile.exists() && !backupFile.delete()) {
+                throw new IOException("cannot delete '" + backupFile + "'");
+            }
+            if (!file.renameTo(backupFile)) {
+                throw new IOException("cannot rename '" + file + "' to '" + backupFile + "'");
+            }
+            if (!tmpFile.renameTo(file)) {
+                backupFile.renameTo(file);
+                throw new IOException("cannot rename '" + tmpFile + "' to '" + file + "'");
+            }
+        }
+        // a backup left by an interrupted replacement is outdated now
+        if (backupFile.exists() && !backupFile.delete()) {
+            System.out.println("Unable to delete backup '" + backupFile + "'.");
+        }
+    }
+}
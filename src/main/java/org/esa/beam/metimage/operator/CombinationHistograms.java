@@ -0,0 +1,178 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.FixedBinning;
+import org.esa.beam.metimage.math.MergeableHistogram;
+
+import java.util.*;
+
+/**
+ * Cloud and noCloud histograms of all measures for all filter combinations, on the fixed binning of each
+ * measure. The histograms of several scenes are combined by {@link #merge(CombinationHistograms)}, which
+ * only adds bin counts, so the result does not depend on the order in which the scenes are processed.
+ * The names of the accumulated scenes are kept, so that no scene is counted twice.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class CombinationHistograms {
+
+    private final List<FilterCombination> combinations;
+    private final int numMeasures;
+    private final MergeableHistogram[][] cloudHistograms;      // [combination][measure ID - 1]
+    private final MergeableHistogram[][] noCloudHistograms;
+    private int numScenes;
+    private final SortedSet<String> sceneNames = new TreeSet<String>();
+
+    public CombinationHistograms() {
+        this(getDefaultBinnings());
+    }
+
+    /**
+     * @param binnings - the fixed binnings of the measures (index: measure ID - 1)
+     */
+    public CombinationHistograms(FixedBinning[] binnings) {
+        combinations = FilterCombination.createAll();
+        numMeasures = MetImageConstants.MEASURE_HERITAGE.length + MetImageConstants.MEASURE_NEW.length;
+        if (binnings.length != numMeasures) {
+            throw new IllegalArgumentException("Expected binnings of " + numMeasures + " measures, got " + binnings.length);
+        }
+        cloudHistograms = new MergeableHistogram[combinations.size()][numMeasures];
+        noCloudHistograms = new MergeableHistogram[combinations.size()][numMeasures];
+        for (int c = 0; c < combinations.size(); c++) {
+            for (int m = 0; m < numMeasures; m++) {
+                cloudHistograms[c][m] = new MergeableHistogram(binnings[m]);
+                noCloudHistograms[c][m] = new MergeableHistogram(binnings[m]);
+            }
+        }
+    }
+
+    /**
+     * @return FixedBinning[] - the default fixed binnings of all measures (index: measure ID - 1)
+     */
+    public static FixedBinning[] getDefaultBinnings() {
+        final int numMeasures = MetImageConstants.MEASURE_HERITAGE.length + MetImageConstants.MEASURE_NEW.length;
+        FixedBinning[] binnings = new FixedBinning[numMeasures];
+        for (int m = 0; m < numMeasures; m++) {
+            binnings[m] = getDefaultBinning(m + 1);
+        }
+        return binnings;
+    }
+
+    /**
+     * @param measureId - the measure ID (1..14)
+     * @return FixedBinning - the fixed binning of the measure
+     */
+    public static FixedBinning getDefaultBinning(int measureId) {
+        return new FixedBinning(MetImageConstants.MEASURE_BINNING_MIN[measureId - 1],
+                                MetImageConstants.MEASURE_BINNING_MAX[measureId - 1],
+                                MetImageConstants.MEASURE_BINNING_NUM_BINS[measureId - 1],
+                                MetImageConstants.MEASURE_BINNING_LOGARITHMIC[measureId - 1]);
+    }
+
+    /**
+     * Adds the samples of a scene.
+     *
+     * @param sceneName  - the name of the scene (e.g. the granule file name)
+     * @param planes     - the measures of the scene
+     * @param classIndex - the class index of the scene
+     */
+    public void accumulate(String sceneName, ModisMeasurePlanes planes, ModisClassIndex classIndex) {
+        if (!sceneNames.add(sceneName)) {
+            throw new IllegalArgumentException("Scene '" + sceneName + "' has already been accumulated.");
+        }
+        numScenes++;
+        for (int c = 0; c < combinations.size(); c++) {
+            final BitSet cloudSamples = classIndex.getCloudSamples(combinations.get(c));
+            final BitSet noCloudSamples = classIndex.getNoCloudSamples(combinations.get(c));
+            for (int m = 0; m < numMeasures; m++) {
+                final double[] measures = planes.getMeasures(m + 1);
+                addSamples(cloudHistograms[c][m], measures, cloudSamples);
+                addSamples(noCloudHistograms[c][m], measures, noCloudSamples);
+            }
+        }
+    }
+
+    /**
+     * Adds the histograms of other scenes.
+     *
+     * @param other - the histograms to add, on the same binnings and not containing any of the scenes of this
+     */
+    public void merge(CombinationHistograms other) {
+        for (String sceneName : other.sceneNames) {
+            if (sceneNames.contains(sceneName)) {
+                throw new IllegalArgumentException("Scene '" + sceneName + "' is contained in both histograms.");
+            }
+        }
+        for (int c = 0; c < combinations.size(); c++) {
+            for (int m = 0; m < numMeasures; m++) {
+                cloudHistograms[c][m].merge(other.cloudHistograms[c][m]);
+                noCloudHistograms[c][m].merge(other.noCloudHistograms[c][m]);
+            }
+        }
+        numScenes += other.numScenes;
+        sceneNames.addAll(other.sceneNames);
+    }
+
+    /**
+     * @return List<FilterCombination> - the filter combinations in the canonical order of the 'skills.txt' rows
+     */
+    public List<FilterCombination> getCombinations() {
+        return combinations;
+    }
+
+    /**
+     * @return int - the number of accumulated scenes
+     */
+    public int getNumScenes() {
+        return numScenes;
+    }
+
+    void addNumScenes(int numScenes) {
+        this.numScenes += numScenes;
+    }
+
+    /**
+     * @param sceneName - the name of a scene
+     * @return boolean - true if the scene has been accumulated
+     */
+    public boolean containsScene(String sceneName) {
+        return sceneNames.contains(sceneName);
+    }
+
+    /**
+     * @return SortedSet<String> - the names of the accumulated scenes
+     */
+    public SortedSet<String> getSceneNames() {
+        return Collections.unmodifiableSortedSet(sceneNames);
+    }
+
+    void addSceneNames(Collection<String> names) {
+        sceneNames.addAll(names);
+    }
+
+    public int getNumMeasures() {
+        return numMeasures;
+    }
+
+    /**
+     * @param measureId - the measure ID (1..14)
+     * @return FixedBinning - the fixed binning of the measure
+     */
+    public FixedBinning getBinning(int measureId) {
+        return cloudHistograms[0][measureId - 1].getBinning();
+    }
+
+    public MergeableHistogram getCloudHistogram(int combinationIndex, int measureId) {
+        return cloudHistograms[combinationIndex][measureId - 1];
+    }
+
+    public MergeableHistogram getNoCloudHistogram(int combinationIndex, int measureId) {
+        return noCloudHistograms[combinationIndex][measureId - 1];
+    }
+
+    private static void addSamples(MergeableHistogram histogram, double[] measures, BitSet samples) {
+        for (int k = samples.nextSetBit(0); k >= 0; k = samples.nextSetBit(k + 1)) {
+            histogram.add(measures[k]);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.math.FixedBinning;
+import org.esa.beam.metimage.math.MergeableHistogram;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Binary 'partial' format of {@link CombinationHistograms}, so that the histograms of granules processed on
+ * different machines can be merged without moving the samples. The file is GZIP compressed and holds
+ * (big-endian, as written by DataOutputStream):
+ * <ul>
+ * <li>magic number 'MIHP', format version, number of scenes</li>
+ * <li>number of scene names, then the names of the accumulated scenes (since version 2)</li>
+ * <li>number of measures, then min, max, number of bins and (since version 3) the logarithmic flag of the
+ * fixed binning of each measure</li>
+ * <li>number of filter combinations, then daytime, surface and cloud type of each combination</li>
+ * <li>for each combination and measure the cloud and then the noCloud histogram: underflow and overflow
+ * counts, the number of non-empty bins and for each of these the distance to the previous non-empty bin
+ * and the count, all as unsigned variable-length integers (7 bits per byte, low bits first)</li>
+ * </ul>
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class CombinationHistogramsIO {
+
+    private static final int MAGIC = 0x4D494850;   // 'MIHP'
+    private static final int VERSION = 3;
+
+    /**
+     * Writes histograms to a partial file. The file is first written under a temporary name, synced and then
+     * renamed (see {@link AtomicFileWriter}), so that an existing partial is never left incomplete.
+     *
+     * @param histograms - the histograms
+     * @param file       - the partial file
+     */
+    public static void writePartial(final CombinationHistograms histograms, File file) {
+        try {
+            AtomicFileWriter.writeGzipped(file, new AtomicFileWriter.Content() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    CombinationHistogramsIO.write(histograms, out);
+                }
+            });
+        } catch (IOException e) {
+            throw new OperatorException("Unable to write histogram partial '" + file + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads histograms from a partial file, or from its backup if the replacement of the file by
+     * {@link #writePartial} has been interrupted.
+     *
+     * @param partialFile - the partial file
+     * @return CombinationHistograms - the histograms
+     */
+    public static CombinationHistograms readPartial(File partialFile) {
+        final File file = AtomicFileWriter.resolve(partialFile);
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file))));
+            try {
+                return read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Unable to read histogram partial '" + file + "': " + e.getMessage());
+        }
+    }
+
+    static void write(CombinationHistograms histograms, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(histograms.getNumScenes());
+        out.writeInt(histograms.getSceneNames().size());
+        for (String sceneName : histograms.getSceneNames()) {
+            out.writeUTF(sceneName);
+        }
+
+        final int numMeasures = histograms.getNumMeasures();
+        out.writeInt(numMeasures);
+        for (int m = 1; m <= numMeasures; m++) {
+            final FixedBinning binning = histograms.getBinning(m);
+            out.writeDouble(binning.getMin());
+            out.writeDouble(binning.getMax());
+            out.writeInt(binning.getNumBins());
+            out.writeBoolean(binning.isLogarithmic());
+        }
+
+        final List<FilterCombination> combinations = histograms.getCombinations();
+        out.writeInt(combinations.size());
+        for (FilterCombination combination : combinations) {
+            out.writeUTF(combination.getDaytime());
+            out.writeUTF(combination.getNonCloudySurface());
+            out.writeUTF(combination.getCloudtype());
+        }
+
+        for (int c = 0; c < combinations.size(); c++) {
+            for (int m = 1; m <= numMeasures; m++) {
+                writeHistogram(histograms.getCloudHistogram(c, m), out);
+                writeHistogram(histograms.getNoCloudHistogram(c, m), out);
+            }
+        }
+    }
+
+    static CombinationHistograms read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a histogram partial.");
+        }
+        final int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported histogram partial version " + version + ".");
+        }
+        final int numScenes = in.readInt();
+        List<String> sceneNames = new ArrayList<String>();
+        if (version >= 2) {
+            final int numSceneNames = in.readInt();
+            for (int i = 0; i < numSceneNames; i++) {
+                sceneNames.add(in.readUTF());
+            }
+        }
+
+        final int numMeasures = in.readInt();
+        FixedBinning[] binnings = new FixedBinning[numMeasures];
+        for (int m = 0; m < numMeasures; m++) {
+            final double min = in.readDouble();
+            final double max = in.readDouble();
+            final int numBins = in.readInt();
+            final boolean logarithmic = version >= 3 && in.readBoolean();
+            binnings[m] = new FixedBinning(min, max, numBins, logarithmic);
+        }
+        final CombinationHistograms histograms;
+        try {
+            histograms = new CombinationHistograms(binnings);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        histograms.addNumScenes(numScenes);
+        histograms.addSceneNames(sceneNames);
+
+        final List<FilterCombination> combinations = histograms.getCombinations();
+        final int numCombinations = in.readInt();
+        if (numCombinations != combinations.size()) {
+            throw new IOException("Expected " + combinations.size() + " filter combinations, got " + numCombinations + ".");
+        }
+        for (FilterCombination combination : combinations) {
+            final String daytime = in.readUTF();
+            final String surface = in.readUTF();
+            final String cloudtype = in.readUTF();
+            if (!daytime.equals(combination.getDaytime()) || !surface.equals(combination.getNonCloudySurface()) ||
+                    !cloudtype.equals(combination.getCloudtype())) {
+                throw new IOException("Unexpected filter combination " + daytime + ", " + surface + ", " + cloudtype +
+                                              " instead of " + combination + ".");
+            }
+        }
+
+        for (int c = 0; c < combinations.size(); c++) {
+            for (int m = 1; m <= numMeasures; m++) {
+                readHistogram(histograms.getCloudHistogram(c, m), in);
+                readHistogram(histograms.getNoCloudHistogram(c, m), in);
+            }
+        }
+        return histograms;
+    }
+
+    private static void writeHistogram(MergeableHistogram histogram, DataOutputStream out) throws IOException {
+        writeVarLong(histogram.getUnderflowCount(), out);
+        writeVarLong(histogram.getOverflowCount(), out);
+        final long[] binCounts = histogram.getBinCounts();
+        int numOccupied = 0;
+        for (long binCount : binCounts) {
+            if (binCount > 0) {
+                numOccupied++;
+            }
+        }
+        writeVarLong(numOccupied, out);
+        int previousBin = -1;
+        for (int i = 0; i < binCounts.length; i++) {
+            if (binCounts[i] > 0) {
+                writeVarLong(i - previousBin, out);
+                writeVarLong(binCounts[i], out);
+                previousBin = i;
+            }
+        }
+    }
+
+    private static void readHistogram(MergeableHistogram histogram, DataInputStream in) throws IOException {
+        final long underflow = readVarLong(in);
+        final long overflow = readVarLong(in);
+        histogram.addOutOfRangeCounts(underflow, overflow);
+        final int numBins = histogram.getBinning().getNumBins();
+        final long numOccupied = readVarLong(in);
+        long binIndex = -1;
+        for (long j = 0; j < numOccupied; j++) {
+            binIndex += readVarLong(in);
+            final long count = readVarLong(in);
+            if (binIndex >= numBins) {
+                throw new IOException("Invalid bin index " + binIndex + ".");
+            }
+            histogram.addBinCount((int) binIndex, count);
+        }
+    }
+
+    private static void writeVarLong(long value, DataOutputStream out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid count " + value + ".");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer.");
+    }
+}
@@ -0,0 +1,81 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writer of the 'skills.txt' ASCII table: one row per filter combination, holding the numbers of cloudy and
+ * non-cloudy samples and the distinction skill of each heritage and new measure.
+ * Each row is formatted by the calling thread and written by an {@link AsyncOutputWriter}.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class DistinctionSkillTable {
+
+    public static final String FILE_NAME = "skills.txt";
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final AsyncOutputWriter outputWriter;
+    private final AsyncOutputWriter.TextFile textFile;
+
+    /**
+     * Creates the table file and writes its header.
+     *
+     * @param outputASCIIDirectory - the directory for the distinction skill output
+     * @param outputWriter         - the output writer, to be closed by the caller
+     */
+    public DistinctionSkillTable(File outputASCIIDirectory, AsyncOutputWriter outputWriter) {
+        this.outputWriter = outputWriter;
+        try {
+            textFile = outputWriter.openTextFile(new File(outputASCIIDirectory + File.separator + FILE_NAME));
+        } catch (IOException e) {
+            throw new OperatorException("Unable to write distinction skill ASCII file: " + e.getMessage());
+        }
+        final StringBuilder header = new StringBuilder();
+        header.append("Daytime" + "\t" + "Non-cloudy Surface" + "\t" + "Cloud Type" + "\t");
+        for (int i = 1; i <= MetImageConstants.NUM_TESTS; i++) {
+            header.append("clouds_H").append(i).append("\t");
+            header.append("noClouds_H").append(i).append("\t");
+            header.append("Skill_H").append(i).append("\t");
+        }
+        for (int i = 1; i < MetImageConstants.NUM_TESTS; i++) {
+            header.append("clouds_N").append(i).append("\t");
+            header.append("noClouds_N").append(i).append("\t");
+            header.append("Skill_N").append(i).append("\t");
+        }
+        header.append("clouds_N7" + "\t");
+        header.append("noClouds_N7" + "\t");
+        header.append("Skill_N7").append(LINE_SEPARATOR);
+        outputWriter.append(textFile, header.toString());
+    }
+
+    /**
+     * Writes the row of a filter combination.
+     *
+     * @param combination   - the filter combination
+     * @param heritageSkill - the skills of the heritage measures 1..7
+     * @param newSkill      - the skills of the new measures 1..7
+     */
+    public void writeRow(FilterCombination combination, MeasureSkill[] heritageSkill, MeasureSkill[] newSkill) {
+        final StringBuilder row = new StringBuilder();
+        row.append(combination.getDaytime()).append("\t").append(combination.getNonCloudySurface()).append("\t")
+                .append(combination.getCloudtype()).append("\t");
+        for (int i = 1; i <= MetImageConstants.NUM_TESTS; i++) {
+            appendSkill(row, heritageSkill[i - 1]).append("\t");
+        }
+        for (int i = 1; i <= MetImageConstants.NUM_TESTS; i++) {
+            appendSkill(row, newSkill[i - 1]).append(i < MetImageConstants.NUM_TESTS ? "\t" : LINE_SEPARATOR);
+        }
+        outputWriter.append(textFile, row.toString());
+    }
+
+    private static StringBuilder appendSkill(StringBuilder row, MeasureSkill skill) {
+        return row.append(skill.getNumCloudSamples()).append("\t")
+                .append(skill.getNumNoCloudSamples()).append("\t")
+                .append(String.format("%6f", skill.getSkill()));
+    }
+}
@@ -0,0 +1,58 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Container holding one daytime/surface/cloudtype filter combination
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class FilterCombination {
+    private final String daytime;
+    private final String nonCloudySurface;
+    private final String cloudtype;
+
+    public FilterCombination(String daytime, String nonCloudySurface, String cloudtype) {
+        this.daytime = daytime;
+        this.nonCloudySurface = nonCloudySurface;
+        this.cloudtype = cloudtype;
+    }
+
+    /**
+     * Provides all filter combinations in the canonical order of the 'skills.txt' rows
+     * (daytime varies slowest, cloud type fastest).
+     *
+     * @return List<FilterCombination> - the combinations
+     */
+    public static List<FilterCombination> createAll() {
+        List<FilterCombination> combinations = new ArrayList<FilterCombination>();
+        for (String daytime : MetImageConstants.DAYTIME_FILTER_ID) {
+            for (String nonCloudySurface : MetImageConstants.SURFACE_FILTER_ID) {
+                for (String cloudtype : MetImageConstants.CLOUDTYPE_FILTER_ID) {
+                    combinations.add(new FilterCombination(daytime, nonCloudySurface, cloudtype));
+                }
+            }
+        }
+        return combinations;
+    }
+
+    public String getDaytime() {
+        return daytime;
+    }
+
+    public String getNonCloudySurface() {
+        return nonCloudySurface;
+    }
+
+    public String getCloudtype() {
+        return cloudtype;
+    }
+
+    @Override
+    public String toString() {
+        return daytime + ", " + nonCloudySurface + ", " + cloudtype;
+    }
+}
@@ -0,0 +1,270 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of a histogram archive, the single-file alternative to the JSON histogram files of a scene. On opening
+ * only the header and the index are read; the histograms of a filter combination and measure are looked up in
+ * the index in constant time and read and decompressed on demand. The reader may be used by several threads.
+ * <p/>
+ * An archive holds (big-endian, as written by DataOutputStream):
+ * <ul>
+ * <li>header: magic number 'MIHA', format version, offset of the index (0 as long as the archive is incomplete)</li>
+ * <li>one block per filter combination and measure with histograms, Deflate compressed: number of bins, the bin
+ * borders as doubles, then the cloud and noCloud bin counts as unsigned variable-length integers (7 bits per
+ * byte, low bits first)</li>
+ * <li>index: number of filter combinations, then daytime, surface and cloud type of each combination; number of
+ * measures, then their names; then for each combination and measure the offset and length of its block
+ * (offset 0 if there are no histograms)</li>
+ * </ul>
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class HistogramArchive {
+
+    public static final String FILE_NAME = "histograms.miha";
+
+    static final int MAGIC = 0x4D494841;   // 'MIHA'
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<FilterCombination> combinations;
+    private final List<String> measureNames;
+    private final Map<String, Integer> combinationIndices;
+    private final Map<String, Integer> measureIndices;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+
+    private HistogramArchive(File file, FileChannel channel, DataInputStream index) throws IOException {
+        this.file = file;
+        this.channel = channel;
+
+        final int numCombinations = index.readInt();
+        combinations = new ArrayList<FilterCombination>(numCombinations);
+        combinationIndices = new HashMap<String, Integer>();
+        for (int c = 0; c < numCombinations; c++) {
+            final FilterCombination combination = new FilterCombination(index.readUTF(), index.readUTF(),
+                                                                        index.readUTF());
+            combinations.add(combination);
+            combinationIndices.put(getKey(combination), c);
+        }
+        final int numMeasures = index.readInt();
+        measureNames = new ArrayList<String>(numMeasures);
+        measureIndices = new HashMap<String, Integer>();
+        for (int m = 0; m < numMeasures; m++) {
+            final String measureName = index.readUTF();
+            measureNames.add(measureName);
+            measureIndices.put(measureName, m);
+        }
+        blockOffsets = new long[numCombinations * numMeasures];
+        blockLengths = new int[numCombinations * numMeasures];
+        for (int i = 0; i < blockOffsets.length; i++) {
+            blockOffsets[i] = index.readLong();
+            blockLengths[i] = index.readInt();
+        }
+    }
+
+    /**
+     * Opens an archive and reads its index.
+     *
+     * @param file - the archive file
+     * @return HistogramArchive - the archive, to be closed by the caller
+     */
+    public static HistogramArchive open(File file) {
+        try {
+            final FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                final DataInputStream header = new DataInputStream(new ByteArrayInputStream(
+                        readBytes(channel, 0, HEADER_SIZE)));
+                if (header.readInt() != MAGIC) {
+                    throw new IOException("Not a histogram archive.");
+                }
+                final int version = header.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported histogram archive version " + version + ".");
+                }
+                final long indexOffset = header.readLong();
+                if (indexOffset < HEADER_SIZE || indexOffset >= channel.size()) {
+                    throw new IOException("Incomplete histogram archive.");
+                }
+                final long indexLength = channel.size() - indexOffset;
+                if (indexLength > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid index offset " + indexOffset + ".");
+                }
+                final byte[] index = readBytes(channel, indexOffset, (int) indexLength);
+                return new HistogramArchive(file, channel, new DataInputStream(new ByteArrayInputStream(index)));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Unable to read histogram archive '" + file + "': " + e.getMessage());
+        }
+    }
+
+    public List<FilterCombination> getCombinations() {
+        return Collections.unmodifiableList(combinations);
+    }
+
+    public List<String> getMeasureNames() {
+        return Collections.unmodifiableList(measureNames);
+    }
+
+    /**
+     * Reads the histograms of a filter combination and measure.
+     *
+     * @param combination - the filter combination
+     * @param measureName - the measure name, e.g. 'H1'
+     * @return Histograms - the histograms, null if the archive holds none for the combination and measure
+     */
+    public Histograms getHistograms(FilterCombination combination, String measureName) {
+        final Integer c = combinationIndices.get(getKey(combination));
+        final Integer m = measureIndices.get(measureName);
+        if (c == null || m == null) {
+            return null;
+        }
+        final int slot = c * measureNames.size() + m;
+        if (blockOffsets[slot] == 0) {
+            return null;
+        }
+        try {
+            return readBlock(blockOffsets[slot], blockLengths[slot]);
+        } catch (IOException e) {
+            throw new OperatorException("Unable to read histograms " + combination + ", " + measureName +
+                                                " from archive '" + file + "': " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new OperatorException("Unable to close histogram archive '" + file + "': " + e.getMessage());
+        }
+    }
+
+    static String getKey(FilterCombination combination) {
+        return combination.getDaytime() + "_" + combination.getNonCloudySurface() + "_" + combination.getCloudtype();
+    }
+
+    private Histograms readBlock(long offset, int length) throws IOException {
+        final byte[] bytes = readBytes(channel, offset, length);
+        final Inflater inflater = new Inflater();
+        final ByteArrayOutputStream inflated = new ByteArrayOutputStream(4 * length);
+        try {
+            inflater.setInput(bytes);
+            final byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                final int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated histogram block.");
+                }
+                inflated.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt histogram block: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflated.toByteArray()));
+        final long numBins = readVarLong(in);
+        if (numBins > inflated.size()) {
+            throw new IOException("Invalid number of bins " + numBins + ".");
+        }
+        final double[] binBorders = new double[(int) numBins + 1];
+        for (int i = 0; i < binBorders.length; i++) {
+            binBorders[i] = in.readDouble();
+        }
+        final long[] cloudCounts = readCounts(in, (int) numBins);
+        final long[] noCloudCounts = readCounts(in, (int) numBins);
+        return new Histograms(binBorders, cloudCounts, noCloudCounts);
+    }
+
+    private static long[] readCounts(DataInputStream in, int numBins) throws IOException {
+        final long[] counts = new long[numBins];
+        for (int i = 0; i < numBins; i++) {
+            counts[i] = readVarLong(in);
+        }
+        return counts;
+    }
+
+    // positional reads do not move the channel position, so several threads may read blocks at once
+    private static byte[] readBytes(FileChannel channel, long offset, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at offset " + (offset + buffer.position()) + ".");
+            }
+        }
+        return buffer.array();
+    }
+
+    static void writeVarLong(long value, DataOutputStream out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid count " + value + ".");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer.");
+    }
+
+    /**
+     * The cloud and noCloud histograms of a filter combination and measure, with common bin borders.
+     */
+    public static class Histograms {
+
+        private final double[] binBorders;      // one element more than number of bins!
+        private final long[] cloudCounts;
+        private final long[] noCloudCounts;
+
+        Histograms(double[] binBorders, long[] cloudCounts, long[] noCloudCounts) {
+            this.binBorders = binBorders;
+            this.cloudCounts = cloudCounts;
+            this.noCloudCounts = noCloudCounts;
+        }
+
+        public int getNumBins() {
+            return cloudCounts.length;
+        }
+
+        public double[] getBinBorders() {
+            return binBorders;
+        }
+
+        public long[] getCloudCounts() {
+            return cloudCounts;
+        }
+
+        public long[] getNoCloudCounts() {
+            return noCloudCounts;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.DensityHistogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writer of a {@link HistogramArchive}. The histograms are encoded and compressed by the calling threads and
+ * written by an {@link AsyncOutputWriter}; each block gets its place in the file when it is added, so the
+ * histograms may be added in any order and by several threads. The index and the header are written by
+ * {@link #finish()}, so an archive which is not finished is recognized as incomplete.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class HistogramArchiveWriter {
+
+    private final File file;
+    private final AsyncOutputWriter outputWriter;
+    private final AsyncOutputWriter.DataFile dataFile;
+    private final List<FilterCombination> combinations;
+    private final List<String> measureNames;
+    private final Map<String, Integer> combinationIndices;
+    private final Map<String, Integer> measureIndices;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private long nextOffset;
+    private boolean finished;
+
+    /**
+     * Creates the archive of all filter combinations and the heritage and new measures.
+     *
+     * @param outputJSONDirectory - the directory for the histogram output
+     * @param outputWriter        - the output writer, to be closed by the caller after finishing the archive
+     */
+    public HistogramArchiveWriter(File outputJSONDirectory, AsyncOutputWriter outputWriter) {
+        this(new File(outputJSONDirectory, HistogramArchive.FILE_NAME), FilterCombination.createAll(),
+             getAllMeasureNames(), outputWriter);
+    }
+
+    /**
+     * Creates an archive.
+     *
+     * @param file         - the archive file
+     * @param combinations - the filter combinations
+     * @param measureNames - the measure names
+     * @param outputWriter - the output writer, to be closed by the caller after finishing the archive
+     */
+    public HistogramArchiveWriter(File file, List<FilterCombination> combinations, List<String> measureNames,
+                                  AsyncOutputWriter outputWriter) {
+        this.file = file;
+        this.outputWriter = outputWriter;
+        this.combinations = new ArrayList<FilterCombination>(combinations);
+        this.measureNames = new ArrayList<String>(measureNames);
+        combinationIndices = new HashMap<String, Integer>();
+        for (int c = 0; c < combinations.size(); c++) {
+            combinationIndices.put(HistogramArchive.getKey(combinations.get(c)), c);
+        }
+        measureIndices = new HashMap<String, Integer>();
+        for (int m = 0; m < measureNames.size(); m++) {
+            measureIndices.put(measureNames.get(m), m);
+        }
+        blockOffsets = new long[combinations.size() * measureNames.size()];
+        blockLengths = new int[blockOffsets.length];
+        try {
+            dataFile = outputWriter.openDataFile(file);
+        } catch (IOException e) {
+            throw new OperatorException("Unable to write histogram archive '" + file + "': " + e.getMessage());
+        }
+        // the header without index marks the archive as incomplete until it is finished
+        outputWriter.write(dataFile, ByteBuffer.wrap(createHeader(0)), 0);
+        nextOffset = HistogramArchive.HEADER_SIZE;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void add(FilterCombination combination, String measureName,
+                    DensityHistogram cloudHisto, DensityHistogram noCloudHisto) {
+        add(combination, measureName, cloudHisto.getBinBorders(), cloudHisto.getBinCounts(),
+            noCloudHisto.getBinCounts());
+    }
+
+    /**
+     * Adds the histograms of a filter combination and measure.
+     *
+     * @param combination   - the filter combination
+     * @param measureName   - the measure name
+     * @param binBorders    - the common bin borders, one element more than number of bins
+     * @param cloudCounts   - the cloud bin counts
+     * @param noCloudCounts - the noCloud bin counts
+     */
+    public void add(FilterCombination combination, String measureName,
+                    double[] binBorders, long[] cloudCounts, long[] noCloudCounts) {
+        final Integer c = combinationIndices.get(HistogramArchive.getKey(combination));
+        final Integer m = measureIndices.get(measureName);
+        if (c == null || m == null) {
+            throw new OperatorException("No histograms " + combination + ", " + measureName + " in archive.");
+        }
+        final int slot = c * measureNames.size() + m;
+        final byte[] block;
+        try {
+            block = createBlock(binBorders, cloudCounts, noCloudCounts);
+        } catch (IOException e) {
+            throw new OperatorException("Unable to encode histograms " + combination + ", " + measureName + ": " +
+                                                e.getMessage());
+        }
+
+        final long offset;
+        synchronized (this) {
+            if (finished) {
+                throw new OperatorException("Histogram archive '" + file + "' is already finished.");
+            }
+            if (blockOffsets[slot] != 0) {
+                throw new OperatorException("Histograms " + combination + ", " + measureName + " added twice.");
+            }
+            offset = nextOffset;
+            nextOffset += block.length;
+            blockOffsets[slot] = offset;
+            blockLengths[slot] = block.length;
+        }
+        outputWriter.write(dataFile, ByteBuffer.wrap(block), offset);
+    }
+
+    /**
+     * Writes the index and then the header referring to it. No histograms can be added afterwards.
+     */
+    public synchronized void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            outputWriter.write(dataFile, ByteBuffer.wrap(createIndex()), nextOffset);
+        } catch (IOException e) {
+            throw new OperatorException("Unable to write histogram archive '" + file + "': " + e.getMessage());
+        }
+        outputWriter.write(dataFile, ByteBuffer.wrap(createHeader(nextOffset)), 0);
+    }
+
+    static List<String> getAllMeasureNames() {
+        List<String> measureNames = new ArrayList<String>();
+        for (int measureId : MetImageConstants.MEASURE_HERITAGE) {
+            measureNames.add(new ModisSample(measureId).getMeasureName());
+        }
+        for (int measureId : MetImageConstants.MEASURE_NEW) {
+            measureNames.add(new ModisSample(measureId).getMeasureName());
+        }
+        return measureNames;
+    }
+
+    private static byte[] createHeader(long indexOffset) {
+        final ByteBuffer header = ByteBuffer.allocate(HistogramArchive.HEADER_SIZE);
+        header.putInt(HistogramArchive.MAGIC);
+        header.putInt(HistogramArchive.VERSION);
+        header.putLong(indexOffset);
+        return header.array();
+    }
+
+    private static byte[] createBlock(double[] binBorders, long[] cloudCounts, long[] noCloudCounts)
+            throws IOException {
+        final int numBins = binBorders.length - 1;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater));
+            HistogramArchive.writeVarLong(numBins, out);
+            for (double binBorder : binBorders) {
+                out.writeDouble(binBorder);
+            }
+            for (int i = 0; i < numBins; i++) {
+                HistogramArchive.writeVarLong(cloudCounts[i], out);
+            }
+            for (int i = 0; i < numBins; i++) {
+                HistogramArchive.writeVarLong(noCloudCounts[i], out);
+            }
+            out.close();
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] createIndex() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(combinations.size());
+        for (FilterCombination combination : combinations) {
+            out.writeUTF(combination.getDaytime());
+            out.writeUTF(combination.getNonCloudySurface());
+            out.writeUTF(combination.getCloudtype());
+        }
+        out.writeInt(measureNames.size());
+        for (String measureName : measureNames) {
+            out.writeUTF(measureName);
+        }
+        for (int i = 0; i < blockOffsets.length; i++) {
+            out.writeLong(blockOffsets[i]);
+            out.writeInt(blockLengths[i]);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+package org.esa.beam.metimage.operator;
+
+import java.util.BitSet;
+
+/**
+ * Container holding the numbers of cloudy and non-cloudy samples of a filter combination which are selected for
+ * a measure, and how many of them are dropped because the measure is cut off (UPPER_LIM_* thresholds) or
+ * otherwise NaN. Together with the numbers of valid samples in {@link MeasureSkill} this gives the rejection
+ * funnel of a measure.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class MeasureRejections {
+    private final int numCloudSelected;
+    private final int numCloudCutOff;
+    private final int numNoCloudSelected;
+    private final int numNoCloudCutOff;
+
+    public MeasureRejections(int numCloudSelected, int numCloudCutOff, int numNoCloudSelected, int numNoCloudCutOff) {
+        this.numCloudSelected = numCloudSelected;
+        this.numCloudCutOff = numCloudCutOff;
+        this.numNoCloudSelected = numNoCloudSelected;
+        this.numNoCloudCutOff = numNoCloudCutOff;
+    }
+
+    /**
+     * Counts the selected and the cut off samples of a measure.
+     *
+     * @param cutOffSamples  - the cut off samples of the measure
+     * @param cloudSamples   - the cloudy samples selected by the filter combination
+     * @param noCloudSamples - the non-cloudy samples selected by the filter combination
+     * @return MeasureRejections - the counts
+     */
+    public static MeasureRejections count(BitSet cutOffSamples, BitSet cloudSamples, BitSet noCloudSamples) {
+        int numCloudCutOff = 0;
+        int numNoCloudCutOff = 0;
+        // cut offs are rare, so visit these rather than the selected samples
+        for (int k = cutOffSamples.nextSetBit(0); k >= 0; k = cutOffSamples.nextSetBit(k + 1)) {
+            if (cloudSamples.get(k)) {
+                numCloudCutOff++;
+            } else if (noCloudSamples.get(k)) {
+                numNoCloudCutOff++;
+            }
+        }
+        return new MeasureRejections(cloudSamples.cardinality(), numCloudCutOff,
+                                     noCloudSamples.cardinality(), numNoCloudCutOff);
+    }
+
+    public int getNumCloudSelected() {
+        return numCloudSelected;
+    }
+
+    public int getNumCloudCutOff() {
+        return numCloudCutOff;
+    }
+
+    public int getNumNoCloudSelected() {
+        return numNoCloudSelected;
+    }
+
+    public int getNumNoCloudCutOff() {
+        return numNoCloudCutOff;
+    }
+}
@@ -0,0 +1,51 @@
+package org.esa.beam.metimage.operator;
+
+/**
+ * Container holding the distinction skill of a measure together with the number of samples it is based on
+ * and, if recorded, the samples rejected before
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class MeasureSkill {
+    private final int measureID;
+    private final long numCloudSamples;
+    private final long numNoCloudSamples;
+    private final double skill;
+    private final MeasureRejections rejections;
+
+    public MeasureSkill(int measureID, long numCloudSamples, long numNoCloudSamples, double skill) {
+        this(measureID, numCloudSamples, numNoCloudSamples, skill, null);
+    }
+
+    public MeasureSkill(int measureID, long numCloudSamples, long numNoCloudSamples, double skill,
+                        MeasureRejections rejections) {
+        this.measureID = measureID;
+        this.numCloudSamples = numCloudSamples;
+        this.numNoCloudSamples = numNoCloudSamples;
+        this.skill = skill;
+        this.rejections = rejections;
+    }
+
+    public int getMeasureID() {
+        return measureID;
+    }
+
+    public long getNumCloudSamples() {
+        return numCloudSamples;
+    }
+
+    public long getNumNoCloudSamples() {
+        return numNoCloudSamples;
+    }
+
+    public double getSkill() {
+        return skill;
+    }
+
+    /**
+     * @return MeasureRejections - the rejected samples, null if not recorded
+     */
+    public MeasureRejections getRejections() {
+        return rejections;
+    }
+}
@@ -0,0 +1,192 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.DensityHistogram;
+import org.esa.beam.metimage.math.DistinctionSkill;
+import org.esa.beam.metimage.math.FixedBinning;
+import org.esa.beam.metimage.math.MergeableHistogram;
+import util.MetImageUtils;
+
+import java.io.File;
+
+/**
+ * Computes the distinction skills from merged {@link CombinationHistograms}. For each combination and measure
+ * the fixed bins occupied by the cloud or noCloud samples are combined into up to numberOfBins coarse bins. These
+ * only approximate the equal bins between the sample min and max of the single scene processing: the coarse bins
+ * span the occupied fixed bins rather than the sample min and max, and each coarse border is the fixed bin border
+ * nearest to the equally spaced one, so that it may be off by half a fixed bin (see
+ * {@link FixedBinning#getCoarseBinBorders(int, int, int)}). The skills therefore agree closely with the single
+ * scene skills where the occupied range covers many fixed bins, which is what the fixed binnings of the measures
+ * are chosen for (see {@link MetImageConstants#MEASURE_BINNING_MIN}), but less so for a range of few fixed bins.
+ * <p/>
+ * Samples outside of the fixed binning are put into its first or last bin (the sample min or max is clipped to
+ * the binning range) and reported, except for the values below a logarithmic binning, like standard deviations
+ * of 0, which are expected there.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class MergedHistogramSkills {
+
+    private final int numberOfBins;
+    private final boolean quadrature;
+    private final File outputJSONDirectory;
+    private final boolean writeArchive;
+
+    /**
+     * @param numberOfBins        - the number of bins of the histograms the skill is computed on
+     * @param skillIntegration    - the skill integration method ("EXACT" or "QUADRATURE")
+     * @param outputJSONDirectory - the directory for the JSON histogram output, null for no output
+     */
+    public MergedHistogramSkills(int numberOfBins, String skillIntegration, File outputJSONDirectory) {
+        this(numberOfBins, skillIntegration, outputJSONDirectory, "JSON_FILES");
+    }
+
+    /**
+     * @param numberOfBins          - the number of bins of the histograms the skill is computed on
+     * @param skillIntegration      - the skill integration method ("EXACT" or "QUADRATURE")
+     * @param outputJSONDirectory   - the directory for the histogram output, null for no output
+     * @param histogramOutputFormat - the histogram output format ("JSON_FILES" or "ARCHIVE")
+     */
+    public MergedHistogramSkills(int numberOfBins, String skillIntegration, File outputJSONDirectory,
+                                 String histogramOutputFormat) {
+        this.numberOfBins = numberOfBins;
+        this.quadrature = skillIntegration.equals("QUADRATURE");
+        this.outputJSONDirectory = outputJSONDirectory;
+        this.writeArchive = histogramOutputFormat.equals("ARCHIVE");
+    }
+
+    /**
+     * Writes the 'skills.txt' table of all filter combinations.
+     *
+     * @param histograms           - the merged histograms
+     * @param outputASCIIDirectory - the directory for the distinction skill output
+     */
+    public void writeSkills(CombinationHistograms histograms, File outputASCIIDirectory) {
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter();
+        boolean completed = false;
+        try {
+            final DistinctionSkillTable skillTable = new DistinctionSkillTable(outputASCIIDirectory, outputWriter);
+            HistogramArchiveWriter archiveWriter = null;
+            if (outputJSONDirectory != null && writeArchive) {
+                archiveWriter = new HistogramArchiveWriter(outputJSONDirectory, outputWriter);
+                System.out.println("Writing histograms to archive '" + archiveWriter.getFile().getAbsolutePath() + "'.");
+            }
+            for (int c = 0; c < histograms.getCombinations().size(); c++) {
+                MeasureSkill[] heritageSkill = new MeasureSkill[MetImageConstants.NUM_TESTS];
+                MeasureSkill[] newSkill = new MeasureSkill[MetImageConstants.NUM_TESTS];
+                for (int i = 0; i < MetImageConstants.NUM_TESTS; i++) {
+                    heritageSkill[i] = getMeasureSkill(histograms, c, MetImageConstants.MEASURE_HERITAGE[i],
+                                                       outputWriter, archiveWriter);
+                    newSkill[i] = getMeasureSkill(histograms, c, MetImageConstants.MEASURE_NEW[i], outputWriter,
+                                                  archiveWriter);
+                }
+                skillTable.writeRow(histograms.getCombinations().get(c), heritageSkill, newSkill);
+            }
+            if (archiveWriter != null) {
+                archiveWriter.finish();
+            }
+            completed = true;
+        } finally {
+            if (completed) {
+                outputWriter.close();
+            } else {
+                outputWriter.closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Computes the distinction skill of a measure for a filter combination.
+     *
+     * @param histograms       - the merged histograms
+     * @param combinationIndex - the index of the filter combination
+     * @param measureId        - the measure ID (1..14)
+     * @return MeasureSkill - the skill and the numbers of binned cloud and noCloud samples
+     */
+    public MeasureSkill getMeasureSkill(CombinationHistograms histograms, int combinationIndex, int measureId) {
+        return getMeasureSkill(histograms, combinationIndex, measureId, null, null);
+    }
+
+    // writes the histograms to the archive if there is one, otherwise the JSON histograms through the output
+    // writer, or directly if there is none
+    private MeasureSkill getMeasureSkill(CombinationHistograms histograms, int combinationIndex, int measureId,
+                                         AsyncOutputWriter outputWriter, HistogramArchiveWriter archiveWriter) {
+        final MergeableHistogram cloudCounts = histograms.getCloudHistogram(combinationIndex, measureId);
+        final MergeableHistogram noCloudCounts = histograms.getNoCloudHistogram(combinationIndex, measureId);
+        final long numCloud = cloudCounts.getTotalCount();
+        final long numNoCloud = noCloudCounts.getTotalCount();
+
+        if (numCloud == 0 || numNoCloud == 0) {
+            System.out.println("MeasureID '" + measureId +
+                    "' : One or both cloud/noCloud sample arrays empty - cannot compute distinction skill.");
+            return new MeasureSkill(measureId, numCloud, numNoCloud, Double.NaN);
+        }
+        if (numCloud < MetImageConstants.MIN_SAMPLES_PER_HISTOGRAM ||
+                numNoCloud < MetImageConstants.MIN_SAMPLES_PER_HISTOGRAM) {
+            System.out.println("MeasureID '" + measureId +
+                    "' : One or both cloud/noCloud sample arrays too small - cannot compute distinction skill.");
+            return new MeasureSkill(measureId, numCloud, numNoCloud, Double.NaN);
+        }
+
+        final FixedBinning binning = cloudCounts.getBinning();
+        final long numCloudOutOfRange = getNumOutOfRange(cloudCounts);
+        final long numNoCloudOutOfRange = getNumOutOfRange(noCloudCounts);
+        if (numCloudOutOfRange > 0 || numNoCloudOutOfRange > 0) {
+            System.out.println("WARNING: MeasureID '" + measureId + "' (" +
+                    histograms.getCombinations().get(combinationIndex) + "): " + numCloudOutOfRange + " cloud and " +
+                    numNoCloudOutOfRange + " noCloud samples outside of the fixed binning " + binning +
+                    " - put into its first or last bin.");
+        }
+        final int firstBin = Math.min(cloudCounts.getFirstCoveredBin(), noCloudCounts.getFirstCoveredBin());
+        final int lastBin = Math.max(cloudCounts.getLastCoveredBin(), noCloudCounts.getLastCoveredBin());
+        final double[] binBorders = binning.getCoarseBinBorders(firstBin, lastBin, numberOfBins);
+
+        final DensityHistogram cloudHisto = new DensityHistogram();
+        cloudHisto.resetUnequalBins(binBorders);
+        cloudCounts.aggregateInto(cloudHisto);
+        cloudHisto.computeDensityFunctions();
+        final DensityHistogram noCloudHisto = new DensityHistogram();
+        noCloudHisto.resetUnequalBins(binBorders);
+        noCloudCounts.aggregateInto(noCloudHisto);
+        noCloudHisto.computeDensityFunctions();
+
+        double distSkill;
+        if (quadrature) {
+            distSkill = DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(noCloudHisto,
+                    cloudHisto,
+                    numNoCloud,
+                    numCloud);
+        } else {
+            distSkill = DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudHisto,
+                    cloudHisto,
+                    numNoCloud,
+                    numCloud);
+        }
+
+        if (outputJSONDirectory != null) {
+            final FilterCombination combination = histograms.getCombinations().get(combinationIndex);
+            final String measureName = new ModisSample(measureId).getMeasureName();
+            if (archiveWriter != null) {
+                archiveWriter.add(combination, measureName, cloudHisto, noCloudHisto);
+            } else if (outputWriter != null) {
+                final File file = MetImageUtils.getHistogramsJsonFile(outputJSONDirectory.getAbsolutePath(),
+                        combination.getDaytime(), combination.getNonCloudySurface(), combination.getCloudtype(),
+                        measureName);
+                System.out.println("Writing JSON histograms to file '" + file.getAbsolutePath() + "'.");
+                outputWriter.writeFile(file, MetImageUtils.getHistogramsAsJson(cloudHisto, noCloudHisto));
+            } else {
+                MetImageUtils.writeHistogramsAsJson(outputJSONDirectory.getAbsolutePath(),
+                        combination.getDaytime(), combination.getNonCloudySurface(), combination.getCloudtype(),
+                        measureName, cloudHisto, noCloudHisto);
+            }
+        }
+
+        return new MeasureSkill(measureId, numCloud, numNoCloud, distSkill);
+    }
+
+    private static long getNumOutOfRange(MergeableHistogram counts) {
+        final long numUnderflow = counts.getBinning().isLogarithmic() ? 0 : counts.getUnderflowCount();
+        return numUnderflow + counts.getOverflowCount();
+    }
+}
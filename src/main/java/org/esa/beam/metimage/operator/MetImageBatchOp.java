@@ -0,0 +1,412 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import util.MetImageUtils;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Operator computing the MetImage distinction skills over many MODIS CSV granules in one run.
+ * The Tskin grid is read once, the granules are processed on a bounded pool of workers while the next
+ * granules are read ahead, and the cloud/noCloud histograms of all granules are merged on the fixed
+ * binning of each measure (see {@link CombinationHistograms}) into one global 'skills.txt' and one set
+ * of histograms.
+ * <p/>
+ * With an accumulated histogram file, the run appends to an existing climatology: the histograms accumulated
+ * by earlier runs are read from this file, granules already contained are skipped, the new granules are
+ * added, and the file is replaced by the updated histograms. Only the skills are recomputed from the
+ * accumulated histograms, so a growing archive never has to be reprocessed.
+ * <p/>
+ * With a checkpoint directory, the histograms of the granules completed so far are written to a checkpoint
+ * file every few granules. A run started with 'resume' continues from this checkpoint instead of processing
+ * the completed granules again. The checkpoint is deleted when the run has finished.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+@OperatorMetadata(alias = "beam.metimage.batch", version = "1.0-SNAPSHOT",
+        authors = "Rene Preusker, Olaf Danne, Marco Zuehlke",
+        copyright = "(c) 2013/14 FU Berlin, Brockmann Consult",
+        description = "Operator for MetImage Cloud processing of many granules with merged histograms.")
+public class MetImageBatchOp extends Operator {
+
+    @TargetProduct
+    private Product targetProduct;
+
+    @Parameter(description = "The MODIS CSV granules: files, directories (all files therein) " +
+            "or file name patterns with '*' and '?'",
+            notNull = true)
+    private String[] sourceProductPaths;
+
+    @Parameter(alias = "ascii", description = "The directory for ASCII distinction skill output.", notNull = true)
+    File outputASCIIDirectory;
+
+    @Parameter(description = "If set, the merged 'cloud' and 'no cloud' histograms will be written to JSON files",
+            label = "Write histograms to JSON files",
+            defaultValue = "false")
+    private boolean writeJsonFiles;
+
+    @Parameter(alias = "json",
+            description = "The directory for JSON histogram output.",
+            notNull = true)
+    File outputJSONDirectory;
+
+    @Parameter(valueSet = {"JSON_FILES", "ARCHIVE"},
+            description = "Output of the histograms: one JSON file per filter combination and measure, or a " +
+                    "single indexed and compressed archive '" + HistogramArchive.FILE_NAME + "'",
+            label = "Histogram output format",
+            defaultValue = "JSON_FILES")
+    private String histogramOutputFormat;
+
+    @Parameter(description = "Number of bins of the merged histograms the skills are computed on",
+            label = "Number of bins",
+            defaultValue = "20")
+    private int numberOfBins;
+
+    @Parameter(valueSet = {"EXACT", "QUADRATURE"},
+            description = "Integration of the distinction skill: exact integration over the bins, " +
+                    "or the legacy quadrature at NUM_QUANTILES points",
+            label = "Distinction skill integration",
+            defaultValue = "EXACT")
+    private String skillIntegration;
+
+    @Parameter(description = "Number of granules processed in parallel",
+            label = "Number of threads",
+            interval = "[1,*]",
+            defaultValue = "1")
+    private int numberOfThreads;
+
+    @Parameter(description = "Number of granules read ahead while the current granules are processed",
+            label = "Number of granules read ahead",
+            interval = "[0,*]",
+            defaultValue = "1")
+    private int prefetchGranules;
+
+    @Parameter(description = "If set, the merged histograms are also written to this binary partial file, " +
+            "which can be merged with the partials of other runs")
+    private File outputPartialFile;
+
+    @Parameter(description = "If set, the histograms accumulated by earlier runs are read from this binary " +
+            "partial file (if it exists), extended by the new granules and written back")
+    File accumulatedHistogramFile;
+
+    @Parameter(description = "If set, the histograms of the completed granules are periodically written " +
+            "to a checkpoint file in this directory")
+    File checkpointDirectory;
+
+    @Parameter(description = "Number of completed granules after which a checkpoint is written",
+            label = "Checkpoint interval",
+            interval = "[1,*]",
+            defaultValue = "10")
+    int checkpointInterval;
+
+    @Parameter(description = "If set, the run continues from the checkpoint of an interrupted run " +
+            "(requires the checkpoint directory)",
+            label = "Resume from checkpoint",
+            defaultValue = "false")
+    boolean resume;
+
+    static final String CHECKPOINT_FILE_NAME = "checkpoint.mihp";
+
+    private ModisMeasureCalculator measureCalculator;
+
+    private File checkpointFile;
+    private CombinationHistograms resumedHistograms;
+    private final AtomicInteger numCompleted = new AtomicInteger();
+    private final Object checkpointMonitor = new Object();
+    // workers accumulate under the read lock, a checkpoint takes a consistent snapshot under the write lock
+    private final ReadWriteLock accumulationLock = new ReentrantReadWriteLock();
+
+    // histograms of each worker thread, merged when all granules are done
+    private final List<CombinationHistograms> workerHistograms = new ArrayList<CombinationHistograms>();
+    private final ThreadLocal<CombinationHistograms> histograms = new ThreadLocal<CombinationHistograms>() {
+        @Override
+        protected CombinationHistograms initialValue() {
+            final CombinationHistograms workerHisto = new CombinationHistograms();
+            synchronized (workerHistograms) {
+                workerHistograms.add(workerHisto);
+            }
+            return workerHisto;
+        }
+    };
+
+    @Override
+    public void initialize() throws OperatorException {
+        final CombinationHistograms accumulatedHistograms = readHistograms(accumulatedHistogramFile, "accumulated");
+        initCheckpoint(accumulatedHistograms);
+        final List<File> granules = selectNewGranules(findGranules(), accumulatedHistograms);
+
+        measureCalculator = new ModisMeasureCalculator(TskinCollocation.readDefault(this));
+
+        int numFailed = 0;
+        final ExecutorService reader = Executors.newSingleThreadExecutor();
+        final ExecutorService workers = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            // bounds the number of granules held in memory: being processed or read ahead
+            final Semaphore granulesInMemory = new Semaphore(numberOfThreads + prefetchGranules);
+            List<Future<Boolean>> granuleFutures = new ArrayList<Future<Boolean>>();
+            for (final File granule : granules) {
+                acquire(granulesInMemory);
+                final Future<ModisSceneCache> scene = reader.submit(new Callable<ModisSceneCache>() {
+                    @Override
+                    public ModisSceneCache call() throws Exception {
+                        return readGranule(granule);
+                    }
+                });
+                granuleFutures.add(workers.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        try {
+                            return processGranule(granule, scene);
+                        } finally {
+                            granulesInMemory.release();
+                        }
+                    }
+                }));
+            }
+            for (Future<Boolean> granuleFuture : granuleFutures) {
+                if (!getGranuleResult(granuleFuture)) {
+                    numFailed++;
+                }
+            }
+        } finally {
+            reader.shutdownNow();
+            workers.shutdownNow();
+        }
+
+        System.out.println("Skipped " + numFailed + " granules.");
+        final CombinationHistograms mergedHistograms = mergeHistograms(accumulatedHistograms);
+
+        final MergedHistogramSkills skills =
+                new MergedHistogramSkills(numberOfBins, skillIntegration, writeJsonFiles ? outputJSONDirectory : null,
+                                          histogramOutputFormat);
+        skills.writeSkills(mergedHistograms, outputASCIIDirectory);
+        if (outputPartialFile != null) {
+            CombinationHistogramsIO.writePartial(mergedHistograms, outputPartialFile);
+        }
+        if (accumulatedHistogramFile != null) {
+            CombinationHistogramsIO.writePartial(mergedHistograms, accumulatedHistogramFile);
+        }
+        deleteCheckpoint();
+
+        // all results are written in initialize(), the target product is just a placeholder
+        targetProduct = new Product("METIMAGE_BATCH", "METIMAGE_BATCH", 1, 1);
+    }
+
+    // reads the histograms of earlier granules, empty histograms if there is no such file
+    static CombinationHistograms readHistograms(File file, String kind) {
+        if (file != null && AtomicFileWriter.exists(file)) {
+            final CombinationHistograms histograms = CombinationHistogramsIO.readPartial(file);
+            // checked up front, merging would only fail after all new granules have been processed
+            for (int measureId = 1; measureId <= histograms.getNumMeasures(); measureId++) {
+                if (!histograms.getBinning(measureId).equals(CombinationHistograms.getDefaultBinning(measureId))) {
+                    throw new OperatorException("The " + kind + " histograms '" + file +
+                                                        "' have a different binning of measure " + measureId + ".");
+                }
+            }
+            System.out.println("Read " + histograms.getNumScenes() + " " + kind + " granules from '" + file + "'.");
+            return histograms;
+        }
+        return new CombinationHistograms();
+    }
+
+    // reads the checkpoint when resuming, which must not contain granules accumulated before the interrupted run
+    void initCheckpoint(CombinationHistograms accumulatedHistograms) {
+        if (checkpointDirectory == null) {
+            if (resume) {
+                throw new OperatorException("Cannot resume without a checkpoint directory.");
+            }
+            resumedHistograms = new CombinationHistograms();
+            return;
+        }
+        if (!checkpointDirectory.isDirectory() && !checkpointDirectory.mkdirs()) {
+            throw new OperatorException("Unable to create checkpoint directory '" + checkpointDirectory + "'.");
+        }
+        checkpointFile = new File(checkpointDirectory, CHECKPOINT_FILE_NAME);
+        if (resume) {
+            if (!AtomicFileWriter.exists(checkpointFile)) {
+                System.out.println("No checkpoint found in '" + checkpointDirectory + "' - starting from scratch.");
+            }
+            resumedHistograms = readHistograms(checkpointFile, "checkpointed");
+            for (String sceneName : resumedHistograms.getSceneNames()) {
+                if (accumulatedHistograms.containsScene(sceneName)) {
+                    throw new OperatorException("Granule '" + sceneName + "' of checkpoint '" + checkpointFile +
+                                                        "' is already accumulated - the checkpoint is outdated.");
+                }
+            }
+        } else {
+            if (AtomicFileWriter.exists(checkpointFile)) {
+                System.out.println("Overwriting checkpoint '" + checkpointFile + "' of an earlier run.");
+            }
+            resumedHistograms = new CombinationHistograms();
+        }
+    }
+
+    // the granules neither accumulated nor completed before the checkpoint, each granule name only once
+    List<File> selectNewGranules(List<File> foundGranules, CombinationHistograms accumulatedHistograms) {
+        final List<File> granules = new ArrayList<File>();
+        final Set<String> granuleNames = new HashSet<String>();
+        for (File granule : foundGranules) {
+            if (accumulatedHistograms.containsScene(granule.getName())) {
+                System.out.println("Skipping granule '" + granule + "': already accumulated.");
+            } else if (resumedHistograms.containsScene(granule.getName())) {
+                System.out.println("Skipping granule '" + granule + "': completed before checkpoint.");
+            } else if (!granuleNames.add(granule.getName())) {
+                System.out.println("Skipping granule '" + granule + "': duplicate granule name.");
+            } else {
+                granules.add(granule);
+            }
+        }
+        System.out.println("Found " + granules.size() + " new granules.");
+        return granules;
+    }
+
+    // adds the samples of a granule to the histograms of the current worker, writes a checkpoint when due
+    void accumulateGranule(String granuleName, ModisMeasurePlanes planes) {
+        final ModisClassIndex classIndex = new ModisClassIndex(planes);
+        accumulationLock.readLock().lock();
+        try {
+            histograms.get().accumulate(granuleName, planes, classIndex);
+        } finally {
+            accumulationLock.readLock().unlock();
+        }
+        if (checkpointFile != null && numCompleted.incrementAndGet() % checkpointInterval == 0) {
+            writeCheckpoint();
+        }
+    }
+
+    // merges the histograms of the workers, the checkpoint and the earlier runs
+    CombinationHistograms mergeHistograms(CombinationHistograms accumulatedHistograms) {
+        final CombinationHistograms mergedHistograms = new CombinationHistograms();
+        for (CombinationHistograms workerHisto : workerHistograms) {
+            mergedHistograms.merge(workerHisto);
+        }
+        System.out.println("Processed " + mergedHistograms.getNumScenes() + " granules.");
+        if (resumedHistograms.getNumScenes() > 0) {
+            mergedHistograms.merge(resumedHistograms);
+            System.out.println("Resumed " + resumedHistograms.getNumScenes() + " granules from checkpoint.");
+        }
+        if (accumulatedHistogramFile != null) {
+            mergedHistograms.merge(accumulatedHistograms);
+            System.out.println("Accumulated " + mergedHistograms.getNumScenes() + " granules in total.");
+        }
+        if (mergedHistograms.getNumScenes() == 0) {
+            throw new OperatorException("No granule could be processed - cannot compute distinction skills.");
+        }
+        return mergedHistograms;
+    }
+
+    void deleteCheckpoint() {
+        if (checkpointFile != null && !AtomicFileWriter.delete(checkpointFile)) {
+            System.out.println("Unable to delete checkpoint '" + checkpointFile + "'.");
+        }
+    }
+
+    private void writeCheckpoint() {
+        // one checkpoint at a time, so that a later checkpoint is never overwritten by an earlier one
+        synchronized (checkpointMonitor) {
+            final CombinationHistograms checkpoint = new CombinationHistograms();
+            checkpoint.merge(resumedHistograms);
+            accumulationLock.writeLock().lock();
+            try {
+                synchronized (workerHistograms) {
+                    for (CombinationHistograms workerHisto : workerHistograms) {
+                        checkpoint.merge(workerHisto);
+                    }
+                }
+            } finally {
+                accumulationLock.writeLock().unlock();
+            }
+            CombinationHistogramsIO.writePartial(checkpoint, checkpointFile);
+            System.out.println("Wrote checkpoint of " + checkpoint.getNumScenes() + " granules.");
+        }
+    }
+
+    // reads all bands of a granule required by the measures
+    private ModisSceneCache readGranule(File granule) throws IOException {
+        final Product product = ProductIO.readProduct(granule);
+        if (product == null) {
+            throw new IOException("No reader found for '" + granule + "'");
+        }
+        try {
+            final Rectangle sceneRect = new Rectangle(product.getSceneRasterWidth(), product.getSceneRasterHeight());
+            return new ModisSceneCache(this, product, sceneRect);
+        } finally {
+            product.dispose();
+        }
+    }
+
+    private boolean processGranule(File granule, Future<ModisSceneCache> scene) throws InterruptedException {
+        final ModisSceneCache sceneCache;
+        try {
+            sceneCache = scene.get();
+        } catch (ExecutionException e) {
+            System.out.println("Skipping granule '" + granule + "': " + e.getCause().getMessage());
+            return false;
+        }
+        final ModisMeasurePlanes planes = measureCalculator.computeMeasurePlanes(sceneCache);
+        accumulateGranule(granule.getName(), planes);
+        System.out.println("Processed granule '" + granule + "'.");
+        return true;
+    }
+
+    private boolean getGranuleResult(Future<Boolean> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while processing granules.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof OperatorException) {
+                throw (OperatorException) cause;
+            }
+            throw new OperatorException("Cannot process granule: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static void acquire(Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while processing granules.");
+        }
+    }
+
+    private List<File> findGranules() {
+        final List<File> granules;
+        try {
+            granules = MetImageUtils.expandFilePaths(sourceProductPaths);
+        } catch (IllegalArgumentException e) {
+            throw new OperatorException(e.getMessage());
+        }
+        if (granules.isEmpty()) {
+            throw new OperatorException("No granules found - cannot proceed.");
+        }
+        return granules;
+    }
+
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(MetImageBatchOp.class);
+        }
+    }
+}
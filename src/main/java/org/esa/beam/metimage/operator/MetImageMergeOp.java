@@ -0,0 +1,116 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import util.MetImageUtils;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Operator merging histogram partials (see {@link CombinationHistogramsIO}) written by several
+ * {@link MetImageBatchOp} runs into final histograms, and computing the distinction skills from these.
+ * The merged histograms can again be written as a partial, so that partials can be merged hierarchically.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+@OperatorMetadata(alias = "beam.metimage.merge", version = "1.0-SNAPSHOT",
+        authors = "Rene Preusker, Olaf Danne, Marco Zuehlke",
+        copyright = "(c) 2013/14 FU Berlin, Brockmann Consult",
+        description = "Operator merging MetImage histogram partials and computing the distinction skills.")
+public class MetImageMergeOp extends Operator {
+
+    @TargetProduct
+    private Product targetProduct;
+
+    @Parameter(description = "The histogram partials: files, directories (all files therein) " +
+            "or file name patterns with '*' and '?'",
+            notNull = true)
+    private String[] sourcePartialPaths;
+
+    @Parameter(alias = "ascii", description = "The directory for ASCII distinction skill output.", notNull = true)
+    File outputASCIIDirectory;
+
+    @Parameter(description = "If set, the merged 'cloud' and 'no cloud' histograms will be written to JSON files",
+            label = "Write histograms to JSON files",
+            defaultValue = "false")
+    private boolean writeJsonFiles;
+
+    @Parameter(alias = "json",
+            description = "The directory for JSON histogram output.",
+            notNull = true)
+    File outputJSONDirectory;
+
+    @Parameter(valueSet = {"JSON_FILES", "ARCHIVE"},
+            description = "Output of the histograms: one JSON file per filter combination and measure, or a " +
+                    "single indexed and compressed archive '" + HistogramArchive.FILE_NAME + "'",
+            label = "Histogram output format",
+            defaultValue = "JSON_FILES")
+    private String histogramOutputFormat;
+
+    @Parameter(description = "Number of bins of the merged histograms the skills are computed on",
+            label = "Number of bins",
+            defaultValue = "20")
+    private int numberOfBins;
+
+    @Parameter(valueSet = {"EXACT", "QUADRATURE"},
+            description = "Integration of the distinction skill: exact integration over the bins, " +
+                    "or the legacy quadrature at NUM_QUANTILES points",
+            label = "Distinction skill integration",
+            defaultValue = "EXACT")
+    private String skillIntegration;
+
+    @Parameter(description = "If set, the merged histograms are also written to this binary partial file")
+    private File outputPartialFile;
+
+    @Override
+    public void initialize() throws OperatorException {
+        final List<File> partials;
+        try {
+            partials = MetImageUtils.expandFilePaths(sourcePartialPaths);
+        } catch (IllegalArgumentException e) {
+            throw new OperatorException(e.getMessage());
+        }
+        if (partials.isEmpty()) {
+            throw new OperatorException("No histogram partials found - cannot proceed.");
+        }
+
+        CombinationHistograms mergedHistograms = null;
+        for (File partial : partials) {
+            final CombinationHistograms histograms = CombinationHistogramsIO.readPartial(partial);
+            if (mergedHistograms == null) {
+                mergedHistograms = histograms;
+            } else {
+                try {
+                    mergedHistograms.merge(histograms);
+                } catch (IllegalArgumentException e) {
+                    throw new OperatorException("Cannot merge histogram partial '" + partial + "': " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("Merged " + partials.size() + " partials of " + mergedHistograms.getNumScenes() + " granules.");
+
+        final MergedHistogramSkills skills =
+                new MergedHistogramSkills(numberOfBins, skillIntegration, writeJsonFiles ? outputJSONDirectory : null,
+                                          histogramOutputFormat);
+        skills.writeSkills(mergedHistograms, outputASCIIDirectory);
+        if (outputPartialFile != null) {
+            CombinationHistogramsIO.writePartial(mergedHistograms, outputPartialFile);
+        }
+
+        // all results are written in initialize(), the target product is just a placeholder
+        targetProduct = new Product("METIMAGE_MERGE", "METIMAGE_MERGE", 1, 1);
+    }
+
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(MetImageMergeOp.class);
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.json.simple.JSONValue;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the timings, allocations and counters of one MetImage run. The time of each processing
+ * {@link Phase} is accumulated in total and, for the phases depending on them, per filter combination and
+ * measure. A phase is measured by a {@link Stopwatch} on the thread executing it, so the allocated bytes are
+ * those of that thread (only available on JVMs supporting thread allocation measurement); the heap usage is
+ * sampled at the end of each phase.
+ * <p/>
+ * The metrics are exported as JSON run report and, while the run is active, as {@link MetImageMetricsMXBean}.
+ * All methods are thread-safe.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class MetImageMetrics implements MetImageMetricsMXBean {
+
+    public static final String OBJECT_NAME_PREFIX = "org.esa.beam.metimage:type=MetImageMetrics,name=";
+
+    /**
+     * The processing phases of a MetImage run. The output is written by an {@link AsyncOutputWriter}: JSON_OUTPUT
+     * and ASCII_OUTPUT are the encoding and handing over of the output on the computing threads, OUTPUT_WRITE
+     * the writing of all output by the writer thread.
+     */
+    public enum Phase {
+        SOURCE_TILE_LOAD("sourceTileLoad"),
+        TSKIN_READ("tskinRead"),
+        MEASURE_EVALUATION("measureEvaluation"),
+        SAMPLE_PARTITIONING("samplePartitioning"),
+        HISTOGRAM_BUILD("histogramBuild"),
+        EQUALIZATION("equalization"),
+        SKILL_INTEGRATION("skillIntegration"),
+        JSON_OUTPUT("jsonOutput"),
+        ASCII_OUTPUT("asciiOutput"),
+        OUTPUT_WRITE("outputWrite");
+
+        private final String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY_BEAN = ManagementFactory.getMemoryMXBean();
+
+    private final String sceneName;
+    private final long startNanos;
+    private volatile long endNanos;
+    private final boolean allocationsMeasured;
+
+    private final Map<Phase, PhaseStats> phaseStats;
+    // combination -> measure name -> stats of each phase
+    private final ConcurrentMap<String, ConcurrentMap<String, PhaseStats[]>> measureStats;
+    private final ConcurrentMap<String, AtomicLong> counters;
+    private final AtomicLong peakHeapBytes;
+
+    private ObjectName objectName;
+
+    public MetImageMetrics(String sceneName) {
+        this.sceneName = sceneName;
+        startNanos = System.nanoTime();
+        allocationsMeasured = isAllocationMeasurementEnabled();
+        phaseStats = new EnumMap<Phase, PhaseStats>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            phaseStats.put(phase, new PhaseStats());
+        }
+        measureStats = new ConcurrentHashMap<String, ConcurrentMap<String, PhaseStats[]>>();
+        counters = new ConcurrentHashMap<String, AtomicLong>();
+        peakHeapBytes = new AtomicLong();
+    }
+
+    /**
+     * Starts the measurement of a phase on the current thread.
+     *
+     * @return Stopwatch - the stopwatch to be passed to one of the stop methods on the same thread
+     */
+    public Stopwatch start() {
+        return new Stopwatch(System.nanoTime(), getCurrentThreadAllocatedBytes());
+    }
+
+    /**
+     * Ends the measurement of a phase which does not depend on a filter combination.
+     *
+     * @param stopwatch - the stopwatch started for the phase
+     * @param phase     - the phase
+     */
+    public void stop(Stopwatch stopwatch, Phase phase) {
+        final long nanos = System.nanoTime() - stopwatch.startNanos;
+        final long allocatedBytes = getAllocatedBytesSince(stopwatch);
+        final long heapBytes = sampleHeapUsage();
+        phaseStats.get(phase).add(nanos, allocatedBytes, heapBytes);
+    }
+
+    /**
+     * Ends the measurement of a phase of a filter combination and measure.
+     *
+     * @param stopwatch   - the stopwatch started for the phase
+     * @param phase       - the phase
+     * @param combination - the filter combination
+     * @param measureName - the name of the measure
+     */
+    public void stop(Stopwatch stopwatch, Phase phase, FilterCombination combination, String measureName) {
+        final long nanos = System.nanoTime() - stopwatch.startNanos;
+        final long allocatedBytes = getAllocatedBytesSince(stopwatch);
+        final long heapBytes = sampleHeapUsage();
+        phaseStats.get(phase).add(nanos, allocatedBytes, heapBytes);
+        getMeasurePhaseStats(combination.toString(), measureName)[phase.ordinal()].add(nanos, allocatedBytes,
+                                                                                      heapBytes);
+    }
+
+    /**
+     * Adds to a counter, which is created on first use.
+     *
+     * @param name  - the counter name
+     * @param delta - the value to add
+     */
+    public void increment(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Marks the end of the run; the elapsed time of later reports refers to this point in time.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    @Override
+    public String getSceneName() {
+        return sceneName;
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        final long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1.E9;
+    }
+
+    @Override
+    public long getPeakHeapBytes() {
+        return peakHeapBytes.get();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        if (!allocationsMeasured) {
+            return -1;
+        }
+        long allocatedBytes = 0;
+        for (PhaseStats stats : phaseStats.values()) {
+            allocatedBytes += stats.getAllocatedBytes();
+        }
+        return allocatedBytes;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            values.put(phase.getLabel(), phaseStats.get(phase).getCount());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseTotalMillis() {
+        final Map<String, Double> values = new LinkedHashMap<String, Double>();
+        for (Phase phase : Phase.values()) {
+            values.put(phase.getLabel(), phaseStats.get(phase).getTotalNanos() / 1.E6);
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMaxMillis() {
+        final Map<String, Double> values = new LinkedHashMap<String, Double>();
+        for (Phase phase : Phase.values()) {
+            values.put(phase.getLabel(), phaseStats.get(phase).getMaxNanos() / 1.E6);
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseAllocatedBytes() {
+        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            values.put(phase.getLabel(), allocationsMeasured ? phaseStats.get(phase).getAllocatedBytes() : -1L);
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    @Override
+    public String createJsonReport() {
+        final Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("scene", sceneName);
+        report.put("elapsedSeconds", getElapsedSeconds());
+        report.put("peakHeapBytes", getPeakHeapBytes());
+        report.put("allocatedBytes", getAllocatedBytes());
+
+        final Map<String, Object> phases = new LinkedHashMap<String, Object>();
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.getLabel(), toJson(phaseStats.get(phase)));
+        }
+        report.put("phases", phases);
+        report.put("counters", getCounters());
+
+        final List<Object> combinations = new ArrayList<Object>();
+        for (Map.Entry<String, ConcurrentMap<String, PhaseStats[]>> combinationEntry :
+                new TreeMap<String, ConcurrentMap<String, PhaseStats[]>>(measureStats).entrySet()) {
+            final List<Object> measures = new ArrayList<Object>();
+            for (Map.Entry<String, PhaseStats[]> measureEntry :
+                    new TreeMap<String, PhaseStats[]>(combinationEntry.getValue()).entrySet()) {
+                final Map<String, Object> measurePhases = new LinkedHashMap<String, Object>();
+                for (Phase phase : Phase.values()) {
+                    final PhaseStats stats = measureEntry.getValue()[phase.ordinal()];
+                    if (stats.getCount() > 0) {
+                        measurePhases.put(phase.getLabel(), toJson(stats));
+                    }
+                }
+                final Map<String, Object> measure = new LinkedHashMap<String, Object>();
+                measure.put("measure", measureEntry.getKey());
+                measure.put("phases", measurePhases);
+                measures.add(measure);
+            }
+            final Map<String, Object> combination = new LinkedHashMap<String, Object>();
+            combination.put("combination", combinationEntry.getKey());
+            combination.put("measures", measures);
+            combinations.add(combination);
+        }
+        report.put("combinations", combinations);
+        return JSONValue.toJSONString(report);
+    }
+
+    /**
+     * Writes the JSON run report.
+     *
+     * @param file - the report file
+     */
+    public void writeJsonReport(File file) {
+        try {
+            final Writer writer = new FileWriter(file);
+            try {
+                writer.write(createJsonReport());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Unable to write metrics report '" + file + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the metrics in the platform MBean server, replacing the metrics of an earlier run of the
+     * same scene.
+     */
+    public synchronized void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(sceneName));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new OperatorException("Unable to publish metrics: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they have been published.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Unable to remove metrics MBean '" + objectName + "': " + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    private PhaseStats[] getMeasurePhaseStats(String combination, String measureName) {
+        ConcurrentMap<String, PhaseStats[]> combinationStats = measureStats.get(combination);
+        if (combinationStats == null) {
+            final ConcurrentMap<String, PhaseStats[]> newStats = new ConcurrentHashMap<String, PhaseStats[]>();
+            combinationStats = measureStats.putIfAbsent(combination, newStats);
+            if (combinationStats == null) {
+                combinationStats = newStats;
+            }
+        }
+        PhaseStats[] stats = combinationStats.get(measureName);
+        if (stats == null) {
+            final PhaseStats[] newStats = new PhaseStats[Phase.values().length];
+            for (int i = 0; i < newStats.length; i++) {
+                newStats[i] = new PhaseStats();
+            }
+            stats = combinationStats.putIfAbsent(measureName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    private Map<String, Object> toJson(PhaseStats stats) {
+        final Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("count", stats.getCount());
+        json.put("totalMillis", stats.getTotalNanos() / 1.E6);
+        json.put("maxMillis", stats.getMaxNanos() / 1.E6);
+        json.put("allocatedBytes", allocationsMeasured ? stats.getAllocatedBytes() : -1L);
+        json.put("peakHeapBytes", stats.getPeakHeapBytes());
+        return json;
+    }
+
+    private long getAllocatedBytesSince(Stopwatch stopwatch) {
+        if (!allocationsMeasured) {
+            return 0;
+        }
+        return Math.max(0, getCurrentThreadAllocatedBytes() - stopwatch.startAllocatedBytes);
+    }
+
+    private long sampleHeapUsage() {
+        final long heapBytes = MEMORY_BEAN.getHeapMemoryUsage().getUsed();
+        long peak = peakHeapBytes.get();
+        while (heapBytes > peak && !peakHeapBytes.compareAndSet(peak, heapBytes)) {
+            peak = peakHeapBytes.get();
+        }
+        return heapBytes;
+    }
+
+    private static boolean isAllocationMeasurementEnabled() {
+        if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+            return threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled();
+        }
+        return false;
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREAD_BEAN).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Start time and allocation counter of a phase on one thread.
+     */
+    public static class Stopwatch {
+
+        private final long startNanos;
+        private final long startAllocatedBytes;
+
+        private Stopwatch(long startNanos, long startAllocatedBytes) {
+            this.startNanos = startNanos;
+            this.startAllocatedBytes = startAllocatedBytes;
+        }
+    }
+
+    // accumulated measurements of one phase
+    private static class PhaseStats {
+
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long allocatedBytes;
+        private long peakHeapBytes;
+
+        synchronized void add(long nanos, long allocated, long heapBytes) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            allocatedBytes += allocated;
+            peakHeapBytes = Math.max(peakHeapBytes, heapBytes);
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+
+        synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        synchronized long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        synchronized long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+    }
+}
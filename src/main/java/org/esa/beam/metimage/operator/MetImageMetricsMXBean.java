@@ -0,0 +1,41 @@
+package org.esa.beam.metimage.operator;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link MetImageMetrics} of a running MetImage operator, published in the
+ * platform MBean server under {@link MetImageMetrics#OBJECT_NAME_PREFIX} + scene name.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public interface MetImageMetricsMXBean {
+
+    String getSceneName();
+
+    double getElapsedSeconds();
+
+    /**
+     * @return long - the maximum heap usage observed at the end of any phase (bytes)
+     */
+    long getPeakHeapBytes();
+
+    /**
+     * @return long - the bytes allocated by all phases, -1 if the JVM cannot measure thread allocations
+     */
+    long getAllocatedBytes();
+
+    Map<String, Long> getPhaseCounts();
+
+    Map<String, Double> getPhaseTotalMillis();
+
+    Map<String, Double> getPhaseMaxMillis();
+
+    Map<String, Long> getPhaseAllocatedBytes();
+
+    Map<String, Long> getCounters();
+
+    /**
+     * @return String - the complete run report, including the breakdown per combination and measure
+     */
+    String createJsonReport();
+}
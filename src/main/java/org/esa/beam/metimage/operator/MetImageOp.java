@@ -1,10 +1,8 @@
 package org.esa.beam.metimage.operator;
 
 import com.bc.ceres.core.ProgressMonitor;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.commons.math3.stat.descriptive.rank.Max;
 import org.apache.commons.math3.stat.descriptive.rank.Min;
-import org.esa.beam.framework.dataio.ProductIO;
 import org.esa.beam.framework.datamodel.*;
 import org.esa.beam.framework.gpf.Operator;
 import org.esa.beam.framework.gpf.OperatorException;
@@ -15,16 +13,19 @@ import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
 import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.DensityHistogram;
 import org.esa.beam.metimage.math.DistinctionSkill;
 import org.esa.beam.metimage.math.MetImageHistogram;
+import org.esa.beam.metimage.math.SortedSampleSummary;
 import org.esa.beam.util.ProductUtils;
-import org.esa.beam.util.math.IndexValidator;
 import util.MetImageUtils;
 
 import java.awt.*;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * Operator for MERIS atmospheric correction with SCAPE-M algorithm.
@@ -57,58 +58,116 @@ public class MetImageOp extends Operator {
             notNull = true)
     File outputJSONDirectory;
 
+    @Parameter(valueSet = {"JSON_FILES", "ARCHIVE"},
+            description = "Output of the histograms: one JSON file per filter combination and measure, or a " +
+                    "single indexed and compressed archive '" + HistogramArchive.FILE_NAME + "'",
+            label = "Histogram output format",
+            defaultValue = "JSON_FILES")
+    private String histogramOutputFormat;
+
     @Parameter(description = "If set, 'cloud' and 'no cloud' histograms will be equalized",
             label = "Equalize histograms",
             defaultValue = "false")
     private boolean equalizeHistograms;
 
+    @Parameter(valueSet = {"CDF_INTERPOLATION", "EXACT_QUANTILES"},
+            description = "Derivation of the equalized bin borders: inverting the interpolated cdf of a " +
+                    "1000 bin histogram, or directly from the quantiles of the sorted samples",
+            label = "Histogram equalization method",
+            defaultValue = "CDF_INTERPOLATION")
+    private String equalizationMethod;
+
     @Parameter(description = "Number of bins in case of no equalization",
             label = "Number of bins in case of no equalization",
             defaultValue = "20")
     private int numberOfBins;
 
-    private String daytime;
-
-    private Product tskinProduct;
-
-    private String nonCloudySurface;
-    private String cloudtype;
+    @Parameter(valueSet = {"EXACT", "QUADRATURE"},
+            description = "Integration of the distinction skill: exact on the bin borders, " +
+                    "or the legacy quadrature at NUM_QUANTILES points",
+            label = "Distinction skill integration",
+            defaultValue = "EXACT")
+    private String skillIntegration;
+
+    @Parameter(description = "If set, samples are binned directly from the measure planes instead of being " +
+            "collected in sample arrays first (not applicable to equalized histograms)",
+            label = "Stream samples into histograms",
+            defaultValue = "true")
+    private boolean streamHistograms;
+
+    @Parameter(description = "Number of threads used to compute the distinction skills of the filter combinations",
+            label = "Number of threads",
+            interval = "[1,*]",
+            defaultValue = "1")
+    private int numberOfThreads;
+
+    @Parameter(valueSet = {"ALL", "DAY", "NIGHT", "TWILIGHT"},
+            description = "Daytime filter of the samples written to the H*/N* measure bands",
+            label = "Daytime filter for measure bands",
+            defaultValue = "ALL")
+    private String measureBandsDaytime;
+
+    @Parameter(valueSet = {"ALL", "LAND", "SEA", "ICE"},
+            description = "Non-cloudy surface filter of the samples written to the H*/N* measure bands",
+            label = "Surface filter for measure bands",
+            defaultValue = "ALL")
+    private String measureBandsSurface;
+
+    @Parameter(valueSet = {"ALL", "LOW", "MIDLEVEL", "HIGH", "SEMITRANSPARENT"},
+            description = "Cloud type filter of the samples written to the H*/N* measure bands",
+            label = "Cloud type filter for measure bands",
+            defaultValue = "ALL")
+    private String measureBandsCloudtype;
+
+    @Parameter(description = "Number of rows read at once when computing the measures (0 = whole scene)",
+            label = "Stripe height",
+            interval = "[0,*]",
+            defaultValue = "0")
+    private int stripeHeight;
+
+    @Parameter(description = "If set, the measures of the scene are cached in this directory, so that re-runs " +
+            "with other histogram or skill parameters do not evaluate them again")
+    private File measureCacheDirectory;
+
+    @Parameter(description = "If set, a JSON report of the time, allocations and heap usage of the processing " +
+            "phases, per filter combination and measure, is written to this file")
+    private File metricsReportFile;
+
+    @Parameter(description = "If set, the metrics of the run are published as MXBean in the platform MBean server",
+            label = "Publish metrics via JMX",
+            defaultValue = "false")
+    private boolean publishMetrics;
 
     private int width;
     private int height;
 
-    private Tile surfaceTypeTile;
-    private Tile glintTile;
-    private Tile daytimeTile;
-    private Tile cloudHeightTile;
-    private Tile latitudeTile;
-    private Tile longitudeTile;
-    private Tile rho600Tile;
-    private Tile rho860Tile;
-    private Tile rho645Tile; // refSB1
-    private Tile rho469Tile; // refSB3
-    private Tile rho555Tile; // refSB4
-    private Tile rho1240Tile;
-    private Tile rho1640Tile;
-    private Tile rho1380Tile;  // refSB5
-    private Tile rho2130Tile;  // refSB7
-    private Tile bt3700Tile;
-    private Tile bt4050Tile;   // emiss23
-    private Tile bt4515Tile;   // emiss25
-    private Tile bt7300Tile;
-    private Tile bt8600Tile;
-    private Tile bt11000Tile;
-    private Tile bt12000Tile;
-    private Tile bt13000Tile;
-
-    private Tile tskinTile;
-
-    private Rectangle sampleRect;
-
-    private double[][][] hCloudArray;
-    private double[][][] hNoCloudArray;
-    private double[][][] nCloudArray;
-    private double[][][] nNoCloudArray;
+    private ModisMeasureCalculator measureCalculator;
+
+    private MetImageMetrics metrics;
+    private AsyncOutputWriter outputWriter;
+    private HistogramArchiveWriter archiveWriter;
+
+    private ModisMeasurePlanes measurePlanes;
+    private ModisClassIndex classIndex;
+
+    private BitSet measureBandsCloudSamples;
+    private BitSet measureBandsNoCloudSamples;
+
+    // cloud and noCloud sample buffers of each worker thread, reused for all measures and combinations
+    private final ThreadLocal<ModisSampleBuffer[]> sampleBuffers = new ThreadLocal<ModisSampleBuffer[]>() {
+        @Override
+        protected ModisSampleBuffer[] initialValue() {
+            return new ModisSampleBuffer[]{new ModisSampleBuffer(), new ModisSampleBuffer()};
+        }
+    };
+
+    // cloud and noCloud histograms of each worker thread, reset for every measure and combination
+    private final ThreadLocal<DensityHistogram[]> skillHistograms = new ThreadLocal<DensityHistogram[]>() {
+        @Override
+        protected DensityHistogram[] initialValue() {
+            return new DensityHistogram[]{new DensityHistogram(), new DensityHistogram()};
+        }
+    };
 
 
     @Override
@@ -116,132 +175,148 @@ public class MetImageOp extends Operator {
         width = sourceProduct.getSceneRasterWidth();
         height = sourceProduct.getSceneRasterHeight();
 
+        metrics = new MetImageMetrics(sourceProduct.getName());
+        if (publishMetrics) {
+            metrics.register();
+        }
+
         try {
             targetProduct = createTargetProduct();
         } catch (IOException e) {
             throw new OperatorException("Cannot create target product: " + e.getMessage());
         }
 
-        getSourceTiles();
-
-        PrintStream csvOutputStream;
+        // all files are written by a background thread, so the skill computation never waits for the disk
+        outputWriter = new AsyncOutputWriter(AsyncOutputWriter.DEFAULT_QUEUE_CAPACITY, metrics);
+        boolean completed = false;
         try {
-            csvOutputStream = new PrintStream(new FileOutputStream(outputASCIIDirectory + File.separator + "skills.txt"));
-            csvOutputStream.print("Daytime" + "\t" + "Non-cloudy Surface" + "\t" + "Cloud Type" + "\t");
-            for (int i = 1; i <= MetImageConstants.NUM_TESTS; i++) {
-                csvOutputStream.print("clouds_H" + i + "\t");
-                csvOutputStream.print("noClouds_H" + i + "\t");
-                csvOutputStream.print("Skill_H" + i + "\t");
-            }
-            for (int i = 1; i < MetImageConstants.NUM_TESTS; i++) {
-                csvOutputStream.print("clouds_N" + i + "\t");
-                csvOutputStream.print("noClouds_N" + i + "\t");
-                csvOutputStream.print("Skill_N" + i + "\t");
+            computeSkills();
+            completed = true;
+        } finally {
+            if (completed) {
+                outputWriter.close();
+            } else {
+                outputWriter.closeQuietly();
             }
-            csvOutputStream.print("clouds_N7" + "\t");
-            csvOutputStream.print("noClouds_N7" + "\t");
-            csvOutputStream.println("Skill_N7");
-        } catch (FileNotFoundException e) {
-            throw new OperatorException("Unable to write distinction skill ASCII file: " + e.getMessage());
-        }
-
-        for (int ii = 0; ii < MetImageConstants.DAYTIME_FILTER_ID.length; ii++) {
-            daytime = MetImageConstants.DAYTIME_FILTER_ID[ii];
-            for (int jj = 0; jj < MetImageConstants.SURFACE_FILTER_ID.length; jj++) {
-                nonCloudySurface = MetImageConstants.SURFACE_FILTER_ID[jj];
-                for (int kk = 0; kk < MetImageConstants.CLOUDTYPE_FILTER_ID.length; kk++) {
-                    cloudtype = MetImageConstants.CLOUDTYPE_FILTER_ID[kk];
-
-                    System.out.println("daytime, surface, cloudtype = " +
-                            daytime + ", " + nonCloudySurface + ", " + cloudtype);
-
-                    hCloudArray = new double[MetImageConstants.NUM_TESTS][width][height];
-                    hNoCloudArray = new double[MetImageConstants.NUM_TESTS][width][height];
-                    nCloudArray = new double[MetImageConstants.NUM_TESTS][width][height];
-                    nNoCloudArray = new double[MetImageConstants.NUM_TESTS][width][height];
-
-                    for (int i = 0; i < MetImageConstants.NUM_TESTS; i++) {
-                        hCloudArray[i] = new double[width][height];
-                        hNoCloudArray[i] = new double[width][height];
-                        nCloudArray[i] = new double[width][height];
-                        nNoCloudArray[i] = new double[width][height];
-                        for (int j = 0; j < width; j++) {
-                            for (int k = 0; k < height; k++) {
-                                hCloudArray[i][j][k] = Double.NaN;
-                                hNoCloudArray[i][j][k] = Double.NaN;
-                                nCloudArray[i][j][k] = Double.NaN;
-                                nNoCloudArray[i][j][k] = Double.NaN;
-                            }
-                        }
-                    }
+        }
 
-                    ModisSample[] heritageSample = new ModisSample[MetImageConstants.NUM_TESTS];
-                    ModisSample[] newSample = new ModisSample[MetImageConstants.NUM_TESTS];
-                    double[] distSkillHeritage = new double[MetImageConstants.NUM_TESTS];
-                    double[] distSkillNew = new double[MetImageConstants.NUM_TESTS];
+        metrics.finish();
+        if (metricsReportFile != null) {
+            metrics.writeJsonReport(metricsReportFile);
+        }
+    }
 
-                    for (int i = 0; i < MetImageConstants.NUM_TESTS; i++) {
-                        heritageSample[i] = getModisSample(MetImageConstants.MEASURE_HERITAGE[i]);
-                        distSkillHeritage[i] = getDistinctionSkill(heritageSample[i]);
-                        newSample[i] = getModisSample(MetImageConstants.MEASURE_NEW[i]);
-                        distSkillNew[i] = getDistinctionSkill(newSample[i]);
-                    }
+    @Override
+    public void dispose() {
+        if (metrics != null) {
+            metrics.unregister();
+        }
+        super.dispose();
+    }
 
-                    csvOutputStream.print(daytime + "\t" + nonCloudySurface + "\t" + cloudtype + "\t");
-                    for (int i = 1; i <= MetImageConstants.NUM_TESTS; i++) {
-                        String s = String.format("%d\t", heritageSample[i - 1].getCloudSamples().length);
-                        csvOutputStream.print(s);
-                        s = String.format("%d\t", heritageSample[i - 1].getNoCloudSamples().length);
-                        csvOutputStream.print(s);
-                        s = String.format("%6f\t", distSkillHeritage[i - 1]);
-                        csvOutputStream.print(s);
+    private void computeSkills() {
+        final DistinctionSkillTable skillTable = new DistinctionSkillTable(outputASCIIDirectory, outputWriter);
+        if (writeJsonFiles && histogramOutputFormat.equals("ARCHIVE")) {
+            archiveWriter = new HistogramArchiveWriter(outputJSONDirectory, outputWriter);
+            System.out.println("Writing histograms to archive '" + archiveWriter.getFile().getAbsolutePath() + "'.");
+        }
 
-                    }
-                    for (int i = 1; i < MetImageConstants.NUM_TESTS; i++) {
-                        String s = String.format("%d\t", newSample[i - 1].getCloudSamples().length);
-                        csvOutputStream.print(s);
-                        s = String.format("%d\t", newSample[i - 1].getNoCloudSamples().length);
-                        csvOutputStream.print(s);
-                        s = String.format("%6f\t", distSkillNew[i - 1]);
-                        csvOutputStream.print(s);
-                    }
-                    String s = String.format("%d\t", newSample[MetImageConstants.NUM_TESTS - 1].getCloudSamples().length);
-                    csvOutputStream.print(s);
-                    s = String.format("%d\t", newSample[MetImageConstants.NUM_TESTS - 1].getNoCloudSamples().length);
-                    csvOutputStream.print(s);
-                    s = String.format("%6f", distSkillNew[MetImageConstants.NUM_TESTS - 1]);
-                    csvOutputStream.println(s);
+        // the measures do not depend on the filter combination - evaluate them only once per scene
+        measurePlanes = getMeasurePlanes();
+        classIndex = new ModisClassIndex(measurePlanes);
+        metrics.increment("sampledPixels", measurePlanes.getNumSamples());
+        final int numClassified = classIndex.getSurfaceTypeSamples(ModisClassIndex.CLOUD_SURFACE_TYPES).cardinality() +
+                classIndex.getSurfaceTypeSamples(ModisClassIndex.NO_CLOUD_SURFACE_TYPES).cardinality();
+        final RejectionFunnelTable rejectionTable = new RejectionFunnelTable(outputASCIIDirectory,
+                                                                             (long) width * height,
+                                                                             measurePlanes.getNumSamples(),
+                                                                             numClassified,
+                                                                             outputWriter);
+
+        // the H*/N* target bands show the samples of one selected combination only
+        final FilterCombination measureBandsCombination =
+                new FilterCombination(measureBandsDaytime, measureBandsSurface, measureBandsCloudtype);
+        measureBandsCloudSamples = classIndex.getCloudSamples(measureBandsCombination);
+        measureBandsNoCloudSamples = classIndex.getNoCloudSamples(measureBandsCombination);
+
+        final List<FilterCombination> combinations = FilterCombination.createAll();
+        final ExecutorService executor = numberOfThreads > 1 ? Executors.newFixedThreadPool(numberOfThreads) : null;
+        try {
+            // one task per combination and measure, heritage and new measures interleaved as before
+            List<List<Future<MeasureSkill>>> skillFutures = new ArrayList<List<Future<MeasureSkill>>>();
+            for (FilterCombination combination : combinations) {
+                System.out.println("daytime, surface, cloudtype = " + combination);
+                List<Future<MeasureSkill>> combinationFutures = new ArrayList<Future<MeasureSkill>>();
+                for (int i = 0; i < MetImageConstants.NUM_TESTS; i++) {
+                    combinationFutures.add(submitMeasureSkill(executor, combination, MetImageConstants.MEASURE_HERITAGE[i]));
+                    combinationFutures.add(submitMeasureSkill(executor, combination, MetImageConstants.MEASURE_NEW[i]));
                 }
+                metrics.increment("skillTasks", combinationFutures.size());
+                skillFutures.add(combinationFutures);
+            }
+
+            // collect the results in canonical order, so that the rows do not depend on the thread scheduling
+            for (int c = 0; c < combinations.size(); c++) {
+                final FilterCombination combination = combinations.get(c);
+                MeasureSkill[] heritageSkill = new MeasureSkill[MetImageConstants.NUM_TESTS];
+                MeasureSkill[] newSkill = new MeasureSkill[MetImageConstants.NUM_TESTS];
+                for (int i = 0; i < MetImageConstants.NUM_TESTS; i++) {
+                    heritageSkill[i] = getMeasureSkill(skillFutures.get(c).get(2 * i));
+                    newSkill[i] = getMeasureSkill(skillFutures.get(c).get(2 * i + 1));
+                }
+
+                final MetImageMetrics.Stopwatch stopwatch = metrics.start();
+                skillTable.writeRow(combination, heritageSkill, newSkill);
+                rejectionTable.writeRows(combination, heritageSkill, newSkill);
+                metrics.stop(stopwatch, MetImageMetrics.Phase.ASCII_OUTPUT);
+            }
+            if (archiveWriter != null) {
+                archiveWriter.finish();
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
         }
-        csvOutputStream.close();
     }
 
     @Override
     public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
 
-        final Rectangle rectangle = targetTile.getRectangle();
-        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
-            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+        if (targetBand.getName().matches("[HN][1-7]_(no)?cloud")) {
+            computeMeasureTile(targetBand, targetTile);
+            return;
+        }
 
-                if (targetBand.getName().equals(MetImageConstants.MODIS_CSV_PRODUCT_DAYTIME_BAND_NAME)) {
-                    targetTile.setSample(x, y, daytimeTile.getSampleInt(x, y));
-                }
-                if (targetBand.getName().equals(MetImageConstants.MODIS_CSV_PRODUCT_SURFACETYPE_BAND_NAME)) {
-                    targetTile.setSample(x, y, surfaceTypeTile.getSampleInt(x, y));
-                }
-                if (targetBand.getName().equals(MetImageConstants.MODIS_CSV_PRODUCT_CLOUDHEIGHT_BAND_NAME)) {
-                    targetTile.setSample(x, y, cloudHeightTile.getSampleInt(x, y));
-                }
-                if (targetBand.getName().equals(MetImageConstants.MODIS_CSV_PRODUCT_GLINT_BAND_NAME)) {
-                    targetTile.setSample(x, y, glintTile.getSampleInt(x, y));
+        final String bandName = targetBand.getName();
+        final Rectangle rectangle = targetTile.getRectangle();
+        if (bandName.equals(MetImageConstants.MODIS_CSV_PRODUCT_DAYTIME_BAND_NAME) ||
+                bandName.equals(MetImageConstants.MODIS_CSV_PRODUCT_SURFACETYPE_BAND_NAME) ||
+                bandName.equals(MetImageConstants.MODIS_CSV_PRODUCT_CLOUDHEIGHT_BAND_NAME) ||
+                bandName.equals(MetImageConstants.MODIS_CSV_PRODUCT_GLINT_BAND_NAME)) {
+            final Tile sourceTile = getSourceTile(sourceProduct.getBand(bandName), rectangle);
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    targetTile.setSample(x, y, sourceTile.getSampleInt(x, y));
                 }
-                if (targetBand.getName().equals(MetImageConstants.MODIS_CSV_PRODUCT_SNOW_BAND_NAME)) {
-                    final int isSnow = (surfaceTypeTile.getSampleInt(x, y) == 4 ||
-                            surfaceTypeTile.getSampleInt(x, y) == 7) ? 1 : 0;
+            }
+        } else if (bandName.equals(MetImageConstants.MODIS_CSV_PRODUCT_SNOW_BAND_NAME)) {
+            final Tile surfaceTypeTile = getSourceTile(
+                    sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_SURFACETYPE_BAND_NAME), rectangle);
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    final int surfaceType = surfaceTypeTile.getSampleInt(x, y);
+                    final int isSnow = (surfaceType == 4 || surfaceType == 7) ? 1 : 0;
                     targetTile.setSample(x, y, isSnow);
                 }
-                if (targetBand.getName().equals(MetImageConstants.MODIS_CSV_PRODUCT_NDSI_BAND_NAME)) {
+            }
+        } else if (bandName.equals(MetImageConstants.MODIS_CSV_PRODUCT_NDSI_BAND_NAME)) {
+            final Tile rho555Tile = getSourceTile(
+                    sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO555_BAND_NAME), rectangle);
+            final Tile rho1640Tile = getSourceTile(
+                    sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO1640_BAND_NAME), rectangle);
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
                     // NDSI = (b4-b6)/(b4 + b6)   (b4=0.55 µm (RefSB.4), b6=1.64µm (RefSB.6))
                     final double b4 = rho555Tile.getSampleDouble(x, y);
                     final double b6 = rho1640Tile.getSampleDouble(x, y);
@@ -253,42 +328,30 @@ public class MetImageOp extends Operator {
                     }
                     targetTile.setSample(x, y, ndsi);
                 }
+            }
+        }
+    }
 
-//                if (targetBand.getName().equals("b4")) {
-//                    final double b4 = rho555Tile.getSampleDouble(x, y);
-//                    if (b4 > 0.0) {
-//                        targetTile.setSample(x, y, b4);
-//                    } else {
-//                        targetTile.setSample(x, y, Double.NaN);
-//                    }
-//                }
-//                if (targetBand.getName().equals("b6")) {
-//                    final double b6 = rho1640Tile.getSampleDouble(x, y);
-//                    if (b6 > 0.0) {
-//                        targetTile.setSample(x, y, b6);
-//                    } else {
-//                        targetTile.setSample(x, y, Double.NaN);
-//                    }
-//                }
-
-
-                for (int i = 1; i <= 7; i++) {
-                    if (targetBand.getName().equals("H" + i + "_cloud")) {
-                        targetTile.setSample(x, y, hCloudArray[i - 1][x][y]);
-                    }
-                    if (targetBand.getName().equals("H" + i + "_nocloud")) {
-                        targetTile.setSample(x, y, hNoCloudArray[i - 1][x][y]);
-                    }
-                    if (targetBand.getName().equals("N" + i + "_cloud")) {
-                        targetTile.setSample(x, y, nCloudArray[i - 1][x][y]);
-                    }
-                    if (targetBand.getName().equals("N" + i + "_nocloud")) {
-                        targetTile.setSample(x, y, nNoCloudArray[i - 1][x][y]);
-                    }
+    // provides the measure values of the selected measure band combination, NaN for all other pixels
+    private void computeMeasureTile(Band targetBand, Tile targetTile) {
+        final String bandName = targetBand.getName();
+        final int measureIndex = Integer.parseInt(bandName.substring(1, 2));
+        final int measureId = bandName.startsWith("H") ?
+                MetImageConstants.MEASURE_HERITAGE[measureIndex - 1] : MetImageConstants.MEASURE_NEW[measureIndex - 1];
+        final BitSet samples = bandName.endsWith("_nocloud") ? measureBandsNoCloudSamples : measureBandsCloudSamples;
+        final double[] measures = measurePlanes.getMeasures(measureId);
+
+        final Rectangle rectangle = targetTile.getRectangle();
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                final int k = measurePlanes.getSampleNumber(y * width + x);
+                if (k >= 0 && samples.get(k)) {
+                    targetTile.setSample(x, y, measures[k]);
+                } else {
+                    targetTile.setSample(x, y, Double.NaN);
                 }
             }
         }
-
     }
 
     private Product createTargetProduct() throws IOException {
@@ -368,88 +431,84 @@ public class MetImageOp extends Operator {
         }
     }
 
-    private void getSourceTiles() {
-        final Band daytimeBand = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_DAYTIME_BAND_NAME);
-        final Band cloudHeightBand = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_CLOUDHEIGHT_BAND_NAME);
-        final Band latitudeBand = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_LATITUDE_BAND_NAME);
-        final Band longitudeBand = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_LONGITUDE_BAND_NAME);
-        final Band glintBand = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_GLINT_BAND_NAME);
-        final Band surfaceTypeBand = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_SURFACETYPE_BAND_NAME);
-        if (surfaceTypeBand == null) {
-            throw new OperatorException("No cloud cover information available from input product - cannot proceed.");
-        }
-        final Band rho469Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO645_BAND_NAME);
-        final Band rho645Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO469_BAND_NAME);
-        final Band rho555Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO555_BAND_NAME);
-        final Band rho1240Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO1240_BAND_NAME);
-        final Band rho1640Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO1640_BAND_NAME);
-        final Band rho2130Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO2130_BAND_NAME);
-
-        final Band rho600Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO600_BAND_NAME);
-        final Band rho860Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO860_BAND_NAME);
-        final Band rho1380Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO1380_BAND_NAME);
-        final Band bt3700Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT3700_BAND_NAME);
-        final Band bt4050Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT4050_BAND_NAME);
-        final Band bt4515Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT4515_BAND_NAME);
-        final Band bt7300Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT7300_BAND_NAME);
-        final Band bt8600Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT8600_BAND_NAME);
-        final Band bt11000Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT11000_BAND_NAME);
-        final Band bt12000Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT12000_BAND_NAME);
-        final Band bt13000Band = sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_BT13000_BAND_NAME);
-
-        sampleRect = new Rectangle(width, height);
-
-        surfaceTypeTile = getSourceTile(surfaceTypeBand, sampleRect);
-        glintTile = getSourceTile(glintBand, sampleRect);
-        daytimeTile = getSourceTile(daytimeBand, sampleRect);
-        latitudeTile = getSourceTile(latitudeBand, sampleRect);
-        longitudeTile = getSourceTile(longitudeBand, sampleRect);
-        rho645Tile = getSourceTile(rho645Band, sampleRect);
-        rho469Tile = getSourceTile(rho469Band, sampleRect);
-        rho555Tile = getSourceTile(rho555Band, sampleRect);
-        rho1240Tile = getSourceTile(rho1240Band, sampleRect);
-        rho1640Tile = getSourceTile(rho1640Band, sampleRect);
-        rho2130Tile = getSourceTile(rho2130Band, sampleRect);
-        rho600Tile = getSourceTile(rho600Band, sampleRect);
-        rho860Tile = getSourceTile(rho860Band, sampleRect);
-        rho1380Tile = getSourceTile(rho1380Band, sampleRect);
-        bt3700Tile = getSourceTile(bt3700Band, sampleRect);
-        bt4050Tile = getSourceTile(bt4050Band, sampleRect);
-        bt4515Tile = getSourceTile(bt4515Band, sampleRect);
-        bt7300Tile = getSourceTile(bt7300Band, sampleRect);
-        bt8600Tile = getSourceTile(bt8600Band, sampleRect);
-        cloudHeightTile = getSourceTile(cloudHeightBand, sampleRect);
-        bt11000Tile = getSourceTile(bt11000Band, sampleRect);
-        bt12000Tile = getSourceTile(bt12000Band, sampleRect);
-        bt13000Tile = getSourceTile(bt13000Band, sampleRect);
-
-        // todo: currently we use Tskin info from single product - define reasonable method to find correct day/night skin temperatures
-        final String tskinPath = getClass().getResource(MetImageConstants.TSKIN_DEFAULT_FILE_NAME).getPath();
-        try {
-            tskinProduct = ProductIO.readProduct(tskinPath);
-        } catch (IOException e) {
-            throw new OperatorException("Cannot open Tskin file '" + tskinPath + "': " + e.getMessage());
+    private void initMeasureCalculator() {
+        final MetImageMetrics.Stopwatch stopwatch = metrics.start();
+        measureCalculator = new ModisMeasureCalculator(TskinCollocation.readDefault(this));
+        metrics.stop(stopwatch, MetImageMetrics.Phase.TSKIN_READ);
+    }
+
+    // takes the measures from the cache if possible, otherwise evaluates them (and caches them)
+    private ModisMeasurePlanes getMeasurePlanes() {
+        final ModisMeasureCache cache = measureCacheDirectory != null ? new ModisMeasureCache(measureCacheDirectory) : null;
+        final String cacheKey = cache != null ? ModisMeasureCache.createKey(sourceProduct) : null;
+        if (cache != null && cacheKey == null) {
+            System.out.println("Source product has no file location - measures are not cached.");
+        }
+        if (cacheKey != null) {
+            final ModisMeasurePlanes cachedPlanes = cache.read(sourceProduct.getName(), cacheKey);
+            if (cachedPlanes != null) {
+                System.out.println("Using cached measures of '" + sourceProduct.getName() + "'.");
+                metrics.increment("cachedMeasurePlanes", 1);
+                return cachedPlanes;
+            }
         }
 
-        String tskinBandName = MetImageConstants.TSKIN_DEFAULT_BAND_NAME;
-//        String tskinBandName = "skt_time" + findTskinTimeIndex();
-        final Band tskinBand = tskinProduct.getBand(tskinBandName);
-        final int tskinWidth = tskinProduct.getSceneRasterWidth();
-        final int tskinHeight = tskinProduct.getSceneRasterHeight();
-        tskinTile = getSourceTile(tskinBand, new Rectangle(tskinWidth, tskinHeight));
+        initMeasureCalculator();
+        final ModisMeasurePlanes planes = measureCalculator.computeMeasurePlanes(this, sourceProduct, stripeHeight,
+                                                                                  metrics);
+        if (cacheKey != null) {
+            cache.write(sourceProduct.getName(), cacheKey, planes, new Rectangle(width, height));
+        }
+        return planes;
+    }
 
+    // runs the task directly in sequential mode, otherwise hands it over to the executor
+    private Future<MeasureSkill> submitMeasureSkill(ExecutorService executor,
+                                                    final FilterCombination combination,
+                                                    final int measureId) {
+        final FutureTask<MeasureSkill> task = new FutureTask<MeasureSkill>(new Callable<MeasureSkill>() {
+            @Override
+            public MeasureSkill call() throws Exception {
+                if (streamHistograms && !equalizeHistograms) {
+                    return getStreamedMeasureSkill(measureId, combination);
+                }
+                final ModisSample sample = getModisSample(measureId, combination);
+                final double distSkill = getDistinctionSkill(sample, combination);
+                return new MeasureSkill(measureId,
+                                        sample.getCloudSamples().size(),
+                                        sample.getNoCloudSamples().size(),
+                                        distSkill,
+                                        sample.getRejections());
+            }
+        });
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
     }
 
-    private String findTskinTimeIndex() {
-        // todo: define reasonable method to find correct day/night skin temperatures
-        return "730";
+    private MeasureSkill getMeasureSkill(Future<MeasureSkill> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while computing distinction skills.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof OperatorException) {
+                throw (OperatorException) cause;
+            }
+            throw new OperatorException("Cannot compute distinction skill: " + cause.getMessage(), cause);
+        }
     }
 
-    private double getDistinctionSkill(ModisSample modisSample) {
-        final double[] cloudSamples = modisSample.getCloudSamples();
-        final int numCloud = cloudSamples.length;
-        final double[] noCloudSamples = modisSample.getNoCloudSamples();
-        final int numNoCloud = noCloudSamples.length;
+    private double getDistinctionSkill(ModisSample modisSample, FilterCombination combination) {
+        final double[] cloudSamples = modisSample.getCloudSamples().getValues();
+        final int numCloud = modisSample.getCloudSamples().size();
+        final double[] noCloudSamples = modisSample.getNoCloudSamples().getValues();
+        final int numNoCloud = modisSample.getNoCloudSamples().size();
 
 
         if (numCloud == 0 || numNoCloud == 0) {
@@ -464,389 +523,237 @@ public class MetImageOp extends Operator {
             return Double.NaN;
         }
 
-        final double cloudSampleMax = (new Max()).evaluate(cloudSamples);
-        final double cloudSampleMin = (new Min()).evaluate(cloudSamples);
+        MetImageMetrics.Stopwatch stopwatch = metrics.start();
+        final double cloudSampleMax = (new Max()).evaluate(cloudSamples, 0, numCloud);
+        final double cloudSampleMin = (new Min()).evaluate(cloudSamples, 0, numCloud);
 
-        final double noCloudSampleMax = (new Max()).evaluate(noCloudSamples);
-        final double noCloudSampleMin = (new Min()).evaluate(noCloudSamples);
+        final double noCloudSampleMax = (new Max()).evaluate(noCloudSamples, 0, numNoCloud);
+        final double noCloudSampleMin = (new Min()).evaluate(noCloudSamples, 0, numNoCloud);
 
         final double min = Math.min(cloudSampleMin, noCloudSampleMin);
         final double max = Math.max(cloudSampleMax, noCloudSampleMax);
 
-        MetImageHistogram cloudHisto;
-        MetImageHistogram noCloudHisto;
-        double distSkill;
-
+        double[] binBorders = null;
         if (equalizeHistograms) {
-            final double[] allSamples = mergeSamples(cloudSamples, numCloud, noCloudSamples, numNoCloud);
-            final int nBins = MetImageHistogram.findOptimalNumberOfBins(allSamples);
-            if (nBins > 0) {
-                try {
-                    final MetImageHistogram allSamplesEqualizedHisto = MetImageHistogram.createAggregatedEqualizedHistogram(allSamples);
-                    final double[] unequalBins = allSamplesEqualizedHisto.getUnequalBinBorders();
-
-                    // now get the unequal spaced cloud and noCloud histograms...
-                    cloudHisto = new MetImageHistogram(new int[unequalBins.length - 1], min, max, MetImageConstants.ALPHA);
-                    cloudHisto.setUnequalBinBorders(unequalBins);
-                    cloudHisto.aggregateUnequalBins(cloudSamples, IndexValidator.TRUE);
-                    cloudHisto.computeDensityFunctions();
-                    noCloudHisto = new MetImageHistogram(new int[unequalBins.length - 1], min, max, MetImageConstants.ALPHA);
-                    noCloudHisto.setUnequalBinBorders(unequalBins);
-                    noCloudHisto.aggregateUnequalBins(noCloudSamples, IndexValidator.TRUE);
-                    noCloudHisto.computeDensityFunctions();
-                } catch (Exception e) {
-                    System.out.println("Cannot perform equalization for measure ID '" + modisSample.getMeasureID() +
-                            "': " + e.getMessage());
-                    System.out.println(" --> compute distinction skill without equalization.");
-                    cloudHisto = MetImageHistogram.createAggregatedHistogram(cloudSamples, numberOfBins, min, max);
-                    noCloudHisto = MetImageHistogram.createAggregatedHistogram(noCloudSamples, numberOfBins, min, max);
-                }
-            } else {
-                System.out.println("Cannot perform equalization for measure ID '" + modisSample.getMeasureID() +
-                        "' (no valid 'optimal bins' found) - compute distinction skill without equalization.");
-                cloudHisto = MetImageHistogram.createAggregatedHistogram(cloudSamples, numberOfBins, min, max);
-                noCloudHisto = MetImageHistogram.createAggregatedHistogram(noCloudSamples, numberOfBins, min, max);
-            }
-        } else {
-            cloudHisto = MetImageHistogram.createAggregatedHistogram(cloudSamples, numberOfBins, min, max);
-            noCloudHisto = MetImageHistogram.createAggregatedHistogram(noCloudSamples, numberOfBins, min, max);
+            metrics.stop(stopwatch, MetImageMetrics.Phase.HISTOGRAM_BUILD, combination, modisSample.getMeasureName());
+            stopwatch = metrics.start();
+            binBorders = getEqualizedBinBorders(modisSample.getMeasureID(),
+                                                cloudSamples, numCloud, noCloudSamples, numNoCloud, min, max);
         }
-        distSkill = DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudHisto,
-                cloudHisto,
-                numNoCloud,
-                numCloud);
 
-        if (writeJsonFiles) {
-            MetImageUtils.writeHistogramsAsJson(outputJSONDirectory.getAbsolutePath(),
-                    daytime, nonCloudySurface, cloudtype,
-                    modisSample.getMeasureName(), cloudHisto, noCloudHisto);
+        // same histograms as in the streaming mode, so that the skills do not depend on the mode
+        final DensityHistogram[] histograms = skillHistograms.get();
+        final DensityHistogram cloudHisto = histograms[0];
+        final DensityHistogram noCloudHisto = histograms[1];
+        if (binBorders != null) {
+            cloudHisto.resetUnequalBins(binBorders);
+            noCloudHisto.resetUnequalBins(binBorders);
+        } else {
+            cloudHisto.resetEqualBins(numberOfBins, min, max);
+            noCloudHisto.resetEqualBins(numberOfBins, min, max);
         }
-
-        return distSkill;
-    }
-
-    private double[] mergeSamples(double[] cloudSamples, int numCloud, double[] noCloudSamples, int numNoCloud) {
-        double[] allSamples = new double[numCloud + numNoCloud];
-        System.arraycopy(cloudSamples, 0, allSamples, 0, numCloud);
-        System.arraycopy(noCloudSamples, 0, allSamples, numCloud, numNoCloud);
-        return allSamples;
+        cloudHisto.aggregate(cloudSamples, numCloud);
+        cloudHisto.computeDensityFunctions();
+        noCloudHisto.aggregate(noCloudSamples, numNoCloud);
+        noCloudHisto.computeDensityFunctions();
+        metrics.stop(stopwatch, equalizeHistograms ? MetImageMetrics.Phase.EQUALIZATION : MetImageMetrics.Phase.HISTOGRAM_BUILD,
+                     combination, modisSample.getMeasureName());
+
+        return getDistinctionSkill(cloudHisto, noCloudHisto, numCloud, numNoCloud,
+                modisSample.getMeasureName(), combination);
     }
 
-    // provides an object holding cloudy and non-cloudy arrays of a measure with given ID
-    private ModisSample getModisSample(int measureId) {
-        ModisSample sample;
-        try {
-            sample = new ModisSample(measureId);
-        } catch (IllegalArgumentException e) {
-            throw new OperatorException("Found invalid measureId " + measureId + " - cannot continue.");
+    // provides the equalized bin borders of the cloud and noCloud samples together, null if the samples cannot
+    // be equalized (the histograms then get numberOfBins equal bins)
+    private double[] getEqualizedBinBorders(int measureId, double[] cloudSamples, int numCloud,
+                                            double[] noCloudSamples, int numNoCloud, double min, double max) {
+        // sorted once, shared by the bin optimization and the equalization
+        final SortedSampleSummary allSamples =
+                new SortedSampleSummary(cloudSamples, numCloud, noCloudSamples, numNoCloud);
+        final int nBins = MetImageHistogram.findOptimalNumberOfBins(allSamples);
+        if (nBins <= 0) {
+            System.out.println("Cannot perform equalization for measure ID '" + measureId +
+                    "' (no valid 'optimal bins' found) - compute distinction skill without equalization.");
+            return null;
         }
-
-        List<Double> cloudSampleList = new ArrayList<Double>();
-        List<Double> noCloudSampleList = new ArrayList<Double>();
-
-        if (measureId == MetImageConstants.MEASURE_HERITAGE_7 || measureId == MetImageConstants.MEASURE_NEW_7) {
-            int index = 0;
-            SummaryStatistics rho600Stats = new SummaryStatistics();
-            SummaryStatistics bt11000Stats = new SummaryStatistics();
-            SummaryStatistics bt12000Minus3700Stats = new SummaryStatistics();
-            for (int y = sampleRect.y; y < sampleRect.y + sampleRect.height; y++) {
-                for (int x = sampleRect.x; x < sampleRect.x + sampleRect.width; x++) {
-                    // take the standard deviation of measures over 3x3 pixels
-                    if (measureId == MetImageConstants.MEASURE_HERITAGE_7) {
-                        if (bt11000Tile.getSampleDouble(x, y) < MetImageConstants.UPPER_LIM_BT11000) {
-                            final double bt11000Value =
-                                    ModisMeasures.convertModisEmissiveRadianceToTemperature(bt11000Tile.getSampleDouble(x, y), 31);
-                            bt11000Stats.addValue(bt11000Value);
-                        }
-                    } else {
-                        final boolean rho600Valid =
-                                isSampleNight(daytimeTile, x, y) || rho600Tile.getSampleDouble(x, y) < MetImageConstants.UPPER_LIM_RHO600;
-                        if (rho600Valid &&
-                                bt3700Tile.getSampleDouble(x, y) < MetImageConstants.UPPER_LIM_BT3700 &&
-                                bt11000Tile.getSampleDouble(x, y) < MetImageConstants.UPPER_LIM_BT11000) {
-                            final double rho600Value = rho600Tile.getSampleDouble(x, y);
-                            if (!Double.isNaN(rho600Value)) {
-                                rho600Stats.addValue(rho600Value);
-                            }
-                            final double bt11000Value =
-                                    ModisMeasures.convertModisEmissiveRadianceToTemperature(bt11000Tile.getSampleDouble(x, y), 31);
-                            if (!Double.isNaN(bt11000Value)) {
-                                bt11000Stats.addValue(bt11000Value);
-                            }
-
-                            if (!Double.isNaN(bt12000Tile.getSampleDouble(x, y)) && !Double.isNaN(bt3700Tile.getSampleDouble(x, y))) {
-                                final double bt12000Value =
-                                        ModisMeasures.convertModisEmissiveRadianceToTemperature(bt12000Tile.getSampleDouble(x, y), 32);
-                                final double bt3700Value =
-                                        ModisMeasures.convertModisEmissiveRadianceToTemperature(bt3700Tile.getSampleDouble(x, y), 20);
-                                bt12000Minus3700Stats.addValue(bt12000Value - bt3700Value);
-                            }
-                        }
-                    }
-
-                    if ((index + 1) % 9 == 0) {
-                        double measure;
-                        int xIndex;
-                        int yIndex;
-                        if (index / sampleRect.width == (index - 4) / sampleRect.width) {
-                            // same row
-                            yIndex = y;
-                            xIndex = x - 4;
-                        } else {
-                            yIndex = y - 1;
-                            xIndex = (sampleRect.width - 4 + x);
-                        }
-
-                        if (measureId == MetImageConstants.MEASURE_HERITAGE_7) {
-                            measure = getMeasureHeritage7(bt11000Stats.getStandardDeviation());
-                            fillMeasureOutputArray(hCloudArray[6], hNoCloudArray[6], yIndex, xIndex, measure);
-                        } else {
-                            measure = getMeasureNew7(bt11000Stats.getStandardDeviation(),
-                                    bt12000Minus3700Stats.getStandardDeviation(),
-                                    rho600Stats.getStandardDeviation(), yIndex, xIndex);
-                            fillMeasureOutputArray(nCloudArray[6], nNoCloudArray[6], yIndex, xIndex, measure);
-                        }
-                        if (considerMeasure(measure, xIndex, yIndex)) {
-                            if (isSampleCloud(surfaceTypeTile, xIndex, yIndex)) {
-                                cloudSampleList.add(measure);
-                            } else if (isSampleNoCloud(surfaceTypeTile, xIndex, yIndex)) {
-                                noCloudSampleList.add(measure);
-                            }
-                        }
-
-                        rho600Stats = new SummaryStatistics();
-                        bt11000Stats = new SummaryStatistics();
-                        bt12000Minus3700Stats = new SummaryStatistics();
-                    }
-                    index++;
-                }
-            }
-        } else {
-            int index = 0;
-            for (int y = sampleRect.y; y < sampleRect.y + sampleRect.height; y++) {
-                for (int x = sampleRect.x; x < sampleRect.x + sampleRect.width; x++) {
-                    // take the center of the measures over 3x3 pixels
-                    if ((index + 5) % 9 == 0) {
-                        final double measure = getMeasureById(measureId, y, x);
-                        if (considerMeasure(measure, x, y)) {
-                            if (isSampleCloud(surfaceTypeTile, x, y)) {
-                                cloudSampleList.add(measure);
-                            } else if (isSampleNoCloud(surfaceTypeTile, x, y)) {
-                                noCloudSampleList.add(measure);
-                            }
-                        }
-                    }
-                    index++;
-                }
+        final double[] binBorders;
+        try {
+            if (equalizationMethod.equals("EXACT_QUANTILES")) {
+                binBorders = MetImageHistogram.getEqualFrequencyBinBorders(allSamples, nBins);
+            } else {
+                final MetImageHistogram allSamplesEqualizedHisto = MetImageHistogram.createAggregatedEqualizedHistogram(allSamples);
+                binBorders = allSamplesEqualizedHisto.getUnequalBinBorders();
             }
+        } catch (Exception e) {
+            System.out.println("Cannot perform equalization for measure ID '" + measureId +
+                    "': " + e.getMessage());
+            System.out.println(" --> compute distinction skill without equalization.");
+            return null;
         }
-
-        final double[] cloudSampleArray =
-                MetImageUtils.getAsPrimitiveDoubles(cloudSampleList.toArray(new Double[cloudSampleList.size()]));
-        final double[] noCloudSampleArray =
-                MetImageUtils.getAsPrimitiveDoubles(noCloudSampleList.toArray(new Double[noCloudSampleList.size()]));
-
-        sample.setCloudSamples(cloudSampleArray);
-        sample.setNoCloudSamples(noCloudSampleArray);
-
-        return sample;
-    }
-
-    private boolean considerMeasure(double measure, int x, int y) {
-        final boolean isNotNan = !Double.isNaN(measure);
-
-        final boolean daytimeOK = daytime.equals("ALL") ||
-                (daytime.equals("DAY") && isSampleDay(daytimeTile, x, y)) ||
-                (daytime.equals("NIGHT") && isSampleNight(daytimeTile, x, y)) ||
-                (daytime.equals("TWILIGHT") && isSampleTwilight(daytimeTile, x, y));
-
-        final boolean surfaceOK = nonCloudySurface.equals("ALL") ||
-                isSampleCloud(surfaceTypeTile, x, y) ||  // we have to let these pass
-                (nonCloudySurface.equals("LAND") && isSampleLand(surfaceTypeTile, x, y)) ||
-                (nonCloudySurface.equals("SEA") && isSampleOcean(surfaceTypeTile, x, y)) ||
-                (nonCloudySurface.equals("ICE") && isSampleIce(surfaceTypeTile, x, y));
-
-        final boolean cloudtypeOK = cloudtype.equals("ALL") ||
-                !isSampleCloud(surfaceTypeTile, x, y) ||    // we have to let these pass
-                (cloudtype.equals("LOW") && isSampleLowCloud(cloudHeightTile, x, y)) ||
-                (cloudtype.equals("MIDLEVEL") && isSampleMidlevelCloud(cloudHeightTile, x, y)) ||
-                (cloudtype.equals("HIGH") && isSampleHighCloud(cloudHeightTile, x, y) ||
-                        (cloudtype.equals("SEMITRANSPARENT") && isSampleSemitransparentCloud(surfaceTypeTile, x, y)));
-
-
-        return isNotNan && daytimeOK && surfaceOK && cloudtypeOK;
-    }
-
-    private double getMeasureById(int measureId, int y, int x) {
-        double measure;
-        switch (measureId) {
-            case MetImageConstants.MEASURE_HERITAGE_1:
-                measure = ModisMeasures.heritageMeasureBT11(bt11000Tile.getSampleDouble(x, y), getTskin(x, y));
-                fillMeasureOutputArray(hCloudArray[0], hNoCloudArray[0], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_HERITAGE_2:
-                measure = ModisMeasures.heritageMeasureSplitWindow(bt11000Tile.getSampleDouble(x, y),
-                        bt12000Tile.getSampleDouble(x, y));
-                fillMeasureOutputArray(hCloudArray[1], hNoCloudArray[1], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_HERITAGE_3:
-                measure = ModisMeasures.heritageMeasureNegativeBT37minusBT11Night(bt3700Tile.getSampleDouble(x, y),
-                        bt11000Tile.getSampleDouble(x, y),
-                        isSampleNight(daytimeTile, x, y));
-                fillMeasureOutputArray(hCloudArray[2], hNoCloudArray[2], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_HERITAGE_4:
-                measure = ModisMeasures.heritageMeasurePositiveBT37minusBT11NightMixedScene(bt3700Tile.getSampleDouble(x, y),
-                        bt12000Tile.getSampleDouble(x, y),
-                        isSampleNight(daytimeTile, x, y));
-                fillMeasureOutputArray(hCloudArray[3], hNoCloudArray[3], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_HERITAGE_5:
-                measure = ModisMeasures.heritageMeasureSolarBrightnessThresholdsOcean(rho860Tile.getSampleDouble(x, y),
-                        isSampleLand(surfaceTypeTile, x, y));
-                fillMeasureOutputArray(hCloudArray[4], hNoCloudArray[4], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_HERITAGE_6:
-                measure = ModisMeasures.heritageMeasureSolarBrightnessThresholdsLand(rho600Tile.getSampleDouble(x, y),
-                        isSampleOcean(surfaceTypeTile, x, y));
-                fillMeasureOutputArray(hCloudArray[5], hNoCloudArray[5], y, x, measure);
-                break;
-
-            case MetImageConstants.MEASURE_NEW_1:
-                measure = ModisMeasures.newMeasureR138WaterVapour(rho1380Tile.getSampleDouble(x, y));
-
-//                measure = ModisMeasures.newMeasureRhoSB_3_5_7_add(rho469Tile.getSampleDouble(x, y),     // test MP
-//                                                                  rho1240Tile.getSampleDouble(x, y),
-//                                                                  rho2130Tile.getSampleDouble(x, y));
-
-//                measure = ModisMeasures.newMeasureRhoSB_3_5_7_log_multiply(rho469Tile.getSampleDouble(x, y),     // test MP
-//                                                                           rho1240Tile.getSampleDouble(x, y),
-//                                                                           rho2130Tile.getSampleDouble(x, y),
-//                                                                           isSampleDay(daytimeTile, x, y));
-
-//                measure = ModisMeasures.newMeasureRhoSB_1_3_4(rho645Tile.getSampleDouble(x, y),     // test MP  2
-//                                                              rho469Tile.getSampleDouble(x, y),
-//                                                              rho555Tile.getSampleDouble(x, y));
-//
-//                measure = ModisMeasures.newMeasureLogEmiss_25_32_23(bt4515Tile.getSampleDouble(x, y),     // test MP  3
-//                                                                    bt12000Tile.getSampleDouble(x, y),
-//                                                                    bt4050Tile.getSampleDouble(x, y));
-
-                fillMeasureOutputArray(nCloudArray[0], nNoCloudArray[0], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_NEW_2:
-                measure = ModisMeasures.newMeasureBT11(bt3700Tile.getSampleDouble(x, y),
-                        bt7300Tile.getSampleDouble(x, y),
-                        bt8600Tile.getSampleDouble(x, y),
-                        bt11000Tile.getSampleDouble(x, y),
-                        isSampleLand(surfaceTypeTile, x, y), isSampleNight(daytimeTile, x, y));
-                fillMeasureOutputArray(nCloudArray[1], nNoCloudArray[1], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_NEW_3:
-                measure = ModisMeasures.newMeasureCO2(bt13000Tile.getSampleDouble(x, y),
-                        bt11000Tile.getSampleDouble(x, y));
-                fillMeasureOutputArray(nCloudArray[2], nNoCloudArray[2], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_NEW_4:
-                measure = ModisMeasures.newMeasureBT37minusBT87Deserts(bt3700Tile.getSampleDouble(x, y),
-                        bt8600Tile.getSampleDouble(x, y), isSampleNight(daytimeTile, x, y));
-                fillMeasureOutputArray(nCloudArray[3], nNoCloudArray[3], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_NEW_5:
-                measure = ModisMeasures.newMeasurePositiveBT37minusBT11Day06Glint(bt3700Tile.getSampleDouble(x, y),
-                        bt11000Tile.getSampleDouble(x, y),
-                        rho600Tile.getSampleDouble(x, y));
-                fillMeasureOutputArray(nCloudArray[4], nNoCloudArray[4], y, x, measure);
-                break;
-            case MetImageConstants.MEASURE_NEW_6:
-                measure = ModisMeasures.newMeasureO2Absorption(cloudHeightTile.getSampleInt(x, y));
-                fillMeasureOutputArray(nCloudArray[5], nNoCloudArray[5], y, x, measure);
-                break;
-
-            default:
-                throw new OperatorException("invalid measure ID " + measureId + " - cannot proceed.");
-        }
-        return measure;
+        // the interpolated outer borders are of float precision - make sure that all samples are binned
+        binBorders[0] = min;
+        binBorders[binBorders.length - 1] = max;
+        return binBorders;
     }
 
-    private void fillMeasureOutputArray(double[][] cloudArray, double[][] noCloudArray, int y, int x, double measure) {
-        if (isSampleCloud(surfaceTypeTile, x, y)) {
-            cloudArray[x][y] = measure;
-        } else if (isSampleNoCloud(surfaceTypeTile, x, y)) {
-            noCloudArray[x][y] = measure;
+    private double getDistinctionSkill(DensityHistogram cloudHisto, DensityHistogram noCloudHisto,
+                                       int numCloud, int numNoCloud,
+                                       String measureName, FilterCombination combination) {
+        MetImageMetrics.Stopwatch stopwatch = metrics.start();
+        double distSkill;
+        if (skillIntegration.equals("QUADRATURE")) {
+            distSkill = DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(noCloudHisto,
+                    cloudHisto,
+                    numNoCloud,
+                    numCloud);
+        } else {
+            distSkill = DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudHisto,
+                    cloudHisto,
+                    numNoCloud,
+                    numCloud);
         }
-    }
+        metrics.stop(stopwatch, MetImageMetrics.Phase.SKILL_INTEGRATION, combination, measureName);
 
-    private double getMeasureHeritage7(double bt11000Sample3x3) {
-        return ModisMeasures.heritageMeasureUniformity(bt11000Sample3x3);
-    }
+        if (writeJsonFiles) {
+            stopwatch = metrics.start();
+            if (archiveWriter != null) {
+                archiveWriter.add(combination, measureName, cloudHisto, noCloudHisto);
+            } else {
+                writeHistogramsAsJson(combination, measureName, MetImageUtils.getHistogramsAsJson(cloudHisto, noCloudHisto));
+            }
+            metrics.stop(stopwatch, MetImageMetrics.Phase.JSON_OUTPUT, combination, measureName);
+        }
 
-    private double getMeasureNew7(double bt11000Sigma3x3, double diffBt12Bt3700Sigma3x3, double rho600Sigma3x3,
-                                  int y, int x) {
-        return ModisMeasures.newMeasureUniformityTwoChannels(bt11000Sigma3x3,
-                diffBt12Bt3700Sigma3x3,
-                rho600Sigma3x3,
-                isSampleNight(daytimeTile, x, y));
+        return distSkill;
     }
 
-    private double getTskin(int x, int y) {
-        final float lat = latitudeTile.getSampleFloat(x, y);
-        final float lon = longitudeTile.getSampleFloat(x, y);
-        final GeoCoding tskinGeoCoding = tskinProduct.getGeoCoding();
-        final PixelPos pixelPos = tskinGeoCoding.getPixelPos(new GeoPos(lat, lon), null);
-        int px = (int) pixelPos.getX();
-        px = Math.min(px, tskinProduct.getSceneRasterWidth() - 1);
-        int py = (int) pixelPos.getY();
-        py = Math.min(py, tskinProduct.getSceneRasterHeight() - 1);
-        return tskinTile.getSampleDouble(px, py);
+    // hands the JSON histograms over to the output writer
+    private void writeHistogramsAsJson(FilterCombination combination, String measureName, String json) {
+        final File file = MetImageUtils.getHistogramsJsonFile(outputJSONDirectory.getAbsolutePath(),
+                combination.getDaytime(), combination.getNonCloudySurface(), combination.getCloudtype(), measureName);
+        System.out.println("Writing JSON histograms to file '" + file.getAbsolutePath() + "'.");
+        outputWriter.writeFile(file, json);
     }
 
-    private boolean isSampleCloud(Tile surfaceTile, int x, int y) {
-        return surfaceTile.getSampleInt(x, y) == 0 || isSampleSemitransparentCloud(surfaceTile, x, y);
-    }
+    // computes the distinction skill of a measure without materializing the samples: a first pass over the
+    // selected samples provides their number and range, a second pass bins them
+    private MeasureSkill getStreamedMeasureSkill(int measureId, FilterCombination combination) {
+        final ModisSample sample = createModisSample(measureId);
+        final double[] measures = measurePlanes.getMeasures(measureId);
 
-    private boolean isSampleSemitransparentCloud(Tile surfaceTile, int x, int y) {
-        return surfaceTile.getSampleInt(x, y) == 1;
-    }
+        MetImageMetrics.Stopwatch stopwatch = metrics.start();
+        final BitSet cloudSamples = classIndex.getCloudSamples(combination);
+        final BitSet noCloudSamples = classIndex.getNoCloudSamples(combination);
 
-    private boolean isSampleNoCloud(Tile surfaceTile, int x, int y) {
-        return (surfaceTile.getSampleInt(x, y) >= 2 && surfaceTile.getSampleInt(x, y) <= 4);
-    }
+        final SampleRange cloudRange = getSampleRange(measures, cloudSamples);
+        final SampleRange noCloudRange = getSampleRange(measures, noCloudSamples);
+        final int numCloud = cloudRange.count;
+        final int numNoCloud = noCloudRange.count;
+        final MeasureRejections rejections =
+                MeasureRejections.count(measurePlanes.getCutOffSamples(measureId), cloudSamples, noCloudSamples);
+        metrics.stop(stopwatch, MetImageMetrics.Phase.SAMPLE_PARTITIONING, combination, sample.getMeasureName());
 
-    private boolean isSampleOcean(Tile surfaceTile, int x, int y) {
-        return surfaceTile.getSampleInt(x, y) == 2 || surfaceTile.getSampleInt(x, y) == 5;
-    }
+        if (numCloud == 0 || numNoCloud == 0) {
+            System.out.println("MeasureID '" + measureId +
+                    "' : One or both cloud/noCloud sample arrays empty - cannot compute distinction skill.");
+            return new MeasureSkill(measureId, numCloud, numNoCloud, Double.NaN, rejections);
+        }
+        if (numCloud < MetImageConstants.MIN_SAMPLES_PER_HISTOGRAM ||
+                numNoCloud < MetImageConstants.MIN_SAMPLES_PER_HISTOGRAM) {
+            System.out.println("MeasureID '" + measureId +
+                    "' : One or both cloud/noCloud sample arrays too small - cannot compute distinction skill.");
+            return new MeasureSkill(measureId, numCloud, numNoCloud, Double.NaN, rejections);
+        }
 
-    private boolean isSampleLand(Tile surfaceTile, int x, int y) {
-        return surfaceTile.getSampleInt(x, y) == 3 || surfaceTile.getSampleInt(x, y) == 6;
+        final double min = Math.min(cloudRange.min, noCloudRange.min);
+        final double max = Math.max(cloudRange.max, noCloudRange.max);
+        final DensityHistogram[] histograms = skillHistograms.get();
+        final DensityHistogram cloudHisto = histograms[0];
+        final DensityHistogram noCloudHisto = histograms[1];
+        stopwatch = metrics.start();
+        aggregateStreamedHistogram(cloudHisto, measures, cloudSamples, min, max);
+        aggregateStreamedHistogram(noCloudHisto, measures, noCloudSamples, min, max);
+        metrics.stop(stopwatch, MetImageMetrics.Phase.HISTOGRAM_BUILD, combination, sample.getMeasureName());
+
+        final double distSkill = getDistinctionSkill(cloudHisto, noCloudHisto, numCloud, numNoCloud,
+                sample.getMeasureName(), combination);
+        return new MeasureSkill(measureId, numCloud, numNoCloud, distSkill, rejections);
     }
 
-    private boolean isSampleIce(Tile surfaceTile, int x, int y) {
-        return surfaceTile.getSampleInt(x, y) == 4 || surfaceTile.getSampleInt(x, y) == 7;
+    private static SampleRange getSampleRange(double[] measures, BitSet samples) {
+        final SampleRange range = new SampleRange();
+        for (int k = samples.nextSetBit(0); k >= 0; k = samples.nextSetBit(k + 1)) {
+            final double value = measures[k];
+            if (!Double.isNaN(value)) {
+                if (range.count == 0 || value < range.min) {
+                    range.min = value;
+                }
+                if (range.count == 0 || value > range.max) {
+                    range.max = value;
+                }
+                range.count++;
+            }
+        }
+        return range;
     }
 
-    private boolean isSampleDay(Tile daytimeTile, int x, int y) {
-        return daytimeTile.getSampleInt(x, y) == 1;
+    private void aggregateStreamedHistogram(DensityHistogram histo, double[] measures, BitSet samples,
+                                            double min, double max) {
+        histo.resetEqualBins(numberOfBins, min, max);
+        for (int k = samples.nextSetBit(0); k >= 0; k = samples.nextSetBit(k + 1)) {
+            histo.add(measures[k]);
+        }
+        histo.computeDensityFunctions();
     }
 
-    private boolean isSampleNight(Tile daytimeTile, int x, int y) {
-        return daytimeTile.getSampleInt(x, y) == 2;
-    }
+    // provides an object holding cloudy and non-cloudy arrays of a measure with given ID
+    private ModisSample getModisSample(int measureId, FilterCombination combination) {
+        final ModisSample sample = createModisSample(measureId);
+        final MetImageMetrics.Stopwatch stopwatch = metrics.start();
+
+        final ModisSampleBuffer[] buffers = sampleBuffers.get();
+        final ModisSampleBuffer cloudSampleBuffer = buffers[0];
+        final ModisSampleBuffer noCloudSampleBuffer = buffers[1];
+        cloudSampleBuffer.reset();
+        noCloudSampleBuffer.reset();
+
+        final BitSet cloudSamples = classIndex.getCloudSamples(combination);
+        final BitSet noCloudSamples = classIndex.getNoCloudSamples(combination);
+
+        final double[] measures = measurePlanes.getMeasures(measureId);
+        for (int k = cloudSamples.nextSetBit(0); k >= 0; k = cloudSamples.nextSetBit(k + 1)) {
+            if (!Double.isNaN(measures[k])) {
+                cloudSampleBuffer.add(measures[k]);
+            }
+        }
+        for (int k = noCloudSamples.nextSetBit(0); k >= 0; k = noCloudSamples.nextSetBit(k + 1)) {
+            if (!Double.isNaN(measures[k])) {
+                noCloudSampleBuffer.add(measures[k]);
+            }
+        }
 
-    private boolean isSampleTwilight(Tile daytimeTile, int x, int y) {
-        return daytimeTile.getSampleInt(x, y) == 3;
-    }
+        sample.setCloudSamples(cloudSampleBuffer);
+        sample.setNoCloudSamples(noCloudSampleBuffer);
+        sample.setRejections(MeasureRejections.count(measurePlanes.getCutOffSamples(measureId),
+                                                     cloudSamples, noCloudSamples));
+        metrics.stop(stopwatch, MetImageMetrics.Phase.SAMPLE_PARTITIONING, combination, sample.getMeasureName());
 
-    private boolean isSampleLowCloud(Tile cloudHeightTile, int x, int y) {
-        return cloudHeightTile.getSampleInt(x, y) == 1;
+        return sample;
     }
 
-    private boolean isSampleMidlevelCloud(Tile cloudHeightTile, int x, int y) {
-        return cloudHeightTile.getSampleInt(x, y) == 2;
+    private ModisSample createModisSample(int measureId) {
+        try {
+            return new ModisSample(measureId);
+        } catch (IllegalArgumentException e) {
+            throw new OperatorException("Found invalid measureId " + measureId + " - cannot continue.");
+        }
     }
 
-    private boolean isSampleHighCloud(Tile cloudHeightTile, int x, int y) {
-        return cloudHeightTile.getSampleInt(x, y) == 3;
+    // number and value range of the valid samples of a selection
+    private static class SampleRange {
+        int count;
+        double min;
+        double max;
     }
 
     public static class Spi extends OperatorSpi {
@@ -0,0 +1,169 @@
+package org.esa.beam.metimage.operator;
+
+import java.util.BitSet;
+
+/**
+ * Bitmap index over the class bands (DAY_TIME_ID, PIXEL_SURFACE_TYPE_ID, CLOUD_HEIGHT_ID) of the sampled pixels.
+ * For each class value there is one bit set over the sample numbers, so that the selection of a filter
+ * combination reduces to a few word-wise AND/OR operations instead of evaluating the predicates per pixel.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class ModisClassIndex {
+
+    // PIXEL_SURFACE_TYPE_ID values of cloudy (incl. semitransparent) and non-cloudy samples
+    public static final int[] CLOUD_SURFACE_TYPES = {0, 1};
+    public static final int[] NO_CLOUD_SURFACE_TYPES = {2, 3, 4};
+
+    private final int numSamples;
+    private final BitSet[] daytimeSets;
+    private final BitSet[] surfaceTypeSets;
+    private final BitSet[] cloudHeightSets;
+
+    public ModisClassIndex(ModisMeasurePlanes planes) {
+        numSamples = planes.getNumSamples();
+        daytimeSets = createClassSets(planes.getDaytime(), numSamples);
+        surfaceTypeSets = createClassSets(planes.getSurfaceType(), numSamples);
+        cloudHeightSets = createClassSets(planes.getCloudHeight(), numSamples);
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @return BitSet - a new set containing all samples
+     */
+    public BitSet getAllSamples() {
+        final BitSet all = new BitSet(numSamples);
+        all.set(0, numSamples);
+        return all;
+    }
+
+    /**
+     * @param daytimeIds - the DAY_TIME_ID values
+     * @return BitSet - a new set containing the samples with one of the given values
+     */
+    public BitSet getDaytimeSamples(int... daytimeIds) {
+        return getSamples(daytimeSets, daytimeIds);
+    }
+
+    /**
+     * @param surfaceTypeIds - the PIXEL_SURFACE_TYPE_ID values
+     * @return BitSet - a new set containing the samples with one of the given values
+     */
+    public BitSet getSurfaceTypeSamples(int... surfaceTypeIds) {
+        return getSamples(surfaceTypeSets, surfaceTypeIds);
+    }
+
+    /**
+     * @param cloudHeightIds - the CLOUD_HEIGHT_ID values
+     * @return BitSet - a new set containing the samples with one of the given values
+     */
+    public BitSet getCloudHeightSamples(int... cloudHeightIds) {
+        return getSamples(cloudHeightSets, cloudHeightIds);
+    }
+
+    /**
+     * @param combination - the filter combination
+     * @return BitSet - a new set containing the cloudy samples passing the filters of the combination
+     */
+    public BitSet getCloudSamples(FilterCombination combination) {
+        final BitSet cloudSamples = getSurfaceTypeSamples(CLOUD_SURFACE_TYPES);
+        cloudSamples.and(getSelectedSamples(combination));
+        return cloudSamples;
+    }
+
+    /**
+     * @param combination - the filter combination
+     * @return BitSet - a new set containing the non-cloudy samples passing the filters of the combination
+     */
+    public BitSet getNoCloudSamples(FilterCombination combination) {
+        final BitSet noCloudSamples = getSurfaceTypeSamples(NO_CLOUD_SURFACE_TYPES);
+        noCloudSamples.and(getSelectedSamples(combination));
+        return noCloudSamples;
+    }
+
+    /**
+     * Provides the samples passing the daytime, surface and cloud type filters of a combination.
+     *
+     * @param combination - the filter combination
+     * @return BitSet - a new set containing the selected samples
+     */
+    public BitSet getSelectedSamples(FilterCombination combination) {
+        final String daytime = combination.getDaytime();
+        final String nonCloudySurface = combination.getNonCloudySurface();
+        final String cloudtype = combination.getCloudtype();
+
+        final BitSet selected = getAllSamples();
+
+        if (daytime.equals("DAY")) {
+            selected.and(getDaytimeSamples(1));
+        } else if (daytime.equals("NIGHT")) {
+            selected.and(getDaytimeSamples(2));
+        } else if (daytime.equals("TWILIGHT")) {
+            selected.and(getDaytimeSamples(3));
+        } else if (!daytime.equals("ALL")) {
+            selected.clear();
+        }
+
+        if (!nonCloudySurface.equals("ALL")) {
+            // we have to let the clouds pass
+            final BitSet surfaceOK = getSurfaceTypeSamples(CLOUD_SURFACE_TYPES);
+            if (nonCloudySurface.equals("LAND")) {
+                surfaceOK.or(getSurfaceTypeSamples(3, 6));
+            } else if (nonCloudySurface.equals("SEA")) {
+                surfaceOK.or(getSurfaceTypeSamples(2, 5));
+            } else if (nonCloudySurface.equals("ICE")) {
+                surfaceOK.or(getSurfaceTypeSamples(4, 7));
+            }
+            selected.and(surfaceOK);
+        }
+
+        if (!cloudtype.equals("ALL")) {
+            // we have to let the non-clouds pass
+            final BitSet cloudtypeOK = getAllSamples();
+            cloudtypeOK.andNot(getSurfaceTypeSamples(CLOUD_SURFACE_TYPES));
+            if (cloudtype.equals("LOW")) {
+                cloudtypeOK.or(getCloudHeightSamples(1));
+            } else if (cloudtype.equals("MIDLEVEL")) {
+                cloudtypeOK.or(getCloudHeightSamples(2));
+            } else if (cloudtype.equals("HIGH")) {
+                cloudtypeOK.or(getCloudHeightSamples(3));
+            } else if (cloudtype.equals("SEMITRANSPARENT")) {
+                cloudtypeOK.or(getSurfaceTypeSamples(1));
+            }
+            selected.and(cloudtypeOK);
+        }
+
+        return selected;
+    }
+
+    private BitSet getSamples(BitSet[] classSets, int[] classValues) {
+        final BitSet samples = new BitSet(numSamples);
+        for (int classValue : classValues) {
+            if (classValue >= 0 && classValue < classSets.length) {
+                samples.or(classSets[classValue]);
+            }
+        }
+        return samples;
+    }
+
+    private static BitSet[] createClassSets(int[] classCodes, int numSamples) {
+        int maxValue = -1;
+        for (int k = 0; k < numSamples; k++) {
+            maxValue = Math.max(maxValue, classCodes[k]);
+        }
+        final BitSet[] classSets = new BitSet[maxValue + 1];
+        for (int i = 0; i < classSets.length; i++) {
+            classSets[i] = new BitSet(numSamples);
+        }
+        for (int k = 0; k < numSamples; k++) {
+            final int classValue = classCodes[k];
+            if (classValue >= 0) {
+                classSets[classValue].set(k);
+            }
+        }
+        return classSets;
+    }
+}
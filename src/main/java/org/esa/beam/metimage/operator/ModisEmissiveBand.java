@@ -0,0 +1,100 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+
+/**
+ * Precomputed constants of the MODIS emissive bands 20..36 for the conversion of radiances into
+ * brightness temperatures, so that the Planck constants and wavelength powers are not evaluated per sample.
+ * The conversion performs the same floating point operations in the same order as before, thus the
+ * temperatures are bit-identical.
+ *
+ * @author M. Zuehlke, O. Danne
+ */
+public class ModisEmissiveBand {
+
+    private static final int FIRST_BAND_NUMBER = 20;
+
+    private static final double C1 = 2.0 * MetImageConstants.PLANCK_CONSTANT *
+            Math.pow(MetImageConstants.VACUUM_LIGHT_SPEED, 2.0);
+
+    private static final double C2 = MetImageConstants.PLANCK_CONSTANT * MetImageConstants.VACUUM_LIGHT_SPEED /
+            MetImageConstants.BOLTZMANN_CONSTANT;
+
+    private static final ModisEmissiveBand[] BANDS = createBands();
+
+    private final int bandNumber;
+    private final double wvlMetres;
+    private final double wvlMetresPow5;
+    private final double tci;
+    private final double tcs;
+
+    private ModisEmissiveBand(int bandNumber) {
+        final int wvlIndex = bandNumber - FIRST_BAND_NUMBER;
+        this.bandNumber = bandNumber;
+        // use metres in units:
+        wvlMetres = MetImageConstants.MODIS_EMISSIVE_WAVELENGTHS[wvlIndex] / 1.E9;  // input is in microns!
+        wvlMetresPow5 = Math.pow(wvlMetres, 5.0);
+        tci = MetImageConstants.TCI[wvlIndex];
+        tcs = MetImageConstants.TCS[wvlIndex];
+    }
+
+    /**
+     * Provides the descriptor of an emissive band.
+     *
+     * @param emissiveBandNumber - the MODIS band number (20..36)
+     * @return ModisEmissiveBand - the band descriptor
+     */
+    public static ModisEmissiveBand getBand(int emissiveBandNumber) {
+        return BANDS[emissiveBandNumber - FIRST_BAND_NUMBER];
+    }
+
+    public int getBandNumber() {
+        return bandNumber;
+    }
+
+    /**
+     * Converts a radiance into a brightness temperature.
+     *
+     * @param radiance - the radiance (W/(m2 sr um))
+     * @return double - the brightness temperature (K)
+     */
+    public double convertRadianceToTemperature(double radiance) {
+        final double radMetres = radiance * 1.E6;
+        final double temperature = C2 / (wvlMetres * Math.log(C1 / (radMetres * wvlMetresPow5) + 1.0));
+        return (temperature - tci) / tcs;
+    }
+
+    /**
+     * Converts an array of radiances into brightness temperatures in one loop.
+     *
+     * @param radiances    - the radiances (W/(m2 sr um))
+     * @param temperatures - the array receiving the brightness temperatures (K), at least as long as radiances
+     */
+    public void convertRadiancesToTemperatures(double[] radiances, double[] temperatures) {
+        for (int i = 0; i < radiances.length; i++) {
+            final double radMetres = radiances[i] * 1.E6;
+            final double temperature = C2 / (wvlMetres * Math.log(C1 / (radMetres * wvlMetresPow5) + 1.0));
+            temperatures[i] = (temperature - tci) / tcs;
+        }
+    }
+
+    /**
+     * Converts a brightness temperature into a radiance (inverse of {@link #convertRadianceToTemperature}).
+     *
+     * @param temperature - the brightness temperature (K)
+     * @return double - the radiance (W/(m2 sr um))
+     */
+    public double convertTemperatureToRadiance(double temperature) {
+        final double planckTemperature = temperature * tcs + tci;
+        final double radMetres = C1 / (wvlMetresPow5 * (Math.exp(C2 / (wvlMetres * planckTemperature)) - 1.0));
+        return radMetres / 1.E6;
+    }
+
+    private static ModisEmissiveBand[] createBands() {
+        final ModisEmissiveBand[] bands = new ModisEmissiveBand[MetImageConstants.MODIS_EMISSIVE_WAVELENGTHS.length];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = new ModisEmissiveBand(FIRST_BAND_NUMBER + i);
+        }
+        return bands;
+    }
+}
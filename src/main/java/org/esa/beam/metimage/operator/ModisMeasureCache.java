@@ -0,0 +1,194 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.awt.*;
+import java.io.*;
+import java.util.BitSet;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * On-disk cache of the {@link ModisMeasurePlanes} of scenes, so that re-runs differing only in the histogram
+ * or skill parameters do not read the source product and evaluate the measures again.
+ * <p/>
+ * The cache key identifies the source product (file path, size and modification time, raster size) and the
+ * evaluation of the measures ({@link #MEASURE_VERSION}, Tskin product). The key is stored in the cache file
+ * and compared on reading, so a stale or foreign file is never used. A cache file is GZIP compressed and holds
+ * (big-endian, as written by DataOutputStream):
+ * <ul>
+ * <li>magic number 'MIMC', format version, cache key</li>
+ * <li>scene width and height, number of measures</li>
+ * <li>the values of each measure at all sampled pixels, followed by the number and the sample numbers of
+ * its cut off samples</li>
+ * <li>DAY_TIME_ID, PIXEL_SURFACE_TYPE_ID and CLOUD_HEIGHT_ID at all sampled pixels</li>
+ * </ul>
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class ModisMeasureCache {
+
+    /**
+     * Version of the measure evaluation. Must be incremented whenever the measures, their thresholds or
+     * the class codes change, so that cached measures of an earlier version are not used.
+     */
+    public static final int MEASURE_VERSION = 1;
+
+    private static final int MAGIC = 0x4D494D43;   // 'MIMC'
+    private static final int VERSION = 2;
+    private static final String FILE_EXTENSION = ".mimc";
+
+    private final File directory;
+
+    /**
+     * @param directory - the cache directory, created if necessary
+     */
+    public ModisMeasureCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Provides the cache key of a source product.
+     *
+     * @param sourceProduct - the MODIS CSV product
+     * @return String - the cache key, null if the product has no file location and cannot be cached
+     */
+    public static String createKey(Product sourceProduct) {
+        final File file = sourceProduct.getFileLocation();
+        if (file == null) {
+            return null;
+        }
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|" +
+                sourceProduct.getSceneRasterWidth() + "x" + sourceProduct.getSceneRasterHeight() + "|" +
+                "measures-" + MEASURE_VERSION + "|" +
+                MetImageConstants.TSKIN_DEFAULT_FILE_NAME + ":" + MetImageConstants.TSKIN_DEFAULT_BAND_NAME;
+    }
+
+    /**
+     * Reads the cached measures of a scene.
+     *
+     * @param sceneName - the name of the scene
+     * @param key       - the cache key of the scene
+     * @return ModisMeasurePlanes - the cached measures, null if there are no valid cached measures
+     */
+    public ModisMeasurePlanes read(String sceneName, String key) {
+        final File file = AtomicFileWriter.resolve(getCacheFile(sceneName, key));
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file))));
+            try {
+                return read(in, key);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Ignoring measure cache '" + file + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the measures of a scene to the cache. A failure is reported, but does not abort the processing.
+     *
+     * @param sceneName - the name of the scene
+     * @param key       - the cache key of the scene
+     * @param planes    - the measures of the scene
+     * @param sceneRect - the raster of the scene
+     */
+    public void write(String sceneName, final String key, final ModisMeasurePlanes planes,
+                      final Rectangle sceneRect) {
+        final File file = getCacheFile(sceneName, key);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("cannot create directory '" + directory + "'");
+            }
+            AtomicFileWriter.writeGzipped(file, new AtomicFileWriter.Content() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    ModisMeasureCache.write(out, key, planes, sceneRect);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Unable to write measure cache '" + file + "': " + e.getMessage());
+        }
+    }
+
+    File getCacheFile(String sceneName, String key) {
+        final String baseName = sceneName.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(directory, baseName + "_" + Integer.toHexString(key.hashCode()) + FILE_EXTENSION);
+    }
+
+    static void write(DataOutputStream out, String key, ModisMeasurePlanes planes, Rectangle sceneRect)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(key);
+        out.writeInt(sceneRect.width);
+        out.writeInt(sceneRect.height);
+        final int numMeasures = MetImageConstants.MEASURE_HERITAGE.length + MetImageConstants.MEASURE_NEW.length;
+        out.writeInt(numMeasures);
+        for (int measureId = 1; measureId <= numMeasures; measureId++) {
+            for (double value : planes.getMeasures(measureId)) {
+                out.writeDouble(value);
+            }
+            final BitSet cutOffSamples = planes.getCutOffSamples(measureId);
+            out.writeInt(cutOffSamples.cardinality());
+            for (int k = cutOffSamples.nextSetBit(0); k >= 0; k = cutOffSamples.nextSetBit(k + 1)) {
+                out.writeInt(k);
+            }
+        }
+        writeInts(out, planes.getDaytime());
+        writeInts(out, planes.getSurfaceType());
+        writeInts(out, planes.getCloudHeight());
+    }
+
+    static ModisMeasurePlanes read(DataInputStream in, String key) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a measure cache file");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported measure cache version " + version);
+        }
+        if (!in.readUTF().equals(key)) {
+            throw new IOException("cached measures are out of date");
+        }
+        final int width = in.readInt();
+        final int height = in.readInt();
+        final ModisMeasurePlanes planes = new ModisMeasurePlanes(new Rectangle(width, height));
+        final int numMeasures = in.readInt();
+        if (numMeasures != MetImageConstants.MEASURE_HERITAGE.length + MetImageConstants.MEASURE_NEW.length) {
+            throw new IOException("unexpected number of measures " + numMeasures);
+        }
+        for (int measureId = 1; measureId <= numMeasures; measureId++) {
+            final double[] measures = planes.getMeasures(measureId);
+            for (int k = 0; k < measures.length; k++) {
+                measures[k] = in.readDouble();
+            }
+            final BitSet cutOffSamples = planes.getCutOffSamples(measureId);
+            final int numCutOff = in.readInt();
+            for (int i = 0; i < numCutOff; i++) {
+                cutOffSamples.set(in.readInt());
+            }
+        }
+        readInts(in, planes.getDaytime());
+        readInts(in, planes.getSurfaceType());
+        readInts(in, planes.getCloudHeight());
+        return planes;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void readInts(DataInputStream in, int[] values) throws IOException {
+        for (int k = 0; k < values.length; k++) {
+            values[k] = in.readInt();
+        }
+    }
+}
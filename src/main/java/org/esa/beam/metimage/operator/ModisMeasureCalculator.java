@@ -0,0 +1,369 @@
+package org.esa.beam.metimage.operator;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.awt.*;
+import java.util.BitSet;
+
+/**
+ * Evaluation of all MODIS measures at the sampled pixels of a scene. Holds nothing but the Tskin
+ * collocation, so one instance can be shared by all scenes (and threads) of a run.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class ModisMeasureCalculator {
+
+    private final TskinCollocation tskinCollocation;
+
+    public ModisMeasureCalculator(TskinCollocation tskinCollocation) {
+        this.tskinCollocation = tskinCollocation;
+    }
+
+    /**
+     * Evaluates all measures at the sampled pixels of a scene, reading the source bands stripe by stripe.
+     *
+     * @param operator      - the operator requesting the source tiles
+     * @param sourceProduct - the MODIS CSV product
+     * @param stripeHeight  - the number of rows read at once (0 = whole scene)
+     * @return ModisMeasurePlanes - the measures and class codes of the sampled pixels
+     */
+    public ModisMeasurePlanes computeMeasurePlanes(Operator operator, Product sourceProduct, int stripeHeight) {
+        return computeMeasurePlanes(operator, sourceProduct, stripeHeight, null);
+    }
+
+    /**
+     * Evaluates all measures at the sampled pixels of a scene, reading the source bands stripe by stripe,
+     * and records the time spent in reading the source tiles and in evaluating the measures.
+     *
+     * @param operator      - the operator requesting the source tiles
+     * @param sourceProduct - the MODIS CSV product
+     * @param stripeHeight  - the number of rows read at once (0 = whole scene)
+     * @param metrics       - the metrics of the run, may be null
+     * @return ModisMeasurePlanes - the measures and class codes of the sampled pixels
+     */
+    public ModisMeasurePlanes computeMeasurePlanes(Operator operator, Product sourceProduct, int stripeHeight,
+                                                   MetImageMetrics metrics) {
+        final int width = sourceProduct.getSceneRasterWidth();
+        final int height = sourceProduct.getSceneRasterHeight();
+        final ModisMeasurePlanes planes = new ModisMeasurePlanes(new Rectangle(width, height));
+        final int stripeRows = stripeHeight > 0 ? stripeHeight : height;
+        for (int y = 0; y < height; y += stripeRows) {
+            final int stripeEnd = Math.min(y + stripeRows, height);
+            final int startIndex = y * width;
+            final int endIndex = stripeEnd * width;
+            // the 3x3 windows ending in this stripe may start in the rows above
+            final int haloY = Math.max(0, startIndex - 8) / width;
+            final Rectangle stripeRect = new Rectangle(0, haloY, width, stripeEnd - haloY);
+            MetImageMetrics.Stopwatch stopwatch = metrics != null ? metrics.start() : null;
+            final ModisSceneCache stripeCache = new ModisSceneCache(operator, sourceProduct, stripeRect);
+            if (metrics != null) {
+                metrics.stop(stopwatch, MetImageMetrics.Phase.SOURCE_TILE_LOAD);
+                metrics.increment("sourcePixels", (long) stripeRect.width * stripeRect.height);
+                stopwatch = metrics.start();
+            }
+            computeMeasureStripe(planes, stripeCache, startIndex, endIndex);
+            if (metrics != null) {
+                metrics.stop(stopwatch, MetImageMetrics.Phase.MEASURE_EVALUATION);
+            }
+        }
+        return planes;
+    }
+
+    /**
+     * Evaluates all measures at the sampled pixels of a scene which has already been read completely.
+     *
+     * @param sceneCache - the cache holding the whole scene
+     * @return ModisMeasurePlanes - the measures and class codes of the sampled pixels
+     */
+    public ModisMeasurePlanes computeMeasurePlanes(ModisSceneCache sceneCache) {
+        final Rectangle rectangle = sceneCache.getRectangle();
+        if (rectangle.x != 0 || rectangle.y != 0) {
+            throw new OperatorException("Scene cache does not hold the whole scene - cannot compute measures.");
+        }
+        final ModisMeasurePlanes planes = new ModisMeasurePlanes(rectangle);
+        computeMeasureStripe(planes, sceneCache, 0, sceneCache.getNumPixels());
+        return planes;
+    }
+
+    // evaluates all measures at the samples centered (measure 7: windows ending) in [startIndex, endIndex)
+    private void computeMeasureStripe(ModisMeasurePlanes planes, ModisSceneCache stripeCache,
+                                      int startIndex, int endIndex) {
+        final int offset = stripeCache.getRectangle().y * stripeCache.getRectangle().width;
+        final int[] daytime = planes.getDaytime();
+        final int[] surfaceType = planes.getSurfaceType();
+        final int[] cloudHeight = planes.getCloudHeight();
+        for (int k = ModisMeasurePlanes.getFirstSampleNumber(startIndex); k < planes.getNumSamples(); k++) {
+            final int index = ModisMeasurePlanes.getSampleIndex(k);
+            if (index >= endIndex) {
+                break;
+            }
+            daytime[k] = stripeCache.getDaytime()[index - offset];
+            surfaceType[k] = stripeCache.getSurfaceType()[index - offset];
+            cloudHeight[k] = stripeCache.getCloudHeight()[index - offset];
+        }
+
+        for (int i = 0; i < MetImageConstants.NUM_TESTS; i++) {
+            computeMeasurePlane(planes, stripeCache, MetImageConstants.MEASURE_HERITAGE[i], startIndex, endIndex);
+            computeMeasurePlane(planes, stripeCache, MetImageConstants.MEASURE_NEW[i], startIndex, endIndex);
+        }
+    }
+
+    private void computeMeasurePlane(ModisMeasurePlanes planes, ModisSceneCache stripeCache, int measureId,
+                                     int startIndex, int endIndex) {
+        final double[] measures = planes.getMeasures(measureId);
+        final BitSet cutOffSamples = planes.getCutOffSamples(measureId);
+        final int offset = stripeCache.getRectangle().y * stripeCache.getRectangle().width;
+
+        if (measureId == MetImageConstants.MEASURE_HERITAGE_7 || measureId == MetImageConstants.MEASURE_NEW_7) {
+            // the window of sample k covers the pixels 9k..9k+8
+            for (int k = startIndex / 9; 9 * k + 8 < endIndex; k++) {
+                measures[k] = getMeasure7(measureId, stripeCache, 9 * k - offset);
+                if (Double.isNaN(measures[k]) && isWindowCutOff(measureId, stripeCache, 9 * k - offset)) {
+                    cutOffSamples.set(k);
+                }
+            }
+        } else {
+            for (int k = ModisMeasurePlanes.getFirstSampleNumber(startIndex); k < planes.getNumSamples(); k++) {
+                final int index = ModisMeasurePlanes.getSampleIndex(k);
+                if (index >= endIndex) {
+                    break;
+                }
+                // take the center of the measures over 3x3 pixels
+                measures[k] = getMeasureById(measureId, stripeCache, index - offset);
+                if (Double.isNaN(measures[k]) && isCutOff(measureId, stripeCache, index - offset)) {
+                    cutOffSamples.set(k);
+                }
+            }
+        }
+    }
+
+    // takes the standard deviation of measures over the 3x3 pixels starting at the given cache index
+    private static double getMeasure7(int measureId, ModisSceneCache cache, int windowStart) {
+        final int[] daytime = cache.getDaytime();
+        final double[] rho600 = cache.getRho600();
+        final double[] bt3700 = cache.getBt3700();
+        final double[] bt11000 = cache.getBt11000();
+        final double[] bt12000 = cache.getBt12000();
+        final double[] bt3700Temperature = cache.getBt3700Temperature();
+        final double[] bt11000Temperature = cache.getBt11000Temperature();
+        final double[] bt12000Temperature = cache.getBt12000Temperature();
+
+        SummaryStatistics rho600Stats = new SummaryStatistics();
+        SummaryStatistics bt11000Stats = new SummaryStatistics();
+        SummaryStatistics bt12000Minus3700Stats = new SummaryStatistics();
+        for (int index = windowStart; index < windowStart + 9; index++) {
+            if (measureId == MetImageConstants.MEASURE_HERITAGE_7) {
+                if (bt11000[index] < MetImageConstants.UPPER_LIM_BT11000) {
+                    final double bt11000Value = bt11000Temperature[index];
+                    bt11000Stats.addValue(bt11000Value);
+                }
+            } else {
+                final boolean rho600Valid =
+                        isSampleNight(daytime[index]) || rho600[index] < MetImageConstants.UPPER_LIM_RHO600;
+                if (rho600Valid &&
+                        bt3700[index] < MetImageConstants.UPPER_LIM_BT3700 &&
+                        bt11000[index] < MetImageConstants.UPPER_LIM_BT11000) {
+                    final double rho600Value = rho600[index];
+                    if (!Double.isNaN(rho600Value)) {
+                        rho600Stats.addValue(rho600Value);
+                    }
+                    final double bt11000Value = bt11000Temperature[index];
+                    if (!Double.isNaN(bt11000Value)) {
+                        bt11000Stats.addValue(bt11000Value);
+                    }
+
+                    if (!Double.isNaN(bt12000[index]) && !Double.isNaN(bt3700[index])) {
+                        final double bt12000Value = bt12000Temperature[index];
+                        final double bt3700Value = bt3700Temperature[index];
+                        bt12000Minus3700Stats.addValue(bt12000Value - bt3700Value);
+                    }
+                }
+            }
+        }
+
+        if (measureId == MetImageConstants.MEASURE_HERITAGE_7) {
+            return getMeasureHeritage7(bt11000Stats.getStandardDeviation());
+        } else {
+            // the window center is the sampled pixel
+            return getMeasureNew7(bt11000Stats.getStandardDeviation(),
+                    bt12000Minus3700Stats.getStandardDeviation(),
+                    rho600Stats.getStandardDeviation(), daytime[windowStart + 4]);
+        }
+    }
+
+    private double getMeasureById(int measureId, ModisSceneCache cache, int index) {
+        final int surfaceType = cache.getSurfaceType()[index];
+        final int daytime = cache.getDaytime()[index];
+
+        double measure;
+        switch (measureId) {
+            case MetImageConstants.MEASURE_HERITAGE_1:
+                measure = ModisMeasures.heritageMeasureBT11(cache.getBt11000()[index], getTskin(cache, index));
+                break;
+            case MetImageConstants.MEASURE_HERITAGE_2:
+                measure = ModisMeasures.heritageMeasureSplitWindow(cache.getBt11000()[index],
+                        cache.getBt12000()[index]);
+                break;
+            case MetImageConstants.MEASURE_HERITAGE_3:
+                measure = ModisMeasures.heritageMeasureNegativeBT37minusBT11Night(cache.getBt3700()[index],
+                        cache.getBt11000()[index],
+                        isSampleNight(daytime));
+                break;
+            case MetImageConstants.MEASURE_HERITAGE_4:
+                measure = ModisMeasures.heritageMeasurePositiveBT37minusBT11NightMixedScene(cache.getBt3700()[index],
+                        cache.getBt12000()[index],
+                        isSampleNight(daytime));
+                break;
+            case MetImageConstants.MEASURE_HERITAGE_5:
+                measure = ModisMeasures.heritageMeasureSolarBrightnessThresholdsOcean(cache.getRho860()[index],
+                        isSampleLand(surfaceType));
+                break;
+            case MetImageConstants.MEASURE_HERITAGE_6:
+                measure = ModisMeasures.heritageMeasureSolarBrightnessThresholdsLand(cache.getRho600()[index],
+                        isSampleOcean(surfaceType));
+                break;
+
+            case MetImageConstants.MEASURE_NEW_1:
+                measure = ModisMeasures.newMeasureR138WaterVapour(cache.getRho1380()[index]);
+
+//                measure = ModisMeasures.newMeasureRhoSB_3_5_7_add(rho469Tile.getSampleDouble(x, y),     // test MP
+//                                                                  rho1240Tile.getSampleDouble(x, y),
+//                                                                  rho2130Tile.getSampleDouble(x, y));
+
+//                measure = ModisMeasures.newMeasureRhoSB_3_5_7_log_multiply(rho469Tile.getSampleDouble(x, y),     // test MP
+//                                                                           rho1240Tile.getSampleDouble(x, y),
+//                                                                           rho2130Tile.getSampleDouble(x, y),
+//                                                                           isSampleDay(daytimeTile, x, y));
+
+//                measure = ModisMeasures.newMeasureRhoSB_1_3_4(rho645Tile.getSampleDouble(x, y),     // test MP  2
+//                                                              rho469Tile.getSampleDouble(x, y),
+//                                                              rho555Tile.getSampleDouble(x, y));
+//
+//                measure = ModisMeasures.newMeasureLogEmiss_25_32_23(bt4515Tile.getSampleDouble(x, y),     // test MP  3
+//                                                                    bt12000Tile.getSampleDouble(x, y),
+//                                                                    bt4050Tile.getSampleDouble(x, y));
+
+                break;
+            case MetImageConstants.MEASURE_NEW_2:
+                measure = ModisMeasures.newMeasureBT11(cache.getBt3700()[index],
+                        cache.getBt7300()[index],
+                        cache.getBt8600()[index],
+                        cache.getBt11000()[index],
+                        isSampleLand(surfaceType), isSampleNight(daytime));
+                break;
+            case MetImageConstants.MEASURE_NEW_3:
+                measure = ModisMeasures.newMeasureCO2(cache.getBt13000()[index],
+                        cache.getBt11000()[index]);
+                break;
+            case MetImageConstants.MEASURE_NEW_4:
+                measure = ModisMeasures.newMeasureBT37minusBT87Deserts(cache.getBt3700()[index],
+                        cache.getBt8600()[index], isSampleNight(daytime));
+                break;
+            case MetImageConstants.MEASURE_NEW_5:
+                measure = ModisMeasures.newMeasurePositiveBT37minusBT11Day06Glint(cache.getBt3700()[index],
+                        cache.getBt11000()[index],
+                        cache.getRho600()[index]);
+                break;
+            case MetImageConstants.MEASURE_NEW_6:
+                measure = ModisMeasures.newMeasureO2Absorption(cache.getCloudHeight()[index]);
+                break;
+
+            default:
+                throw new OperatorException("invalid measure ID " + measureId + " - cannot proceed.");
+        }
+        return measure;
+    }
+
+    // tells whether a NaN measure is due to an input at or above its UPPER_LIM_* cutoff, mirroring the
+    // conditions in ModisMeasures (NaN inputs or measures not applicable to the sample are not cut off)
+    private static boolean isCutOff(int measureId, ModisSceneCache cache, int index) {
+        final int surfaceType = cache.getSurfaceType()[index];
+        switch (measureId) {
+            case MetImageConstants.MEASURE_HERITAGE_1:
+                return cache.getBt11000()[index] >= MetImageConstants.UPPER_LIM_BT11000;
+            case MetImageConstants.MEASURE_HERITAGE_2:
+                return cache.getBt11000()[index] >= MetImageConstants.UPPER_LIM_BT11000 ||
+                        cache.getBt12000()[index] >= MetImageConstants.UPPER_LIM_BT12000;
+            case MetImageConstants.MEASURE_HERITAGE_3:
+                return cache.getBt3700()[index] >= MetImageConstants.UPPER_LIM_BT3700 ||
+                        cache.getBt11000()[index] >= MetImageConstants.UPPER_LIM_BT11000;
+            case MetImageConstants.MEASURE_HERITAGE_4:
+                return cache.getBt3700()[index] >= MetImageConstants.UPPER_LIM_BT3700 ||
+                        cache.getBt12000()[index] >= MetImageConstants.UPPER_LIM_BT12000;
+            case MetImageConstants.MEASURE_HERITAGE_5:
+                return !isSampleLand(surfaceType) && cache.getRho860()[index] >= MetImageConstants.UPPER_LIM_RHO860;
+            case MetImageConstants.MEASURE_HERITAGE_6:
+                return !isSampleOcean(surfaceType) && cache.getRho600()[index] >= MetImageConstants.UPPER_LIM_RHO600;
+            case MetImageConstants.MEASURE_NEW_1:
+                return cache.getRho1380()[index] >= MetImageConstants.UPPER_LIM_RHO1380;
+            case MetImageConstants.MEASURE_NEW_2:
+                if (isSampleLand(surfaceType)) {
+                    return cache.getBt7300()[index] >= MetImageConstants.UPPER_LIM_BT7300 ||
+                            cache.getBt8600()[index] >= MetImageConstants.UPPER_LIM_BT8600;
+                }
+                return cache.getBt7300()[index] >= MetImageConstants.UPPER_LIM_BT7300 ||
+                        cache.getBt11000()[index] >= MetImageConstants.UPPER_LIM_BT11000;
+            case MetImageConstants.MEASURE_NEW_3:
+                return cache.getBt13000()[index] >= MetImageConstants.UPPER_LIM_BT13000 ||
+                        cache.getBt11000()[index] >= MetImageConstants.UPPER_LIM_BT11000;
+            case MetImageConstants.MEASURE_NEW_4:
+                return cache.getBt3700()[index] >= MetImageConstants.UPPER_LIM_BT3700 ||
+                        cache.getBt8600()[index] >= MetImageConstants.UPPER_LIM_BT8600;
+            case MetImageConstants.MEASURE_NEW_5:
+                return cache.getBt3700()[index] >= MetImageConstants.UPPER_LIM_BT3700 ||
+                        cache.getBt11000()[index] >= MetImageConstants.UPPER_LIM_BT11000 ||
+                        cache.getRho600()[index] >= MetImageConstants.UPPER_LIM_RHO600;
+            default:
+                return false;
+        }
+    }
+
+    // tells whether a NaN window measure has lost pixels of its 3x3 window to an UPPER_LIM_* cutoff
+    private static boolean isWindowCutOff(int measureId, ModisSceneCache cache, int windowStart) {
+        for (int index = windowStart; index < windowStart + 9; index++) {
+            if (cache.getBt11000()[index] >= MetImageConstants.UPPER_LIM_BT11000) {
+                return true;
+            }
+            if (measureId == MetImageConstants.MEASURE_NEW_7) {
+                if (cache.getBt3700()[index] >= MetImageConstants.UPPER_LIM_BT3700 ||
+                        (!isSampleNight(cache.getDaytime()[index]) &&
+                                cache.getRho600()[index] >= MetImageConstants.UPPER_LIM_RHO600)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static double getMeasureHeritage7(double bt11000Sample3x3) {
+        return ModisMeasures.heritageMeasureUniformity(bt11000Sample3x3);
+    }
+
+    private static double getMeasureNew7(double bt11000Sigma3x3, double diffBt12Bt3700Sigma3x3, double rho600Sigma3x3,
+                                  int daytime) {
+        return ModisMeasures.newMeasureUniformityTwoChannels(bt11000Sigma3x3,
+                diffBt12Bt3700Sigma3x3,
+                rho600Sigma3x3,
+                isSampleNight(daytime));
+    }
+
+    private double getTskin(ModisSceneCache cache, int index) {
+        return tskinCollocation.getTskin(cache.getLatitude()[index], cache.getLongitude()[index]);
+    }
+
+    private static boolean isSampleOcean(int surfaceType) {
+        return surfaceType == 2 || surfaceType == 5;
+    }
+
+    private static boolean isSampleLand(int surfaceType) {
+        return surfaceType == 3 || surfaceType == 6;
+    }
+
+    private static boolean isSampleNight(int daytime) {
+        return daytime == 2;
+    }
+}
@@ -0,0 +1,128 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Container holding the values of all MODIS measures and the class codes (DAY_TIME_ID, PIXEL_SURFACE_TYPE_ID,
+ * CLOUD_HEIGHT_ID) at the sampled pixels of a scene.
+ * The measures do not depend on the daytime/surface/cloudtype filters, so they are evaluated once
+ * per scene and then only partitioned for each filter combination.
+ * <p/>
+ * A pixel is sampled every 9 pixels in raster order, starting with the 5th pixel (the center of the
+ * first '3x3' window).
+ * <p/>
+ * For each measure, the samples where it is NaN because an input exceeded one of the UPPER_LIM_* cutoffs are
+ * marked, so that these can be told apart from samples where the measure is not applicable.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class ModisMeasurePlanes {
+
+    private final int numSamples;
+    private final double[][] measures;
+    private final BitSet[] cutOffSamples;
+    private final int[] daytime;
+    private final int[] surfaceType;
+    private final int[] cloudHeight;
+
+    public ModisMeasurePlanes(Rectangle sampleRect) {
+        final int numPixels = sampleRect.width * sampleRect.height;
+        numSamples = numPixels > 4 ? (numPixels - 5) / 9 + 1 : 0;
+
+        final int numMeasures = MetImageConstants.MEASURE_HERITAGE.length + MetImageConstants.MEASURE_NEW.length;
+        measures = new double[numMeasures][numSamples];
+        for (double[] measure : measures) {
+            Arrays.fill(measure, Double.NaN);
+        }
+        cutOffSamples = new BitSet[numMeasures];
+        for (int i = 0; i < numMeasures; i++) {
+            cutOffSamples[i] = new BitSet(numSamples);
+        }
+        daytime = new int[numSamples];
+        surfaceType = new int[numSamples];
+        cloudHeight = new int[numSamples];
+    }
+
+    /**
+     * Provides the raster index (relative to the sample rectangle) of the k-th sampled pixel.
+     *
+     * @param k - the sample number
+     * @return int - the raster index
+     */
+    public static int getSampleIndex(int k) {
+        return 9 * k + 4;
+    }
+
+    /**
+     * Provides the number of the first sampled pixel at or after a raster index.
+     *
+     * @param index - the raster index (relative to the sample rectangle)
+     * @return int - the sample number
+     */
+    public static int getFirstSampleNumber(int index) {
+        return index <= 4 ? 0 : (index - 4 + 8) / 9;
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * Provides the sample number of a pixel.
+     *
+     * @param index - the raster index (relative to the sample rectangle)
+     * @return int - the sample number, or -1 if the pixel is not sampled
+     */
+    public int getSampleNumber(int index) {
+        if (index < 4 || (index - 4) % 9 != 0) {
+            return -1;
+        }
+        final int k = (index - 4) / 9;
+        return k < numSamples ? k : -1;
+    }
+
+    /**
+     * Provides the plane of a measure. Samples where the measure could not be evaluated are NaN.
+     *
+     * @param measureId - the measure ID (1..14)
+     * @return double[] - the measure values of all sampled pixels
+     */
+    public double[] getMeasures(int measureId) {
+        return measures[measureId - 1];
+    }
+
+    /**
+     * Provides the samples where a measure is NaN due to an UPPER_LIM_* cutoff of its inputs.
+     *
+     * @param measureId - the measure ID (1..14)
+     * @return BitSet - the cut off samples, to be modified by the measure evaluation only
+     */
+    public BitSet getCutOffSamples(int measureId) {
+        return cutOffSamples[measureId - 1];
+    }
+
+    /**
+     * @return int[] - the DAY_TIME_ID of all sampled pixels
+     */
+    public int[] getDaytime() {
+        return daytime;
+    }
+
+    /**
+     * @return int[] - the PIXEL_SURFACE_TYPE_ID of all sampled pixels
+     */
+    public int[] getSurfaceType() {
+        return surfaceType;
+    }
+
+    /**
+     * @return int[] - the CLOUD_HEIGHT_ID of all sampled pixels
+     */
+    public int[] getCloudHeight() {
+        return cloudHeight;
+    }
+}
@@ -234,22 +234,20 @@ public class ModisMeasures {
 
 
     public static double convertModisEmissiveRadianceToTemperature(double radiance, int emissiveBandNumber) {
+        return ModisEmissiveBand.getBand(emissiveBandNumber).convertRadianceToTemperature(radiance);
+    }
 
-        final int wvlIndex = emissiveBandNumber - 20;
-        final double c1 = 2.0 * MetImageConstants.PLANCK_CONSTANT *
-                Math.pow(MetImageConstants.VACUUM_LIGHT_SPEED, 2.0);
-
-        final double c2 = MetImageConstants.PLANCK_CONSTANT * MetImageConstants.VACUUM_LIGHT_SPEED /
-                MetImageConstants.BOLTZMANN_CONSTANT;
-
-        // use metres in units:
-        final double wvlMetres = MetImageConstants.MODIS_EMISSIVE_WAVELENGTHS[wvlIndex] / 1.E9;  // input is in microns!
-        final double radMetres = radiance * 1.E6;
-
-        double temperature = c2 / (wvlMetres * Math.log(c1 / (radMetres * Math.pow(wvlMetres, 5.0)) + 1.0));
-        temperature = (temperature - MetImageConstants.TCI[wvlIndex]) / MetImageConstants.TCS[wvlIndex];
-
-        return temperature;
+    /**
+     * Converts an array of radiances of an emissive band into brightness temperatures. The results are
+     * the same as those of {@link #convertModisEmissiveRadianceToTemperature} for each element.
+     *
+     * @param radiances          - the radiances (W/(m2 sr um))
+     * @param emissiveBandNumber - the MODIS band number (20..36)
+     * @param temperatures       - the array receiving the brightness temperatures (K)
+     */
+    public static void convertModisEmissiveRadiancesToTemperatures(double[] radiances, int emissiveBandNumber,
+                                                                   double[] temperatures) {
+        ModisEmissiveBand.getBand(emissiveBandNumber).convertRadiancesToTemperatures(radiances, temperatures);
     }
 
 
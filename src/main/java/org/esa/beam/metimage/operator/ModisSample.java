@@ -1,15 +1,16 @@
 package org.esa.beam.metimage.operator;
 
 /**
- * Container holding a MODIS sample with an ID and arrays with 'cloud' and 'noCloud' samples
+ * Container holding a MODIS sample with an ID and buffers with 'cloud' and 'noCloud' samples
  *
  * @author Marco Zuehlke, Olaf Danne
  */
 public class ModisSample {
     private int measureID;
     private String measureName;
-    private double[] cloudSamples;
-    private double[] noCloudSamples;
+    private ModisSampleBuffer cloudSamples;
+    private ModisSampleBuffer noCloudSamples;
+    private MeasureRejections rejections;
 
 
     public ModisSample(int measureID) throws IllegalArgumentException {
@@ -31,22 +32,30 @@ public class ModisSample {
         return measureID;
     }
 
-    public double[] getCloudSamples() {
+    public ModisSampleBuffer getCloudSamples() {
         return cloudSamples;
     }
 
-    public void setCloudSamples(double[] cloudSamples) {
+    public void setCloudSamples(ModisSampleBuffer cloudSamples) {
         this.cloudSamples = cloudSamples;
     }
 
-    public double[] getNoCloudSamples() {
+    public ModisSampleBuffer getNoCloudSamples() {
         return noCloudSamples;
     }
 
-    public void setNoCloudSamples(double[] noCloudSamples) {
+    public void setNoCloudSamples(ModisSampleBuffer noCloudSamples) {
         this.noCloudSamples = noCloudSamples;
     }
 
+    public MeasureRejections getRejections() {
+        return rejections;
+    }
+
+    public void setRejections(MeasureRejections rejections) {
+        this.rejections = rejections;
+    }
+
     public String getMeasureName() {
         return measureName;
     }
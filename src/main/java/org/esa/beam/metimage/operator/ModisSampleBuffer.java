@@ -0,0 +1,65 @@
+package org.esa.beam.metimage.operator;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of primitive double samples. The buffer can be reset and refilled, so that the
+ * backing array is reused for all measures and filter combinations instead of collecting boxed values.
+ * Only the first {@link #size()} elements of {@link #getValues()} are valid.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class ModisSampleBuffer {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private double[] values;
+    private int size;
+
+    public ModisSampleBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ModisSampleBuffer(int initialCapacity) {
+        values = new double[Math.max(1, initialCapacity)];
+    }
+
+    public void add(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * values.length);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Empties the buffer, the capacity is kept.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return values[index];
+    }
+
+    /**
+     * @return double[] - the backing array (not a copy), valid up to {@link #size()}
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return double[] - a copy of the valid values
+     */
+    public double[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,206 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.awt.*;
+
+/**
+ * Scene cache holding the MODIS bands required by the MetImage measures as flat primitive arrays.
+ * Each band is read once from its source tile, all arrays are in row-major order relative to the
+ * cached rectangle, so that the measure loops can index them directly instead of going through
+ * Tile.getSampleXXX() for every access.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class ModisSceneCache {
+
+    private final Rectangle rectangle;
+
+    private final int[] surfaceType;
+    private final int[] daytime;
+    private final int[] cloudHeight;
+
+    // lat/lon are only used for the Tskin collocation, which works on float geo-positions
+    private final float[] latitude;
+    private final float[] longitude;
+    // the reflectances and radiances are read as double like Tile.getSampleDouble(), also from float64 bands
+    private final double[] rho600;
+    private final double[] rho860;
+    private final double[] rho1380;
+    private final double[] bt3700;
+    private final double[] bt7300;
+    private final double[] bt8600;
+    private final double[] bt11000;
+    private final double[] bt12000;
+    private final double[] bt13000;
+
+    // brightness temperatures, converted on first access
+    private double[] bt3700Temperature;
+    private double[] bt11000Temperature;
+    private double[] bt12000Temperature;
+
+    /**
+     * Reads the required bands of the given rectangle.
+     *
+     * @param operator      - the operator requesting the source tiles
+     * @param sourceProduct - the MODIS CSV product
+     * @param rectangle     - the rectangle to cache
+     */
+    public ModisSceneCache(Operator operator, Product sourceProduct, Rectangle rectangle) {
+        this.rectangle = rectangle;
+
+        if (sourceProduct.getBand(MetImageConstants.MODIS_CSV_PRODUCT_SURFACETYPE_BAND_NAME) == null) {
+            throw new OperatorException("No cloud cover information available from input product - cannot proceed.");
+        }
+        surfaceType = readInts(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_SURFACETYPE_BAND_NAME);
+        daytime = readInts(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_DAYTIME_BAND_NAME);
+        cloudHeight = readInts(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_CLOUDHEIGHT_BAND_NAME);
+
+        latitude = readFloats(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_LATITUDE_BAND_NAME);
+        longitude = readFloats(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_LONGITUDE_BAND_NAME);
+        rho600 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_RHO600_BAND_NAME);
+        rho860 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_RHO860_BAND_NAME);
+        rho1380 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_RHO1380_BAND_NAME);
+        bt3700 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_BT3700_BAND_NAME);
+        bt7300 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_BT7300_BAND_NAME);
+        bt8600 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_BT8600_BAND_NAME);
+        bt11000 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_BT11000_BAND_NAME);
+        bt12000 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_BT12000_BAND_NAME);
+        bt13000 = readDoubles(operator, sourceProduct, MetImageConstants.MODIS_CSV_PRODUCT_BT13000_BAND_NAME);
+    }
+
+    public Rectangle getRectangle() {
+        return rectangle;
+    }
+
+    public int getNumPixels() {
+        return rectangle.width * rectangle.height;
+    }
+
+    /**
+     * Provides the array index of a pixel given in scene coordinates.
+     *
+     * @param x - the x coordinate
+     * @param y - the y coordinate
+     * @return int - the index
+     */
+    public int getIndex(int x, int y) {
+        return (y - rectangle.y) * rectangle.width + (x - rectangle.x);
+    }
+
+    public int[] getSurfaceType() {
+        return surfaceType;
+    }
+
+    public int[] getDaytime() {
+        return daytime;
+    }
+
+    public int[] getCloudHeight() {
+        return cloudHeight;
+    }
+
+    public float[] getLatitude() {
+        return latitude;
+    }
+
+    public float[] getLongitude() {
+        return longitude;
+    }
+
+    public double[] getRho600() {
+        return rho600;
+    }
+
+    public double[] getRho860() {
+        return rho860;
+    }
+
+    public double[] getRho1380() {
+        return rho1380;
+    }
+
+    public double[] getBt3700() {
+        return bt3700;
+    }
+
+    public double[] getBt7300() {
+        return bt7300;
+    }
+
+    public double[] getBt8600() {
+        return bt8600;
+    }
+
+    public double[] getBt11000() {
+        return bt11000;
+    }
+
+    public double[] getBt12000() {
+        return bt12000;
+    }
+
+    public double[] getBt13000() {
+        return bt13000;
+    }
+
+    /**
+     * @return double[] - the brightness temperatures of BT3700 (band 20), converted in one pass on first access
+     */
+    public double[] getBt3700Temperature() {
+        if (bt3700Temperature == null) {
+            bt3700Temperature = convertToTemperatures(bt3700, 20);
+        }
+        return bt3700Temperature;
+    }
+
+    /**
+     * @return double[] - the brightness temperatures of BT11000 (band 31), converted in one pass on first access
+     */
+    public double[] getBt11000Temperature() {
+        if (bt11000Temperature == null) {
+            bt11000Temperature = convertToTemperatures(bt11000, 31);
+        }
+        return bt11000Temperature;
+    }
+
+    /**
+     * @return double[] - the brightness temperatures of BT12000 (band 32), converted in one pass on first access
+     */
+    public double[] getBt12000Temperature() {
+        if (bt12000Temperature == null) {
+            bt12000Temperature = convertToTemperatures(bt12000, 32);
+        }
+        return bt12000Temperature;
+    }
+
+    private static double[] convertToTemperatures(double[] radiances, int emissiveBandNumber) {
+        final double[] temperatures = new double[radiances.length];
+        ModisMeasures.convertModisEmissiveRadiancesToTemperatures(radiances, emissiveBandNumber, temperatures);
+        return temperatures;
+    }
+
+    private int[] readInts(Operator operator, Product sourceProduct, String bandName) {
+        return operator.getSourceTile(getBand(sourceProduct, bandName), rectangle).getSamplesInt();
+    }
+
+    private float[] readFloats(Operator operator, Product sourceProduct, String bandName) {
+        return operator.getSourceTile(getBand(sourceProduct, bandName), rectangle).getSamplesFloat();
+    }
+
+    private double[] readDoubles(Operator operator, Product sourceProduct, String bandName) {
+        return operator.getSourceTile(getBand(sourceProduct, bandName), rectangle).getSamplesDouble();
+    }
+
+    private static Band getBand(Product sourceProduct, String bandName) {
+        final Band band = sourceProduct.getBand(bandName);
+        if (band == null) {
+            throw new OperatorException("Band '" + bandName + "' missing in input product - cannot proceed.");
+        }
+        return band;
+    }
+}
@@ -0,0 +1,113 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writer of the 'rejections.txt' ASCII table written alongside 'skills.txt': one row per filter combination and
+ * measure, telling how many pixels of the scene are dropped at each stage before the histograms:
+ * <ul>
+ * <li>not sampled: the pixels skipped by the 1-in-9 subsampling</li>
+ * <li>unclassified: samples being neither cloudy nor non-cloudy (e.g. 'probably clear')</li>
+ * <li>filtered out: classified samples not passing the daytime/surface/cloud type filters</li>
+ * <li>cut off: selected samples where the measure is NaN due to an UPPER_LIM_* threshold</li>
+ * <li>invalid: selected samples where the measure is otherwise NaN (not applicable or invalid input)</li>
+ * </ul>
+ * The last column tells whether the valid cloudy or non-cloudy samples are below MIN_SAMPLES_PER_HISTOGRAM.
+ * The rows are written by an {@link AsyncOutputWriter}.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class RejectionFunnelTable {
+
+    public static final String FILE_NAME = "rejections.txt";
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final AsyncOutputWriter outputWriter;
+    private final AsyncOutputWriter.TextFile textFile;
+    private final long numPixels;
+    private final int numSamples;
+    private final int numClassified;
+
+    /**
+     * Creates the table file and writes its header.
+     *
+     * @param outputASCIIDirectory - the directory for the distinction skill output
+     * @param numPixels            - the number of pixels of the scene
+     * @param numSamples           - the number of sampled pixels
+     * @param numClassified        - the number of cloudy and non-cloudy samples
+     * @param outputWriter         - the output writer, to be closed by the caller
+     */
+    public RejectionFunnelTable(File outputASCIIDirectory, long numPixels, int numSamples, int numClassified,
+                                AsyncOutputWriter outputWriter) {
+        this.numPixels = numPixels;
+        this.numSamples = numSamples;
+        this.numClassified = numClassified;
+        this.outputWriter = outputWriter;
+        try {
+            textFile = outputWriter.openTextFile(new File(outputASCIIDirectory + File.separator + FILE_NAME));
+        } catch (IOException e) {
+            throw new OperatorException("Unable to write rejection funnel ASCII file: " + e.getMessage());
+        }
+        outputWriter.append(textFile, "Daytime" + "\t" + "Non-cloudy Surface" + "\t" + "Cloud Type" + "\t" +
+                "Measure" + "\t" + "Pixels" + "\t" + "Not sampled" + "\t" + "Unclassified" + "\t" + "Filtered out" + "\t" +
+                "clouds_selected" + "\t" + "clouds_cut_off" + "\t" + "clouds_invalid" + "\t" + "clouds_valid" + "\t" +
+                "noClouds_selected" + "\t" + "noClouds_cut_off" + "\t" + "noClouds_invalid" + "\t" +
+                "noClouds_valid" + "\t" + "Below minimum" + LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes the rows of the measures of a filter combination.
+     *
+     * @param combination   - the filter combination
+     * @param heritageSkill - the skills of the heritage measures 1..7, with rejections
+     * @param newSkill      - the skills of the new measures 1..7, with rejections
+     */
+    public void writeRows(FilterCombination combination, MeasureSkill[] heritageSkill, MeasureSkill[] newSkill) {
+        final StringBuilder rows = new StringBuilder();
+        for (int i = 1; i <= MetImageConstants.NUM_TESTS; i++) {
+            appendRow(rows, combination, "H" + i, heritageSkill[i - 1]);
+        }
+        for (int i = 1; i <= MetImageConstants.NUM_TESTS; i++) {
+            appendRow(rows, combination, "N" + i, newSkill[i - 1]);
+        }
+        outputWriter.append(textFile, rows.toString());
+    }
+
+    private void appendRow(StringBuilder rows, FilterCombination combination, String measureName, MeasureSkill skill) {
+        final MeasureRejections rejections = skill.getRejections();
+        if (rejections == null) {
+            throw new OperatorException("No rejections recorded for measure " + measureName + ".");
+        }
+        final long numCloudValid = skill.getNumCloudSamples();
+        final long numNoCloudValid = skill.getNumNoCloudSamples();
+        final int numSelected = rejections.getNumCloudSelected() + rejections.getNumNoCloudSelected();
+        rows.append(combination.getDaytime() + "\t" + combination.getNonCloudySurface() + "\t" +
+                combination.getCloudtype() + "\t" + measureName + "\t" +
+                numPixels + "\t" + (numPixels - numSamples) + "\t" + (numSamples - numClassified) + "\t" +
+                (numClassified - numSelected) + "\t" +
+                rejections.getNumCloudSelected() + "\t" + rejections.getNumCloudCutOff() + "\t" +
+                (rejections.getNumCloudSelected() - rejections.getNumCloudCutOff() - numCloudValid) + "\t" +
+                numCloudValid + "\t" +
+                rejections.getNumNoCloudSelected() + "\t" + rejections.getNumNoCloudCutOff() + "\t" +
+                (rejections.getNumNoCloudSelected() - rejections.getNumNoCloudCutOff() - numNoCloudValid) + "\t" +
+                numNoCloudValid + "\t" + getBelowMinimum(numCloudValid, numNoCloudValid)).append(LINE_SEPARATOR);
+    }
+
+    private static String getBelowMinimum(long numCloudValid, long numNoCloudValid) {
+        final boolean cloudBelow = numCloudValid < MetImageConstants.MIN_SAMPLES_PER_HISTOGRAM;
+        final boolean noCloudBelow = numNoCloudValid < MetImageConstants.MIN_SAMPLES_PER_HISTOGRAM;
+        if (cloudBelow && noCloudBelow) {
+            return "both";
+        } else if (cloudBelow) {
+            return "clouds";
+        } else if (noCloudBelow) {
+            return "noClouds";
+        }
+        return "-";
+    }
+}
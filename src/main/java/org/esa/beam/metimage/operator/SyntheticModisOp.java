@@ -0,0 +1,358 @@
+package org.esa.beam.metimage.operator;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.awt.*;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Operator generating synthetic MODIS CSV-like products of any size, with all bands read by
+ * {@link MetImageOp}, for tests and benchmarks without production granules. Written with gpt
+ * (e.g. 'gpt beam.metimage.synthetic -Pwidth=1354 -Pheight=2030 -t granule.dim'), the products can be
+ * processed like MODIS CSV granules.
+ * <p/>
+ * The scene consists of smooth random fields (land/sea, cloud cover, cloud height), so that the class bands
+ * form coherent regions with a realistic mix of the class codes:
+ * <ul>
+ * <li>DAY_TIME_ID: 1 = day, 2 = night, 3 = twilight, separated by a terminator across the swath</li>
+ * <li>PIXEL_SURFACE_TYPE_ID: 0 = cloud, 1 = semitransparent cloud, 2/3/4 = clear sea/land/ice,
+ * 5/6/7 = probably clear sea/land/ice at the cloud edges</li>
+ * <li>CLOUD_HEIGHT_ID: 1 = low, 2 = midlevel, 3 = high cloud, 0 = clear</li>
+ * </ul>
+ * The radiances of the emissive bands are computed from brightness temperatures of the surface or cloud top
+ * (with typical band differences such as the split window effect of thin clouds or the solar component at
+ * 3.7 um by day), the reflectances from typical spectra of sea, vegetation, snow and clouds. All values are
+ * a deterministic function of the pixel position and the seed, so a product is the same for any tiling.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+@OperatorMetadata(alias = "beam.metimage.synthetic", version = "1.0-SNAPSHOT",
+        authors = "Rene Preusker, Olaf Danne, Marco Zuehlke",
+        copyright = "(c) 2013/14 FU Berlin, Brockmann Consult",
+        description = "Operator generating synthetic MODIS CSV-like products for tests and benchmarks.")
+public class SyntheticModisOp extends Operator {
+
+    private static final int NUM_WAVES = 6;
+    // approximate pixel size of MODIS 1km data in degrees latitude
+    private static final double PIXEL_SIZE_DEG = 0.009;
+
+    // reflectance spectra at 469, 555, 645, 860, 1240, 1640, 2130 nm
+    private static final double[] SEA_SPECTRUM = {0.08, 0.05, 0.03, 0.02, 0.01, 0.008, 0.005};
+    private static final double[] LAND_SPECTRUM = {0.05, 0.08, 0.07, 0.30, 0.32, 0.24, 0.14};
+    private static final double[] ICE_SPECTRUM = {0.92, 0.90, 0.86, 0.80, 0.50, 0.08, 0.05};
+    private static final double[] WATER_CLOUD_SPECTRUM = {0.75, 0.75, 0.74, 0.72, 0.66, 0.45, 0.30};
+    private static final double[] ICE_CLOUD_SPECTRUM = {0.60, 0.60, 0.59, 0.58, 0.50, 0.25, 0.15};
+
+    @TargetProduct
+    private Product targetProduct;
+
+    @Parameter(description = "The width of the synthetic scene", interval = "[1,*]", defaultValue = "1354")
+    private int width;
+
+    @Parameter(description = "The height of the synthetic scene", interval = "[1,*]", defaultValue = "2030")
+    private int height;
+
+    @Parameter(description = "The seed of the random scene, different seeds give different scenes",
+            defaultValue = "42")
+    private long seed;
+
+    @Parameter(description = "Approximate fraction of cloudy pixels (including semitransparent clouds)",
+            interval = "[0.0,1.0]", defaultValue = "0.5")
+    private double cloudFraction;
+
+    private double latCenter;
+    private double lonCenter;
+    private double terminatorX;
+    private double terminatorDirection;
+    private double cloudThreshold;
+    private double[][] landWaves;
+    private double[][] iceWaves;
+    private double[][] cloudWaves;
+    private double[][] heightWaves;
+    private double[][] thicknessWaves;
+    private double[][] glintWaves;
+
+    private Band latitudeBand;
+    private Band longitudeBand;
+    private Band surfaceTypeBand;
+    private Band daytimeBand;
+    private Band cloudHeightBand;
+    private Band glintBand;
+    private Band[] reflectanceBands;
+    private Band rho1380Band;
+    private Band[] emissiveBands;
+    private int[] emissiveBandNumbers;
+
+    @Override
+    public void initialize() throws OperatorException {
+        final Random random = new Random(seed);
+        latCenter = -60.0 + 120.0 * random.nextDouble();
+        lonCenter = -180.0 + 360.0 * random.nextDouble();
+        terminatorX = width * random.nextDouble();
+        terminatorDirection = random.nextBoolean() ? 1.0 : -1.0;
+        // the fields are approximately standard normal, so the threshold is the (1 - cloudFraction) quantile
+        final double z = Math.max(1.E-6, Math.min(1.0 - 1.E-6, 1.0 - cloudFraction));
+        cloudThreshold = new NormalDistribution().inverseCumulativeProbability(z);
+        landWaves = createWaves(random, 300.0);
+        iceWaves = createWaves(random, 200.0);
+        cloudWaves = createWaves(random, 80.0);
+        heightWaves = createWaves(random, 60.0);
+        thicknessWaves = createWaves(random, 30.0);
+        glintWaves = createWaves(random, 100.0);
+
+        targetProduct = new Product("SYNTHETIC_MODIS_" + seed, "MODIS_CSV", width, height);
+        latitudeBand = addBand(MetImageConstants.MODIS_CSV_PRODUCT_LATITUDE_BAND_NAME, ProductData.TYPE_FLOAT32);
+        longitudeBand = addBand(MetImageConstants.MODIS_CSV_PRODUCT_LONGITUDE_BAND_NAME, ProductData.TYPE_FLOAT32);
+        surfaceTypeBand = addBand(MetImageConstants.MODIS_CSV_PRODUCT_SURFACETYPE_BAND_NAME, ProductData.TYPE_INT32);
+        daytimeBand = addBand(MetImageConstants.MODIS_CSV_PRODUCT_DAYTIME_BAND_NAME, ProductData.TYPE_INT32);
+        cloudHeightBand = addBand(MetImageConstants.MODIS_CSV_PRODUCT_CLOUDHEIGHT_BAND_NAME, ProductData.TYPE_INT32);
+        glintBand = addBand(MetImageConstants.MODIS_CSV_PRODUCT_GLINT_BAND_NAME, ProductData.TYPE_INT32);
+
+        final String[] reflectanceBandNames = {
+                MetImageConstants.MODIS_CSV_PRODUCT_RHO469_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_RHO555_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_RHO645_BAND_NAME,   // also used as 600nm band
+                MetImageConstants.MODIS_CSV_PRODUCT_RHO860_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_RHO1240_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_RHO1640_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_RHO2130_BAND_NAME
+        };
+        reflectanceBands = new Band[reflectanceBandNames.length];
+        for (int i = 0; i < reflectanceBandNames.length; i++) {
+            reflectanceBands[i] = addBand(reflectanceBandNames[i], ProductData.TYPE_FLOAT32);
+        }
+        rho1380Band = addBand(MetImageConstants.MODIS_CSV_PRODUCT_RHO1380_BAND_NAME, ProductData.TYPE_FLOAT32);
+
+        final String[] emissiveBandNames = {
+                MetImageConstants.MODIS_CSV_PRODUCT_BT3700_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_BT4050_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_BT4515_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_BT7300_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_BT8600_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_BT11000_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_BT12000_BAND_NAME,
+                MetImageConstants.MODIS_CSV_PRODUCT_BT13000_BAND_NAME
+        };
+        emissiveBandNumbers = new int[]{20, 23, 25, 28, 29, 31, 32, 33};
+        emissiveBands = new Band[emissiveBandNames.length];
+        for (int i = 0; i < emissiveBandNames.length; i++) {
+            emissiveBands[i] = addBand(emissiveBandNames[i], ProductData.TYPE_FLOAT32);
+        }
+    }
+
+    @Override
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm)
+            throws OperatorException {
+        final Tile latitudeTile = targetTiles.get(latitudeBand);
+        final Tile longitudeTile = targetTiles.get(longitudeBand);
+        final Tile surfaceTypeTile = targetTiles.get(surfaceTypeBand);
+        final Tile daytimeTile = targetTiles.get(daytimeBand);
+        final Tile cloudHeightTile = targetTiles.get(cloudHeightBand);
+        final Tile glintTile = targetTiles.get(glintBand);
+        final Tile rho1380Tile = targetTiles.get(rho1380Band);
+        final Tile[] reflectanceTiles = new Tile[reflectanceBands.length];
+        for (int i = 0; i < reflectanceBands.length; i++) {
+            reflectanceTiles[i] = targetTiles.get(reflectanceBands[i]);
+        }
+        final Tile[] emissiveTiles = new Tile[emissiveBands.length];
+        for (int i = 0; i < emissiveBands.length; i++) {
+            emissiveTiles[i] = targetTiles.get(emissiveBands[i]);
+        }
+
+        final double[] reflectances = new double[reflectanceBands.length];
+        final double[] temperatures = new double[emissiveBands.length];
+        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
+            checkForCancellation();
+            final double lat = latCenter + (height / 2 - y) * PIXEL_SIZE_DEG;
+            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                double lon = lonCenter + (x - width / 2) * PIXEL_SIZE_DEG / Math.cos(Math.toRadians(lat));
+                lon = lon - 360.0 * Math.floor((lon + 180.0) / 360.0);
+
+                // daytime: twilight zone of 10% of the swath width on each side of the terminator
+                final double sun = terminatorDirection * (x - terminatorX) / (0.1 * width);
+                final int daytime = sun > 1.0 ? 1 : (sun < -1.0 ? 2 : 3);
+                final double illumination = daytime == 1 ? 1.0 : (daytime == 3 ? 0.3 : 0.0);
+
+                // clear surface: 2 = sea, 3 = land, 4 = ice
+                final boolean land = getField(landWaves, x, y) > 0.3;
+                final boolean ice = Math.abs(lat) > 65.0 || getField(iceWaves, x, y) > 2.0;
+                final int clearType = ice ? 4 : (land ? 3 : 2);
+
+                final double cloudiness = getField(cloudWaves, x, y) + 0.2 * (getNoise(x, y, 0) - 0.5);
+                final int surfaceType;
+                if (cloudiness > cloudThreshold + 0.3) {
+                    surfaceType = 0;
+                } else if (cloudiness > cloudThreshold) {
+                    surfaceType = 1;
+                } else if (cloudiness > cloudThreshold - 0.15) {
+                    surfaceType = clearType + 3;
+                } else {
+                    surfaceType = clearType;
+                }
+                final boolean cloudy = surfaceType <= 1;
+                final double heightField = getField(heightWaves, x, y);
+                final int cloudHeight;
+                if (!cloudy) {
+                    cloudHeight = 0;
+                } else if (surfaceType == 1 || heightField > 0.7) {
+                    cloudHeight = 3;
+                } else {
+                    cloudHeight = heightField > -0.5 ? 2 : 1;
+                }
+                final boolean glint = clearType == 2 && !cloudy && daytime == 1 && getField(glintWaves, x, y) > 1.0;
+
+                computeTemperatures(x, y, lat, land, ice, daytime, surfaceType, cloudHeight, glint, temperatures);
+                final double rho1380 = computeReflectances(x, y, illumination, clearType, surfaceType, cloudHeight,
+                                                           glint, reflectances);
+
+                setSample(latitudeTile, x, y, lat);
+                setSample(longitudeTile, x, y, lon);
+                setSample(surfaceTypeTile, x, y, surfaceType);
+                setSample(daytimeTile, x, y, daytime);
+                setSample(cloudHeightTile, x, y, cloudHeight);
+                setSample(glintTile, x, y, glint ? 1 : 0);
+                setSample(rho1380Tile, x, y, rho1380);
+                for (int i = 0; i < reflectanceTiles.length; i++) {
+                    setSample(reflectanceTiles[i], x, y, reflectances[i]);
+                }
+                for (int i = 0; i < emissiveTiles.length; i++) {
+                    final ModisEmissiveBand band = ModisEmissiveBand.getBand(emissiveBandNumbers[i]);
+                    setSample(emissiveTiles[i], x, y, band.convertTemperatureToRadiance(temperatures[i]));
+                }
+            }
+        }
+    }
+
+    // brightness temperatures of the bands 20, 23, 25, 28, 29, 31, 32, 33
+    private void computeTemperatures(int x, int y, double lat, boolean land, boolean ice, int daytime,
+                                     int surfaceType, int cloudHeight, boolean glint, double[] temperatures) {
+        double surfaceT = ice ? 255.0 : 302.0 - 0.4 * Math.abs(lat);
+        if (land && !ice) {
+            surfaceT += daytime == 1 ? 8.0 : (daytime == 2 ? -5.0 : 0.0);
+        }
+        final double cloudT = cloudHeight == 1 ? 280.0 : (cloudHeight == 2 ? 255.0 : 225.0);
+        final double t11;
+        final double splitWindow;
+        if (surfaceType == 0) {
+            t11 = Math.min(surfaceT, cloudT) + 3.0 * (getNoise(x, y, 1) - 0.5);
+            splitWindow = 0.5;
+        } else if (surfaceType == 1) {
+            t11 = 0.5 * (surfaceT + cloudT) + 3.0 * (getNoise(x, y, 1) - 0.5);
+            splitWindow = 3.0;
+        } else {
+            t11 = surfaceT + 1.0 * (getNoise(x, y, 1) - 0.5);
+            splitWindow = 1.0 + (land ? 0.5 : 1.5);
+        }
+        double solar37 = 0.0;
+        if (daytime == 1) {
+            solar37 = surfaceType == 0 && cloudHeight < 3 ? 15.0 : (land ? 5.0 : 2.0);
+            if (glint) {
+                solar37 += 20.0;
+            }
+        } else if (daytime == 2 && surfaceType == 0 && cloudHeight == 1) {
+            solar37 = -2.0;   // low water clouds appear colder at 3.7 um at night
+        }
+        temperatures[0] = t11 + solar37;                   // 3.7 um
+        temperatures[1] = t11 - 2.0;                       // 4.05 um
+        temperatures[2] = 0.8 * t11 + 40.0;                // 4.5 um, CO2 absorption
+        temperatures[3] = 240.0 + 0.1 * (t11 - 250.0);     // 7.3 um, water vapour
+        temperatures[4] = t11 - (land ? 2.0 : 1.0);        // 8.6 um
+        temperatures[5] = t11;                             // 11 um
+        temperatures[6] = t11 - splitWindow;               // 12 um
+        temperatures[7] = 0.85 * t11 + 25.0;               // 13.3 um, CO2 absorption
+        for (int i = 0; i < temperatures.length; i++) {
+            temperatures[i] += 0.6 * (getNoise(x, y, 10 + i) - 0.5);
+        }
+    }
+
+    // reflectances at 469, 555, 645, 860, 1240, 1640, 2130 nm, returns the reflectance at 1380 nm
+    private double computeReflectances(int x, int y, double illumination, int clearType, int surfaceType,
+                                       int cloudHeight, boolean glint, double[] reflectances) {
+        final double[] surfaceSpectrum = clearType == 4 ? ICE_SPECTRUM : (clearType == 3 ? LAND_SPECTRUM : SEA_SPECTRUM);
+        final double[] cloudSpectrum = cloudHeight == 3 ? ICE_CLOUD_SPECTRUM : WATER_CLOUD_SPECTRUM;
+        final double thickness = 0.6 + 0.4 * Math.tanh(getField(thicknessWaves, x, y));
+        final double cloudWeight = surfaceType == 0 ? thickness : (surfaceType == 1 ? 0.3 * thickness : 0.0);
+        for (int i = 0; i < reflectances.length; i++) {
+            double rho = (1.0 - cloudWeight) * surfaceSpectrum[i] + cloudWeight * cloudSpectrum[i];
+            if (glint) {
+                rho += 0.25;
+            }
+            rho *= illumination * (1.0 + 0.06 * (getNoise(x, y, 20 + i) - 0.5));
+            reflectances[i] = rho + 0.002 * getNoise(x, y, 30 + i);
+        }
+        final double rho1380 = cloudHeight == 3 ? 0.15 * cloudWeight / 0.6 : (cloudHeight == 2 ? 0.02 : 0.002);
+        return illumination * rho1380 * (1.0 + 0.1 * (getNoise(x, y, 40) - 0.5)) + 0.001 * getNoise(x, y, 41);
+    }
+
+    private Band addBand(String name, int dataType) {
+        final Band band = new Band(name, dataType, width, height);
+        targetProduct.addBand(band);
+        return band;
+    }
+
+    private static void setSample(Tile tile, int x, int y, double value) {
+        if (tile != null) {
+            tile.setSample(x, y, value);
+        }
+    }
+
+    private static void setSample(Tile tile, int x, int y, int value) {
+        if (tile != null) {
+            tile.setSample(x, y, value);
+        }
+    }
+
+    // plane waves of random direction and phase with wavelengths around the given scale (pixels)
+    private static double[][] createWaves(Random random, double scale) {
+        final double[][] waves = new double[NUM_WAVES][3];
+        for (int i = 0; i < NUM_WAVES; i++) {
+            final double wavelength = scale * (0.5 + random.nextDouble());
+            final double direction = Math.PI * random.nextDouble();
+            waves[i][0] = 2.0 * Math.PI * Math.cos(direction) / wavelength;
+            waves[i][1] = 2.0 * Math.PI * Math.sin(direction) / wavelength;
+            waves[i][2] = 2.0 * Math.PI * random.nextDouble();
+        }
+        return waves;
+    }
+
+    // a smooth random field, approximately standard normal distributed over the scene
+    private static double getField(double[][] waves, int x, int y) {
+        double sum = 0.0;
+        for (double[] wave : waves) {
+            sum += Math.sin(wave[0] * x + wave[1] * y + wave[2]);
+        }
+        return sum / Math.sqrt(0.5 * waves.length);
+    }
+
+    // uniform noise in [0, 1), a hash of pixel position, channel and seed
+    private double getNoise(int x, int y, int channel) {
+        long h = seed * 0x9E3779B97F4A7C15L + x * 0xC2B2AE3D27D4EB4FL + y * 0x165667B19E3779F9L +
+                channel * 0x27D4EB2F165667C5L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (h >>> 11) / (double) (1L << 53);
+    }
+
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(SyntheticModisOp.class);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.*;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.metimage.MetImageConstants;
+
+import java.awt.*;
+import java.io.IOException;
+
+/**
+ * Collocation of MODIS pixels with the Tskin grid. If the Tskin product is a regular lat/lon grid
+ * (longitude depending on x only, latitude on y only, both linearly), the Tskin pixel is computed in
+ * closed form, otherwise the geocoding of the Tskin product is inverted for each position.
+ *
+ * @author Marco Zuehlke, Olaf Danne
+ */
+public class TskinCollocation {
+
+    // max. deviation [deg] of the geocoding from the linear model to be considered a regular grid
+    private static final double REGULAR_GRID_TOLERANCE = 1.0E-4;
+
+    private final GeoCoding geoCoding;
+    private final int width;
+    private final int height;
+    private final double[] tskin;
+
+    private final boolean regularGrid;
+    private double lon0;
+    private double lat0;
+    private double lonStep;
+    private double latStep;
+
+    /**
+     * @param tskinProduct - the Tskin product
+     * @param tskin        - the Tskin samples of the whole Tskin grid, row-major
+     */
+    public TskinCollocation(Product tskinProduct, double[] tskin) {
+        this.geoCoding = tskinProduct.getGeoCoding();
+        this.width = tskinProduct.getSceneRasterWidth();
+        this.height = tskinProduct.getSceneRasterHeight();
+        this.tskin = tskin;
+        regularGrid = initRegularGrid();
+    }
+
+    /**
+     * Reads the Tskin grid of the default Tskin product shipped with the processor.
+     *
+     * @param operator - the operator requesting the Tskin tile
+     * @return TskinCollocation - the collocation with the default Tskin grid
+     */
+    public static TskinCollocation readDefault(Operator operator) {
+        // todo: currently we use Tskin info from single product - define reasonable method to find correct day/night skin temperatures
+        final String tskinPath = TskinCollocation.class.getResource(MetImageConstants.TSKIN_DEFAULT_FILE_NAME).getPath();
+        final Product tskinProduct;
+        try {
+            tskinProduct = ProductIO.readProduct(tskinPath);
+        } catch (IOException e) {
+            throw new OperatorException("Cannot open Tskin file '" + tskinPath + "': " + e.getMessage());
+        }
+
+        final Band tskinBand = tskinProduct.getBand(MetImageConstants.TSKIN_DEFAULT_BAND_NAME);
+        final int tskinWidth = tskinProduct.getSceneRasterWidth();
+        final int tskinHeight = tskinProduct.getSceneRasterHeight();
+        final Tile tskinTile = operator.getSourceTile(tskinBand, new Rectangle(tskinWidth, tskinHeight));
+        return new TskinCollocation(tskinProduct, tskinTile.getSamplesDouble());
+    }
+
+    public boolean isRegularGrid() {
+        return regularGrid;
+    }
+
+    /**
+     * Provides the offset of the Tskin grid cell containing a geographical position.
+     *
+     * @param lat - the latitude
+     * @param lon - the longitude
+     * @return int - the offset in the Tskin grid (row-major)
+     */
+    public int getOffset(float lat, float lon) {
+        float x;
+        float y;
+        if (regularGrid) {
+            // same precision as PixelPos
+            x = (float) ((lon - lon0) / lonStep);
+            y = (float) ((lat - lat0) / latStep);
+        } else {
+            final PixelPos pixelPos = geoCoding.getPixelPos(new GeoPos(lat, lon), null);
+            x = (float) pixelPos.getX();
+            y = (float) pixelPos.getY();
+        }
+        final int px = Math.min((int) x, width - 1);
+        final int py = Math.min((int) y, height - 1);
+        return py * width + px;
+    }
+
+    /**
+     * Provides the Tskin value at a geographical position.
+     *
+     * @param lat - the latitude
+     * @param lon - the longitude
+     * @return double - the skin temperature
+     */
+    public double getTskin(float lat, float lon) {
+        return tskin[getOffset(lat, lon)];
+    }
+
+    private boolean initRegularGrid() {
+        if (geoCoding == null || width < 2 || height < 2) {
+            return false;
+        }
+        final GeoPos upperLeft = geoCoding.getGeoPos(new PixelPos(0, 0), null);
+        final GeoPos upperRight = geoCoding.getGeoPos(new PixelPos(width, 0), null);
+        final GeoPos lowerLeft = geoCoding.getGeoPos(new PixelPos(0, height), null);
+        if (!isValid(upperLeft) || !isValid(upperRight) || !isValid(lowerLeft)) {
+            return false;
+        }
+        lon0 = upperLeft.getLon();
+        lat0 = upperLeft.getLat();
+        lonStep = (upperRight.getLon() - lon0) / width;
+        latStep = (lowerLeft.getLat() - lat0) / height;
+        if (lonStep == 0.0 || latStep == 0.0 || Double.isNaN(lonStep) || Double.isNaN(latStep)) {
+            return false;
+        }
+
+        // verify the linear model on a few probe pixels
+        final int[][] probes = {{width, height}, {width / 2, height / 2}, {1, height - 1}, {width - 1, 1}};
+        for (int[] probe : probes) {
+            final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(probe[0], probe[1]), null);
+            if (!isValid(geoPos) ||
+                    Math.abs(geoPos.getLon() - (lon0 + probe[0] * lonStep)) > REGULAR_GRID_TOLERANCE ||
+                    Math.abs(geoPos.getLat() - (lat0 + probe[1] * latStep)) > REGULAR_GRID_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValid(GeoPos geoPos) {
+        return geoPos != null && !Float.isNaN(geoPos.getLat()) && !Float.isNaN(geoPos.getLon());
+    }
+}
@@ -1,5 +1,6 @@
 package util;
 
+import org.esa.beam.metimage.math.DensityHistogram;
 import org.esa.beam.metimage.math.MetImageHistogram;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -7,6 +8,10 @@ import org.json.simple.JSONObject;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * MetImage utility class
@@ -77,6 +82,15 @@ public class MetImageUtils {
         return dArr;
     }
 
+    public static Double[] getAsDoublesF6(double[] dArr) {
+        Double[] resultArr = new Double[dArr.length];
+        for (int i = 0; i < dArr.length; i++) {
+            final String s = String.format("%6f\t", dArr[i]);
+            resultArr[i] = new Double(s);
+        }
+        return resultArr;
+    }
+
     public static Integer[] getAsIntegers(int[] srcArr) {
         Integer[] dArr = new Integer[srcArr.length];
         for (int i = 0; i < srcArr.length; i++) {
@@ -85,6 +99,81 @@ public class MetImageUtils {
         return dArr;
     }
 
+    public static long[] getAsPrimitiveLongs(int[] srcArr) {
+        long[] lArr = new long[srcArr.length];
+        for (int i = 0; i < srcArr.length; i++) {
+            lArr[i] = srcArr[i];
+        }
+        return lArr;
+    }
+
+
+    /**
+     * Expands input paths to files, in a reproducible order: a directory stands for all files therein,
+     * a file name containing '*' or '?' for all matching files of its directory.
+     *
+     * @param paths - the file, directory or file name pattern paths
+     * @return List<File> - the files
+     * @throws IllegalArgumentException if a plain file path does not exist
+     */
+    public static List<File> expandFilePaths(String[] paths) {
+        List<File> files = new ArrayList<File>();
+        for (String path : paths) {
+            final File file = new File(path);
+            final String name = file.getName();
+            if (file.isDirectory()) {
+                files.addAll(listFiles(file, null));
+            } else if (name.contains("*") || name.contains("?")) {
+                final File dir = file.getAbsoluteFile().getParentFile();
+                files.addAll(listFiles(dir, globToRegex(name)));
+            } else if (file.isFile()) {
+                files.add(file);
+            } else {
+                throw new IllegalArgumentException("File '" + path + "' not found.");
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Converts a file name pattern to a regular expression: '*' matches any and '?' a single character, all other
+     * characters (e.g. '+', '(' or '$' in granule names) match only themselves.
+     *
+     * @param glob - the file name pattern
+     * @return String - the regular expression
+     */
+    public static String globToRegex(String glob) {
+        final StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return regex.toString();
+    }
+
+    private static List<File> listFiles(File dir, String regex) {
+        List<File> files = new ArrayList<File>();
+        final File[] dirFiles = dir.listFiles();
+        if (dirFiles != null) {
+            Arrays.sort(dirFiles);
+            for (File dirFile : dirFiles) {
+                if (dirFile.isFile() && (regex == null || dirFile.getName().matches(regex))) {
+                    files.add(dirFile);
+                }
+            }
+        }
+        return files;
+    }
 
     public static void writeHistogramsAsJson(String jsonDir,
                                              String daytimeString,
@@ -93,6 +182,55 @@ public class MetImageUtils {
                                              String testId,
                                              MetImageHistogram cloudHisto,
                                              MetImageHistogram noCloudHisto) {
+        writeHistogramsAsJson(getHistogramsJsonFile(jsonDir, daytimeString, surfaceString, cloudTypeString, testId),
+                              getHistogramsAsJson(cloudHisto, noCloudHisto));
+    }
+
+    public static void writeHistogramsAsJson(String jsonDir,
+                                             String daytimeString,
+                                             String surfaceString,
+                                             String cloudTypeString,
+                                             String testId,
+                                             DensityHistogram cloudHisto,
+                                             DensityHistogram noCloudHisto) {
+        writeHistogramsAsJson(getHistogramsJsonFile(jsonDir, daytimeString, surfaceString, cloudTypeString, testId),
+                              getHistogramsAsJson(cloudHisto, noCloudHisto));
+    }
+
+    /**
+     * Provides the JSON file of the histograms of a filter combination and measure.
+     *
+     * @param jsonDir         - the directory for the JSON histogram output
+     * @param daytimeString   - the daytime filter
+     * @param surfaceString   - the non-cloudy surface filter
+     * @param cloudTypeString - the cloud type filter
+     * @param testId          - the measure name
+     * @return File - the JSON file
+     */
+    public static File getHistogramsJsonFile(String jsonDir,
+                                             String daytimeString,
+                                             String surfaceString,
+                                             String cloudTypeString,
+                                             String testId) {
+        return new File(jsonDir + File.separator +
+                daytimeString + "_" + surfaceString + "_" + cloudTypeString + "_"
+                + testId + ".json");
+    }
+
+    public static String getHistogramsAsJson(MetImageHistogram cloudHisto, MetImageHistogram noCloudHisto) {
+        return getHistogramsAsJson(getAsDoublesF6(cloudHisto.getEqualBinBorders()),
+                                   getAsPrimitiveLongs(cloudHisto.getBinCounts()),
+                                   getAsPrimitiveLongs(noCloudHisto.getBinCounts()));
+    }
+
+    public static String getHistogramsAsJson(DensityHistogram cloudHisto, DensityHistogram noCloudHisto) {
+        return getHistogramsAsJson(getAsDoublesF6(cloudHisto.getBinBorders()),
+                                   cloudHisto.getBinCounts(), noCloudHisto.getBinCounts());
+    }
+
+    private static String getHistogramsAsJson(Double[] binBordersArray,
+                                              long[] cloudBinCounts,
+                                              long[] noCloudBinCounts) {
 
         // todo: test this method!
 
@@ -101,29 +239,26 @@ public class MetImageUtils {
         JSONArray binBordersJsonArray = new JSONArray();
         JSONArray noCloudHistoJsonArray = new JSONArray();
         JSONArray cloudHistoJsonArray = new JSONArray();
-        final Double[] binBordersArray = getAsDoublesF6(cloudHisto.getEqualBinBorders());
-        final Integer[] noCloudHistoArray = getAsIntegers(noCloudHisto.getBinCounts());
-        final Integer[] cloudHistoArray = getAsIntegers(cloudHisto.getBinCounts());
         for (int i = 0; i < binBordersArray.length; i++) {
             binBordersJsonArray.add(binBordersArray[i]);
         }
         for (int i = 0; i < binBordersArray.length - 1; i++) {
-            noCloudHistoJsonArray.add(noCloudHistoArray[i]);
-            cloudHistoJsonArray.add(cloudHistoArray[i]);
+            noCloudHistoJsonArray.add(noCloudBinCounts[i]);
+            cloudHistoJsonArray.add(cloudBinCounts[i]);
         }
         histoObj.put("h_free", noCloudHistoJsonArray);
         histoObj.put("h_cloud", cloudHistoJsonArray);
         histoObj.put("bin_boundaries", binBordersJsonArray);
+        return histoObj.toJSONString();
+    }
 
+    private static void writeHistogramsAsJson(File file, String json) {
         // Writing to file
-        File file = new File(jsonDir + File.separator +
-                daytimeString + "_" + surfaceString + "_" + cloudTypeString + "_"
-                + testId + ".json");
         try {
             file.createNewFile();
             FileWriter fileWriter = new FileWriter(file);
             System.out.println("Writing JSON histograms to file '" + file.getAbsolutePath() + "'.");
-            fileWriter.write(histoObj.toJSONString());
+            fileWriter.write(json);
             fileWriter.flush();
             fileWriter.close();
 
@@ -0,0 +1,71 @@
+package org.esa.beam.metimage.math;
+
+import org.esa.beam.metimage.MetImageConstants;
+import org.junit.Test;
+import util.MetImageUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DensityHistogramTest {
+
+    @Test
+    public void testEqualBins() {
+        DensityHistogram histo = new DensityHistogram(MetImageConstants.ALPHA);
+        histo.resetEqualBins(4, 0.0, 4.0);
+        histo.aggregate(new double[]{0.0, 0.5, 1.0, 2.5, 3.99, 4.0, 4.5, -0.1, Double.NaN, 99.0}, 7);
+
+        assertEquals(4, histo.getNumBins());
+        assertArrayEquals(new long[]{2, 1, 1, 2}, histo.getBinCounts());
+        assertArrayEquals(new double[]{0.0, 1.0, 2.0, 3.0, 4.0}, histo.getBinBorders(), 1.E-12);
+    }
+
+    @Test
+    public void testUnequalBins() {
+        DensityHistogram histo = new DensityHistogram(MetImageConstants.ALPHA);
+        histo.resetUnequalBins(new double[]{0.0, 0.1, 0.5, 2.0, 10.0});
+        histo.aggregate(new double[]{0.0, 0.05, 0.1, 0.3, 0.5, 1.9, 2.0, 9.0, 10.0, 11.0}, 10);
+
+        assertArrayEquals(new long[]{2, 2, 2, 3}, histo.getBinCounts());
+    }
+
+    @Test
+    public void testDensityFunctionsSameAsMetImageHistogram() {
+        final double[] samples = new double[]{0.1, 0.2, 0.2, 0.35, 0.5, 0.55, 0.9, 0.95, 0.99, 1.0};
+
+        DensityHistogram histo = new DensityHistogram(MetImageConstants.ALPHA);
+        histo.resetEqualBins(5, 0.0, 1.0);
+        histo.aggregate(samples, samples.length);
+        histo.computeDensityFunctions();
+
+        MetImageHistogram reference = MetImageHistogram.createAggregatedHistogram(samples, 5, 0.0, 1.0);
+
+        assertArrayEquals(MetImageUtils.getAsPrimitiveLongs(reference.getBinCounts()), histo.getBinCounts());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(reference.getPdf()[i], histo.getPdf()[i], 1.E-5);
+        }
+        for (int i = 0; i <= 5; i++) {
+            assertEquals(reference.getCdf()[i], histo.getCdf()[i], 1.E-6);
+        }
+        assertEquals(0.0, histo.getCdf()[0], 0.0);
+        assertEquals(1.0, histo.getCdf()[5], 1.E-12);
+    }
+
+    @Test
+    public void testResetReusesArrays() {
+        DensityHistogram histo = new DensityHistogram(MetImageConstants.ALPHA);
+        histo.resetEqualBins(3, 0.0, 3.0);
+        histo.add(1.5);
+        final long[] binCounts = histo.getBinCounts();
+
+        histo.resetEqualBins(3, 10.0, 13.0);
+        assertSame(binCounts, histo.getBinCounts());
+        assertArrayEquals(new long[]{0, 0, 0}, histo.getBinCounts());
+        histo.add(12.5);
+        assertArrayEquals(new long[]{0, 0, 1}, histo.getBinCounts());
+
+        histo.resetEqualBins(2, 0.0, 1.0);
+        assertEquals(2, histo.getBinCounts().length);
+    }
+}
@@ -7,8 +7,10 @@ import org.esa.beam.metimage.MetImageConstants;
 import org.esa.beam.util.math.IndexValidator;
 import org.junit.Before;
 import org.junit.Test;
+import util.MetImageUtils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DistinctionSkillTest {
 
@@ -261,4 +263,60 @@ public class DistinctionSkillTest {
         System.out.println("distSkillRandom = " + distSkillRandom);
         assertEquals(0.0, distSkillRandom, 5.E-2);   // we get a skill of about 0.015, which should be ok
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testExactIntegrationMatchesQuadrature() {
+        final double[] pdfA = new double[]{0.1, 0.3, 0.2, 0.0, 0.4};
+        final double[] pdfB = new double[]{0.5, 0.1, 0.1, 0.2, 0.1};
+        final double[] cdfA = MetImageUtils.getCumulativeSumAndNormalize(pdfA);
+        final double[] cdfB = MetImageUtils.getCumulativeSumAndNormalize(pdfB);
+        final double[] bins = new double[]{-1.0, 0.0, 0.5, 2.0, 2.5, 4.0};
+
+        final double exact =
+                DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(pdfA, pdfB, cdfA, cdfB, bins,
+                                                                                      numNoCloud, numCloud);
+        final double quadrature =
+                DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetricByQuadrature(pdfA, pdfB, cdfA, cdfB,
+                                                                                                  bins, numNoCloud, numCloud);
+        assertEquals(quadrature, exact, 1.E-4);
+        assertTrue(exact > 0.0);
+    }
+
+    @Test
+    public void testExactIntegrationIdenticalDistributions() {
+        final double[] pdf = new double[]{0.2, 0.3, 0.5};
+        final double[] cdf = MetImageUtils.getCumulativeSumAndNormalize(pdf);
+        final double[] bins = new double[]{0.0, 1.0, 2.0, 3.0};
+
+        assertEquals(0.0, DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(pdf, pdf, cdf, cdf, bins,
+                                                                                                100, 200), 1.E-12);
+    }
+
+    @Test
+    public void testExactIntegrationNonIncreasingBins() {
+        final double[] pdf = new double[]{0.2, 0.3, 0.5};
+        final double[] cdf = MetImageUtils.getCumulativeSumAndNormalize(pdf);
+        final double[] bins = new double[]{1.0, 1.0, 1.0, 1.0};
+
+        assertTrue(Double.isNaN(DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(pdf, pdf, cdf, cdf,
+                                                                                                      bins, 100, 200)));
+    }
+
+    @Test
+    public void testSampleNumbersBeyondIntRange() {
+        final double[] pdfA = new double[]{0.1, 0.3, 0.2, 0.0, 0.4};
+        final double[] pdfB = new double[]{0.5, 0.1, 0.1, 0.2, 0.1};
+        final double[] cdfA = MetImageUtils.getCumulativeSumAndNormalize(pdfA);
+        final double[] cdfB = MetImageUtils.getCumulativeSumAndNormalize(pdfB);
+        final double[] bins = new double[]{-1.0, 0.0, 0.5, 2.0, 2.5, 4.0};
+
+        // only the ratio of the sample numbers matters, also if their sum exceeds the int range
+        final double small =
+                DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(pdfA, pdfB, cdfA, cdfB, bins,
+                                                                                      2, 3);
+        final double large =
+                DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(pdfA, pdfB, cdfA, cdfB, bins,
+                                                                                      2000000000L, 3000000000L);
+        assertEquals(small, large, 1.E-12);
+    }
+}
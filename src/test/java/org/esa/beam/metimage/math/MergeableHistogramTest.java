@@ -0,0 +1,138 @@
+package org.esa.beam.metimage.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MergeableHistogramTest {
+
+    @Test
+    public void testAddAndMerge() {
+        final FixedBinning binning = new FixedBinning(0.0, 10.0, 10);
+        MergeableHistogram histo1 = new MergeableHistogram(binning);
+        histo1.add(0.0);
+        histo1.add(2.5);
+        histo1.add(10.0);
+        histo1.add(-0.1);
+        histo1.add(Double.NaN);
+        MergeableHistogram histo2 = new MergeableHistogram(new FixedBinning(0.0, 10.0, 10));
+        histo2.add(2.9);
+        histo2.add(10.1);
+
+        histo1.merge(histo2);
+        assertArrayEquals(new long[]{1, 0, 2, 0, 0, 0, 0, 0, 0, 1}, histo1.getBinCounts());
+        assertEquals(4, histo1.getNumSamples());
+        assertEquals(1, histo1.getUnderflowCount());
+        assertEquals(1, histo1.getOverflowCount());
+        assertEquals(0, histo1.getFirstOccupiedBin());
+        assertEquals(9, histo1.getLastOccupiedBin());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentBinnings() {
+        MergeableHistogram histo1 = new MergeableHistogram(new FixedBinning(0.0, 10.0, 10));
+        MergeableHistogram histo2 = new MergeableHistogram(new FixedBinning(0.0, 10.0, 20));
+        histo1.merge(histo2);
+    }
+
+    @Test
+    public void testCoarseBinBorders() {
+        final FixedBinning binning = new FixedBinning(0.0, 100.0, 100);
+        assertArrayEquals(new double[]{10.0, 15.0, 20.0, 25.0, 30.0},
+                          binning.getCoarseBinBorders(10, 29, 4), 1.E-12);
+        assertArrayEquals(new double[]{10.0, 11.0, 12.0},
+                          binning.getCoarseBinBorders(10, 11, 20), 1.E-12);
+    }
+
+    @Test
+    public void testLogarithmicBinning() {
+        final FixedBinning binning = new FixedBinning(1.E-3, 10.0, 4, true);
+        assertEquals(1.E-3, binning.getBinBorder(0), 0.0);
+        assertEquals(1.E-2, binning.getBinBorder(1), 1.E-15);
+        assertEquals(1.0, binning.getBinBorder(3), 1.E-12);
+        assertEquals(10.0, binning.getBinBorder(4), 0.0);
+        assertEquals(-1, binning.getBinIndex(0.0));
+        assertEquals(0, binning.getBinIndex(1.E-3));
+        assertEquals(1, binning.getBinIndex(binning.getBinBorder(1)));
+        assertEquals(1, binning.getBinIndex(0.05));
+        assertEquals(3, binning.getBinIndex(10.0));
+        assertEquals(4, binning.getBinIndex(10.5));
+        assertFalse(binning.equals(new FixedBinning(1.E-3, 10.0, 4)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLogarithmicBinningFromZero() {
+        new FixedBinning(0.0, 10.0, 4, true);
+    }
+
+    @Test
+    public void testCoarseBinBordersOfLogarithmicBinning() {
+        // bins of 1% width, so that the coarse borders are off by less than 0.5% from equally spaced ones
+        final FixedBinning binning = new FixedBinning(1.E-3, 10.0, 926, true);
+        final int firstBin = binning.getBinIndex(0.1);
+        final int lastBin = binning.getBinIndex(0.5);
+        final double[] borders = binning.getCoarseBinBorders(firstBin, lastBin, 4);
+        assertEquals(5, borders.length);
+        assertEquals(binning.getBinBorder(firstBin), borders[0], 0.0);
+        assertEquals(binning.getBinBorder(lastBin + 1), borders[4], 0.0);
+        final double width = (borders[4] - borders[0]) / 4;
+        for (int j = 1; j < 4; j++) {
+            final double border = borders[j];
+            assertEquals(border, binning.getBinBorder(binning.getBinIndex(border)), 0.0);
+            assertEquals(borders[0] + j * width, border, 0.005 * border);
+        }
+        // the coarse bins are never narrower than a fine bin
+        assertArrayEquals(new double[]{binning.getBinBorder(firstBin), binning.getBinBorder(firstBin + 1)},
+                          binning.getCoarseBinBorders(firstBin, firstBin, 20), 0.0);
+    }
+
+    @Test
+    public void testAggregateIntoCoarseHistogram() {
+        final FixedBinning binning = new FixedBinning(0.0, 100.0, 100);
+        MergeableHistogram histo = new MergeableHistogram(binning);
+        for (int i = 10; i < 30; i++) {
+            histo.add(i + 0.5);
+        }
+        histo.add(14.99);
+        histo.add(15.0);
+
+        DensityHistogram coarse = new DensityHistogram();
+        coarse.resetUnequalBins(binning.getCoarseBinBorders(histo.getFirstOccupiedBin(), histo.getLastOccupiedBin(), 4));
+        histo.aggregateInto(coarse);
+        assertArrayEquals(new long[]{6, 6, 5, 5}, coarse.getBinCounts());
+    }
+
+    @Test
+    public void testAggregateOutOfRangeIntoEdgeBins() {
+        final FixedBinning binning = new FixedBinning(0.0, 100.0, 100);
+        MergeableHistogram histo = new MergeableHistogram(binning);
+        for (int i = 40; i < 60; i++) {
+            histo.add(i + 0.5);
+        }
+        histo.add(-1.E6);
+        histo.add(-0.5);
+        histo.add(1.E6);
+        assertEquals(20, histo.getNumSamples());
+        assertEquals(23, histo.getTotalCount());
+        assertEquals(40, histo.getFirstOccupiedBin());
+        assertEquals(0, histo.getFirstCoveredBin());
+        assertEquals(99, histo.getLastCoveredBin());
+
+        DensityHistogram coarse = new DensityHistogram();
+        coarse.resetUnequalBins(binning.getCoarseBinBorders(histo.getFirstCoveredBin(), histo.getLastCoveredBin(), 4));
+        histo.aggregateInto(coarse);
+        assertArrayEquals(new long[]{2, 10, 10, 1}, coarse.getBinCounts());
+    }
+
+    @Test
+    public void testCoveredBinsOfOverflowOnly() {
+        MergeableHistogram histo = new MergeableHistogram(new FixedBinning(0.0, 10.0, 10));
+        assertEquals(-1, histo.getFirstCoveredBin());
+        assertEquals(-1, histo.getLastCoveredBin());
+        histo.add(11.0);
+        assertEquals(9, histo.getFirstCoveredBin());
+        assertEquals(9, histo.getLastCoveredBin());
+    }
+}
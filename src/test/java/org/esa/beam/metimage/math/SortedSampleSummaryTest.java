@@ -0,0 +1,112 @@
+package org.esa.beam.metimage.math;
+
+import org.apache.commons.math3.stat.descriptive.rank.Percentile;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortedSampleSummaryTest {
+
+    @Test
+    public void testSummaryDoesNotModifySamples() {
+        final double[] samples = new double[]{3.0, 1.0, 2.0, 5.0, 4.0};
+        final SortedSampleSummary summary = new SortedSampleSummary(samples);
+
+        assertArrayEquals(new double[]{3.0, 1.0, 2.0, 5.0, 4.0}, samples, 0.0);
+        assertArrayEquals(new double[]{1.0, 2.0, 3.0, 4.0, 5.0}, summary.getSortedSamples(), 0.0);
+        assertEquals(5, summary.getCount());
+        assertEquals(1.0, summary.getMin(), 0.0);
+        assertEquals(5.0, summary.getMax(), 0.0);
+    }
+
+    @Test
+    public void testPercentilesAsCommonsMath() {
+        final Random random = new Random(42);
+        final double[] samples = new double[137];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextGaussian();
+        }
+        final SortedSampleSummary summary = new SortedSampleSummary(samples);
+
+        final Percentile percentile = new Percentile();
+        final double[] ps = new double[]{0.1, 1.0, 25.0, 50.0, 75.0, 99.0, 99.9, 100.0};
+        for (double p : ps) {
+            assertEquals(percentile.evaluate(samples, p), summary.getPercentile(p), 0.0);
+        }
+        assertEquals(percentile.evaluate(samples, 75.0) - percentile.evaluate(samples, 25.0),
+                     summary.getInterquartileRange(), 0.0);
+    }
+
+    @Test
+    public void testUnionOfTwoBuffers() {
+        final double[] samples1 = new double[]{4.0, 2.0, 99.0};
+        final double[] samples2 = new double[]{3.0, 1.0, 99.0, 99.0};
+        final SortedSampleSummary summary = new SortedSampleSummary(samples1, 2, samples2, 2);
+
+        assertArrayEquals(new double[]{1.0, 2.0, 3.0, 4.0}, summary.getSortedSamples(), 0.0);
+        assertEquals(2.5, summary.getQuantile(0.5), 1.E-12);
+    }
+
+    @Test
+    public void testEqualFrequencyBinBorders() {
+        final double[] samples = new double[]{9.0, 1.0, 5.0, 3.0, 7.0, 2.0, 8.0, 4.0, 6.0};
+        final SortedSampleSummary summary = new SortedSampleSummary(samples);
+
+        assertEquals(1.0, summary.getOrderStatistic(0.0), 0.0);
+        assertEquals(9.0, summary.getOrderStatistic(1.0), 0.0);
+        assertEquals(2.0, summary.getOrderStatistic(0.125), 1.E-12);
+        assertEquals(1.8, summary.getOrderStatistic(0.1), 1.E-12);
+
+        final double[] borders = MetImageHistogram.getEqualFrequencyBinBorders(summary, 5);
+        assertArrayEquals(new double[]{1.0, 3.0, 5.0, 7.0, 9.0}, borders, 1.E-12);
+    }
+
+    @Test
+    public void testEqualFrequencyBinBordersOfTiedSamples() {
+        // quantized reflectances: most samples share a few values, so many order statistics coincide
+        final double[] samples = new double[1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i < 700 ? 0.05 : 0.06 + 0.01 * (i % 5);
+        }
+        final SortedSampleSummary summary = new SortedSampleSummary(samples);
+        final int nBins = MetImageHistogram.findOptimalNumberOfBins(summary);
+        assertTrue(nBins > 6);
+
+        final double[] borders = MetImageHistogram.getEqualFrequencyBinBorders(summary, nBins);
+        assertTrue(borders.length < nBins);
+        assertEquals(0.05, borders[0], 0.0);
+        assertEquals(0.10, borders[borders.length - 1], 1.E-12);
+        for (int i = 1; i < borders.length; i++) {
+            assertTrue(borders[i] > borders[i - 1]);
+        }
+
+        // skill of tied cloud and noCloud samples binned on these borders is finite
+        final double[] cloudSamples = new double[500];
+        final double[] noCloudSamples = new double[500];
+        System.arraycopy(summary.getSortedSamples(), 0, noCloudSamples, 0, 500);
+        System.arraycopy(summary.getSortedSamples(), 500, cloudSamples, 0, 500);
+        final DensityHistogram cloudHisto = new DensityHistogram();
+        cloudHisto.resetUnequalBins(borders);
+        cloudHisto.aggregate(cloudSamples, cloudSamples.length);
+        cloudHisto.computeDensityFunctions();
+        final DensityHistogram noCloudHisto = new DensityHistogram();
+        noCloudHisto.resetUnequalBins(borders);
+        noCloudHisto.aggregate(noCloudSamples, noCloudSamples.length);
+        noCloudHisto.computeDensityFunctions();
+        final double skill = DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudHisto,
+                                                                                                  cloudHisto,
+                                                                                                  500, 500);
+        assertFalse(Double.isNaN(skill));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEqualFrequencyBinBordersWithoutSpread() {
+        final SortedSampleSummary summary = new SortedSampleSummary(new double[]{0.05, 0.05, 0.05, 0.05});
+        MetImageHistogram.getEqualFrequencyBinBorders(summary, 5);
+    }
+}
@@ -0,0 +1,157 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncOutputWriterTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("metimage-output", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testAppendedRowsKeepTheirOrder() throws Exception {
+        // a small queue, so that the producers have to wait for the writer
+        final MetImageMetrics metrics = new MetImageMetrics("granule_a.csv");
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter(4, metrics);
+        final AsyncOutputWriter.TextFile textFile = outputWriter.openTextFile(new File(dir, "table.txt"));
+        Thread jsonProducer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    outputWriter.writeFile(new File(dir, "file" + i + ".json"), "{\"i\":" + i + "}");
+                }
+            }
+        });
+        jsonProducer.start();
+        for (int i = 0; i < 1000; i++) {
+            outputWriter.append(textFile, "row " + i + "\n");
+        }
+        jsonProducer.join();
+        outputWriter.close();
+
+        final BufferedReader reader = new BufferedReader(new FileReader(new File(dir, "table.txt")));
+        try {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("row " + i, reader.readLine());
+            }
+            assertEquals(null, reader.readLine());
+        } finally {
+            reader.close();
+        }
+        final BufferedReader jsonReader = new BufferedReader(new FileReader(new File(dir, "file42.json")));
+        try {
+            assertEquals("{\"i\":42}", jsonReader.readLine());
+        } finally {
+            jsonReader.close();
+        }
+        assertEquals(101, dir.listFiles().length);
+        // every batch of jobs is timed on the writer thread
+        assertTrue(metrics.getPhaseCounts().get("outputWrite") > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenTextFileInMissingDirectory() throws IOException {
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter();
+        try {
+            outputWriter.openTextFile(new File(new File(dir, "missing"), "table.txt"));
+        } finally {
+            outputWriter.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSubmitAfterWriterThreadStopped() throws Exception {
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        outputWriter.submit(new AsyncOutputWriter.Job() {
+            @Override
+            void run() {
+                awaitQuietly(latch);
+                throw new Error("writer thread stopped");
+            }
+        });
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sleepQuietly(200);
+                latch.countDown();
+            }
+        });
+        releaser.start();
+        try {
+            // the queue gets full while the writer is blocked, then the producer must not wait forever
+            for (int i = 0; i < 10; i++) {
+                outputWriter.writeFile(new File(dir, "file" + i + ".json"), "{}");
+            }
+            fail("OperatorException expected");
+        } catch (OperatorException expected) {
+            // ok
+        }
+        releaser.join();
+        try {
+            outputWriter.close();
+            fail("OperatorException expected");
+        } catch (OperatorException e) {
+            assertTrue(e.getMessage().contains("writer thread stopped"));
+        }
+    }
+
+    @Test
+    public void testCloseQuietly() throws Exception {
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter();
+        outputWriter.submit(new AsyncOutputWriter.Job() {
+            @Override
+            void run() throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        outputWriter.closeQuietly();
+        // already closed, so the error is not reported again
+        outputWriter.close();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
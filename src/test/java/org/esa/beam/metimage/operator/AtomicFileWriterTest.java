@@ -0,0 +1,98 @@
+package org.esa.beam.metimage.operator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class AtomicFileWriterTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("metimage-atomic", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        file = new File(dir, "test.bin");
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReplaceAndKeepOnFailure() throws IOException {
+        writeInt(1);
+        writeInt(2);
+        assertEquals(2, readInt());
+
+        try {
+            AtomicFileWriter.writeGzipped(file, new AtomicFileWriter.Content() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeInt(3);
+                    throw new IOException("disk full");
+                }
+            });
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // ok
+        }
+        assertEquals(2, readInt());
+        assertArrayEquals(new String[]{"test.bin"}, dir.list());
+    }
+
+    @Test
+    public void testFallBackToBackupOfInterruptedReplacement() throws IOException {
+        writeInt(1);
+        // a crash after the old file has been renamed to the backup, before the new file was in place
+        final File backupFile = AtomicFileWriter.getBackupFile(file);
+        assertTrue(file.renameTo(backupFile));
+        assertEquals(backupFile, AtomicFileWriter.resolve(file));
+        assertTrue(AtomicFileWriter.exists(file));
+        assertEquals(1, readInt(AtomicFileWriter.resolve(file)));
+
+        writeInt(2);
+        assertEquals(file, AtomicFileWriter.resolve(file));
+        assertEquals(2, readInt());
+        assertFalse(backupFile.exists());
+
+        assertTrue(AtomicFileWriter.delete(file));
+        assertFalse(AtomicFileWriter.exists(file));
+    }
+
+    private void writeInt(final int value) throws IOException {
+        AtomicFileWriter.writeGzipped(file, new AtomicFileWriter.Content() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                out.writeInt(value);
+            }
+        });
+    }
+
+    private int readInt() throws IOException {
+        return readInt(file);
+    }
+
+    private static int readInt(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)));
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+}
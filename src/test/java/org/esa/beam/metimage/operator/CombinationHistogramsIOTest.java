@@ -0,0 +1,48 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.MergeableHistogram;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CombinationHistogramsIOTest {
+
+    @Test
+    public void testWriteAndReadPartial() throws IOException {
+        CombinationHistograms histograms = new CombinationHistograms();
+        histograms.addNumScenes(3);
+        histograms.addSceneNames(Arrays.asList("granule_b.csv", "granule_a.csv", "granule_c.csv"));
+        final MergeableHistogram cloudHisto = histograms.getCloudHistogram(5, MetImageConstants.MEASURE_NEW_2);
+        cloudHisto.add(-3.0);
+        cloudHisto.add(-3.0);
+        cloudHisto.add(12.5);
+        cloudHisto.add(1000.0);
+        histograms.getNoCloudHistogram(79, MetImageConstants.MEASURE_HERITAGE_5).add(0.25);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CombinationHistogramsIO.write(histograms, new DataOutputStream(bytes));
+        final CombinationHistograms read =
+                CombinationHistogramsIO.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(3, read.getNumScenes());
+        assertEquals(histograms.getSceneNames(), read.getSceneNames());
+        assertTrue(read.containsScene("granule_a.csv"));
+        final MergeableHistogram readCloudHisto = read.getCloudHistogram(5, MetImageConstants.MEASURE_NEW_2);
+        assertArrayEquals(cloudHisto.getBinCounts(), readCloudHisto.getBinCounts());
+        assertEquals(3, readCloudHisto.getNumSamples());
+        assertEquals(1, readCloudHisto.getOverflowCount());
+        assertEquals(1, read.getNoCloudHistogram(79, MetImageConstants.MEASURE_HERITAGE_5).getNumSamples());
+        assertEquals(0, read.getNoCloudHistogram(5, MetImageConstants.MEASURE_NEW_2).getNumSamples());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadInvalidPartial() throws IOException {
+        CombinationHistogramsIO.read(new DataInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4})));
+    }
+}
@@ -0,0 +1,38 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CombinationHistogramsTest {
+
+    @Test
+    public void testMergeKeepsSceneNames() {
+        CombinationHistograms histograms1 = new CombinationHistograms();
+        histograms1.addNumScenes(1);
+        histograms1.addSceneNames(Arrays.asList("granule_a.csv"));
+        histograms1.getCloudHistogram(0, MetImageConstants.MEASURE_NEW_1).add(0.25);
+        CombinationHistograms histograms2 = new CombinationHistograms();
+        histograms2.addNumScenes(1);
+        histograms2.addSceneNames(Arrays.asList("granule_b.csv"));
+        histograms2.getCloudHistogram(0, MetImageConstants.MEASURE_NEW_1).add(0.5);
+
+        histograms1.merge(histograms2);
+        assertEquals(2, histograms1.getNumScenes());
+        assertEquals(Arrays.asList("granule_a.csv", "granule_b.csv"),
+                     Arrays.asList(histograms1.getSceneNames().toArray()));
+        assertEquals(2, histograms1.getCloudHistogram(0, MetImageConstants.MEASURE_NEW_1).getNumSamples());
+
+        try {
+            histograms1.merge(histograms2);
+            fail("scene merged twice");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+        assertEquals(2, histograms1.getNumScenes());
+    }
+}
@@ -0,0 +1,102 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistogramArchiveTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("metimage-archive", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        final List<FilterCombination> combinations = FilterCombination.createAll();
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter();
+        final HistogramArchiveWriter archiveWriter = new HistogramArchiveWriter(dir, outputWriter);
+        // added in reverse order, as the blocks of concurrent skill tasks are
+        for (int c = combinations.size() - 1; c >= 0; c--) {
+            if (c % 3 != 0) {
+                archiveWriter.add(combinations.get(c), "N7", new double[]{-1.0, c, 2.0 * c + 1.5},
+                                  new long[]{c, 1000000}, new long[]{0, c * 7});
+            }
+        }
+        archiveWriter.finish();
+        outputWriter.close();
+
+        final HistogramArchive archive = HistogramArchive.open(new File(dir, HistogramArchive.FILE_NAME));
+        try {
+            assertEquals(combinations.size(), archive.getCombinations().size());
+            assertEquals(2 * 7, archive.getMeasureNames().size());
+            assertEquals("H1", archive.getMeasureNames().get(0));
+
+            final HistogramArchive.Histograms histograms =
+                    archive.getHistograms(new FilterCombination(combinations.get(5).getDaytime(),
+                                                                combinations.get(5).getNonCloudySurface(),
+                                                                combinations.get(5).getCloudtype()), "N7");
+            assertEquals(2, histograms.getNumBins());
+            assertArrayEquals(new double[]{-1.0, 5.0, 11.5}, histograms.getBinBorders(), 0.0);
+            assertArrayEquals(new long[]{5, 1000000}, histograms.getCloudCounts());
+            assertArrayEquals(new long[]{0, 35}, histograms.getNoCloudCounts());
+
+            assertNull(archive.getHistograms(combinations.get(6), "N7"));
+            assertNull(archive.getHistograms(combinations.get(5), "H7"));
+            assertNull(archive.getHistograms(combinations.get(5), "X1"));
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void testUnfinishedArchive() {
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter();
+        final HistogramArchiveWriter archiveWriter = new HistogramArchiveWriter(dir, outputWriter);
+        archiveWriter.add(FilterCombination.createAll().get(0), "H1", new double[]{0.0, 1.0}, new long[]{1},
+                          new long[]{2});
+        outputWriter.close();
+
+        try {
+            HistogramArchive.open(archiveWriter.getFile());
+            fail("OperatorException expected");
+        } catch (OperatorException e) {
+            assertTrue(e.getMessage().contains("Incomplete histogram archive"));
+        }
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testAddTwice() {
+        final AsyncOutputWriter outputWriter = new AsyncOutputWriter();
+        try {
+            final HistogramArchiveWriter archiveWriter = new HistogramArchiveWriter(dir, outputWriter);
+            final FilterCombination combination = FilterCombination.createAll().get(0);
+            archiveWriter.add(combination, "H1", new double[]{0.0, 1.0}, new long[]{1}, new long[]{2});
+            archiveWriter.add(combination, "H1", new double[]{0.0, 1.0}, new long[]{1}, new long[]{2});
+        } finally {
+            outputWriter.close();
+        }
+    }
+}
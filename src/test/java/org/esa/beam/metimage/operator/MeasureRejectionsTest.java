@@ -0,0 +1,29 @@
+package org.esa.beam.metimage.operator;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class MeasureRejectionsTest {
+
+    @Test
+    public void testCount() {
+        BitSet cloudSamples = new BitSet();
+        cloudSamples.set(0, 10);
+        BitSet noCloudSamples = new BitSet();
+        noCloudSamples.set(20, 25);
+        BitSet cutOffSamples = new BitSet();
+        cutOffSamples.set(3);
+        cutOffSamples.set(7);
+        cutOffSamples.set(15);  // neither selected
+        cutOffSamples.set(24);
+
+        MeasureRejections rejections = MeasureRejections.count(cutOffSamples, cloudSamples, noCloudSamples);
+        assertEquals(10, rejections.getNumCloudSelected());
+        assertEquals(2, rejections.getNumCloudCutOff());
+        assertEquals(5, rejections.getNumNoCloudSelected());
+        assertEquals(1, rejections.getNumNoCloudCutOff());
+    }
+}
@@ -0,0 +1,112 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.DensityHistogram;
+import org.esa.beam.metimage.math.DistinctionSkill;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MergedHistogramSkillsTest {
+
+    private static final int NUM_BINS = 20;
+    private static final int NUM_SAMPLES = 20000;
+
+    @Test
+    public void testMergedSkillsAgreeWithSingleSceneSkills() {
+        final ModisMeasurePlanes planes = createSyntheticPlanes();
+        final ModisClassIndex classIndex = new ModisClassIndex(planes);
+        final CombinationHistograms histograms = new CombinationHistograms();
+        histograms.accumulate("granule_a.csv", planes, classIndex);
+        final MergedHistogramSkills mergedSkills = new MergedHistogramSkills(NUM_BINS, "EXACT", null);
+
+        final int[] measureIds = {MetImageConstants.MEASURE_HERITAGE_7, MetImageConstants.MEASURE_NEW_1,
+                MetImageConstants.MEASURE_NEW_7};
+        final List<FilterCombination> combinations = histograms.getCombinations();
+        int numCompared = 0;
+        for (int c = 0; c < combinations.size(); c++) {
+            final FilterCombination combination = combinations.get(c);
+            if (!combination.getNonCloudySurface().equals("ALL") || !combination.getCloudtype().equals("ALL") ||
+                    combination.getDaytime().equals("TWILIGHT")) {
+                continue;
+            }
+            for (int measureId : measureIds) {
+                final double[] measures = planes.getMeasures(measureId);
+                final double expected = getSingleSceneSkill(measures, classIndex.getCloudSamples(combination),
+                                                            classIndex.getNoCloudSamples(combination));
+                final double actual = mergedSkills.getMeasureSkill(histograms, c, measureId).getSkill();
+                assertFalse(Double.isNaN(expected));
+                assertEquals(combination + ", measure " + measureId, expected, actual, 0.002);
+                numCompared++;
+            }
+        }
+        assertEquals(9, numCompared);
+    }
+
+    // the skill on NUM_BINS equal bins between the sample min and max, as in the single scene processing
+    private static double getSingleSceneSkill(double[] measures, BitSet cloudSamples, BitSet noCloudSamples) {
+        final double[] cloudValues = getValues(measures, cloudSamples);
+        final double[] noCloudValues = getValues(measures, noCloudSamples);
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double[] values : new double[][]{cloudValues, noCloudValues}) {
+            for (double value : values) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        final DensityHistogram cloudHisto = new DensityHistogram();
+        cloudHisto.resetEqualBins(NUM_BINS, min, max);
+        cloudHisto.aggregate(cloudValues, cloudValues.length);
+        cloudHisto.computeDensityFunctions();
+        final DensityHistogram noCloudHisto = new DensityHistogram();
+        noCloudHisto.resetEqualBins(NUM_BINS, min, max);
+        noCloudHisto.aggregate(noCloudValues, noCloudValues.length);
+        noCloudHisto.computeDensityFunctions();
+        return DistinctionSkill.computeDistinctionSkillFromCramerMisesAndersonMetric(noCloudHisto, cloudHisto,
+                                                                                     noCloudValues.length,
+                                                                                     cloudValues.length);
+    }
+
+    private static double[] getValues(double[] measures, BitSet samples) {
+        final double[] values = new double[samples.cardinality()];
+        int i = 0;
+        for (int k = samples.nextSetBit(0); k >= 0; k = samples.nextSetBit(k + 1)) {
+            values[i++] = measures[k];
+        }
+        return values;
+    }
+
+    // a scene of day and night samples, half of them cloudy, with the small and overlapping cloud and clear sky
+    // values of the standard deviations H7 and N7 and the reflectance N1; N7 is a standard deviation of rho600 at
+    // day, but in K at night
+    private static ModisMeasurePlanes createSyntheticPlanes() {
+        final ModisMeasurePlanes planes = new ModisMeasurePlanes(new Rectangle(3, 3 * NUM_SAMPLES));
+        final double[] h7 = planes.getMeasures(MetImageConstants.MEASURE_HERITAGE_7);
+        final double[] n1 = planes.getMeasures(MetImageConstants.MEASURE_NEW_1);
+        final double[] n7 = planes.getMeasures(MetImageConstants.MEASURE_NEW_7);
+        final Random random = new Random(42);
+        for (int k = 0; k < planes.getNumSamples(); k++) {
+            final boolean cloud = random.nextBoolean();
+            final boolean day = random.nextBoolean();
+            planes.getDaytime()[k] = day ? 1 : 2;
+            planes.getSurfaceType()[k] = cloud ? 0 : 2 + random.nextInt(3);
+            // uniform areas have a standard deviation of 0
+            final boolean uniform = !cloud && random.nextInt(20) == 0;
+            h7[k] = uniform ? 0.0 : (cloud ? 0.3 : 0.2) * Math.abs(random.nextGaussian());
+            n1[k] = (cloud ? 0.003 : 0.002) * Math.abs(random.nextGaussian());
+            if (day) {
+                n7[k] = uniform ? 0.0 : (cloud ? 0.008 : 0.005) * Math.abs(random.nextGaussian());
+            } else {
+                n7[k] = uniform ? 0.0 : (cloud ? 0.5 : 0.3) * Math.abs(random.nextGaussian());
+            }
+        }
+        return planes;
+    }
+}
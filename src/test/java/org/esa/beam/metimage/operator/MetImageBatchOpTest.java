@@ -0,0 +1,171 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.metimage.MetImageConstants;
+import org.esa.beam.metimage.math.FixedBinning;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetImageBatchOpTest {
+
+    private File dir;
+    private File checkpointDir;
+    private File accumulatedFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("metimage-batch", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        checkpointDir = new File(dir, "checkpoint");
+        accumulatedFile = new File(dir, "accumulated.mihp");
+    }
+
+    @After
+    public void tearDown() {
+        for (File d : new File[]{checkpointDir, dir}) {
+            final File[] files = d.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            d.delete();
+        }
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() {
+        // an earlier run has accumulated granule_z
+        final CombinationHistograms earlier = new CombinationHistograms();
+        earlier.accumulate("granule_z.csv", createCloudPlanes(), new ModisClassIndex(createCloudPlanes()));
+        CombinationHistogramsIO.writePartial(earlier, accumulatedFile);
+
+        // interrupted run: checkpoint after 2 of 3 granules
+        final MetImageBatchOp interruptedOp = createOp(false);
+        final CombinationHistograms accumulated1 =
+                MetImageBatchOp.readHistograms(accumulatedFile, "accumulated");
+        interruptedOp.initCheckpoint(accumulated1);
+        final List<File> granules1 = interruptedOp.selectNewGranules(getGranules(), accumulated1);
+        assertEquals(Arrays.asList(new File(dir, "granule_a.csv"), new File(dir, "granule_b.csv"),
+                                   new File(dir, "granule_c.csv")), granules1);
+        interruptedOp.accumulateGranule("granule_a.csv", createCloudPlanes());
+        interruptedOp.accumulateGranule("granule_b.csv", createCloudPlanes());
+        interruptedOp.accumulateGranule("granule_c.csv", createCloudPlanes());
+        final File checkpointFile = new File(checkpointDir, MetImageBatchOp.CHECKPOINT_FILE_NAME);
+        assertTrue(checkpointFile.exists());
+        final CombinationHistograms checkpoint = CombinationHistogramsIO.readPartial(checkpointFile);
+        assertEquals(Arrays.asList("granule_a.csv", "granule_b.csv"),
+                     Arrays.asList(checkpoint.getSceneNames().toArray()));
+
+        // resumed run: only granule_c is processed again
+        final MetImageBatchOp resumedOp = createOp(true);
+        final CombinationHistograms accumulated2 =
+                MetImageBatchOp.readHistograms(accumulatedFile, "accumulated");
+        resumedOp.initCheckpoint(accumulated2);
+        final List<File> granules2 = resumedOp.selectNewGranules(getGranules(), accumulated2);
+        assertEquals(Arrays.asList(new File(dir, "granule_c.csv")), granules2);
+        resumedOp.accumulateGranule("granule_c.csv", createCloudPlanes());
+
+        final CombinationHistograms merged = resumedOp.mergeHistograms(accumulated2);
+        assertEquals(4, merged.getNumScenes());
+        assertEquals(Arrays.asList("granule_a.csv", "granule_b.csv", "granule_c.csv", "granule_z.csv"),
+                     Arrays.asList(merged.getSceneNames().toArray()));
+        // one cloud sample per granule, each granule counted once
+        assertEquals(4, merged.getCloudHistogram(0, MetImageConstants.MEASURE_NEW_1).getNumSamples());
+
+        resumedOp.deleteCheckpoint();
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void testAppendBeyondIntRange() {
+        // an accumulated state of about a year of granules: more than 2^31 samples in the broadest combination
+        final CombinationHistograms earlier = new CombinationHistograms();
+        earlier.accumulate("granule_z.csv", createCloudPlanes(), new ModisClassIndex(createCloudPlanes()));
+        final FixedBinning binning = earlier.getBinning(MetImageConstants.MEASURE_NEW_1);
+        earlier.getCloudHistogram(0, MetImageConstants.MEASURE_NEW_1).addBinCount(binning.getBinIndex(0.2),
+                                                                                   1500000000L);
+        earlier.getNoCloudHistogram(0, MetImageConstants.MEASURE_NEW_1).addBinCount(binning.getBinIndex(0.1),
+                                                                                     2000000000L);
+        CombinationHistogramsIO.writePartial(earlier, accumulatedFile);
+
+        for (String granuleName : new String[]{"granule_a.csv", "granule_b.csv"}) {
+            final MetImageBatchOp op = createOp(false);
+            op.checkpointDirectory = null;
+            final CombinationHistograms accumulated = MetImageBatchOp.readHistograms(accumulatedFile, "accumulated");
+            op.initCheckpoint(accumulated);
+            op.accumulateGranule(granuleName, createCloudPlanes());
+            final CombinationHistograms merged = op.mergeHistograms(accumulated);
+            CombinationHistogramsIO.writePartial(merged, accumulatedFile);
+        }
+
+        final CombinationHistograms accumulated = CombinationHistogramsIO.readPartial(accumulatedFile);
+        assertEquals(3, accumulated.getNumScenes());
+        final long numCloud = 1500000000L + 3;
+        assertEquals(numCloud, accumulated.getCloudHistogram(0, MetImageConstants.MEASURE_NEW_1).getTotalCount());
+        final MeasureSkill skill = new MergedHistogramSkills(20, "EXACT", null).getMeasureSkill(
+                accumulated, 0, MetImageConstants.MEASURE_NEW_1);
+        assertEquals(numCloud, skill.getNumCloudSamples());
+        assertEquals(2000000000L, skill.getNumNoCloudSamples());
+        assertTrue(skill.getSkill() > 0.0 && skill.getSkill() <= 1.0);
+    }
+
+    @Test
+    public void testOutdatedCheckpoint() {
+        // the checkpoint holds granule_a, which has meanwhile been accumulated
+        final CombinationHistograms checkpoint = new CombinationHistograms();
+        checkpoint.accumulate("granule_a.csv", createCloudPlanes(), new ModisClassIndex(createCloudPlanes()));
+        assertTrue(checkpointDir.mkdir());
+        CombinationHistogramsIO.writePartial(checkpoint,
+                                             new File(checkpointDir, MetImageBatchOp.CHECKPOINT_FILE_NAME));
+        CombinationHistogramsIO.writePartial(checkpoint, accumulatedFile);
+
+        final MetImageBatchOp op = createOp(true);
+        try {
+            op.initCheckpoint(MetImageBatchOp.readHistograms(accumulatedFile, "accumulated"));
+            fail("OperatorException expected");
+        } catch (OperatorException e) {
+            assertTrue(e.getMessage().contains("already accumulated"));
+        }
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testResumeWithoutCheckpointDirectory() {
+        final MetImageBatchOp op = createOp(true);
+        op.checkpointDirectory = null;
+        op.initCheckpoint(new CombinationHistograms());
+    }
+
+    private MetImageBatchOp createOp(boolean resume) {
+        final MetImageBatchOp op = new MetImageBatchOp();
+        op.checkpointDirectory = checkpointDir;
+        op.checkpointInterval = 2;
+        op.resume = resume;
+        op.accumulatedHistogramFile = accumulatedFile;
+        return op;
+    }
+
+    private List<File> getGranules() {
+        return Arrays.asList(new File(dir, "granule_a.csv"), new File(dir, "granule_b.csv"),
+                             new File(dir, "granule_z.csv"), new File(dir, "granule_c.csv"),
+                             new File(new File(dir, "copy"), "granule_a.csv"));
+    }
+
+    // a single sampled pixel, cloudy, with a value of measure N1
+    private static ModisMeasurePlanes createCloudPlanes() {
+        final ModisMeasurePlanes planes = new ModisMeasurePlanes(new Rectangle(3, 3));
+        planes.getMeasures(MetImageConstants.MEASURE_NEW_1)[0] = 0.5;
+        planes.getSurfaceType()[0] = 0;
+        return planes;
+    }
+}
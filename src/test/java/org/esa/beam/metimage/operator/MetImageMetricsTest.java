@@ -0,0 +1,65 @@
+package org.esa.beam.metimage.operator;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class MetImageMetricsTest {
+
+    @Test
+    public void testPhasesAndCounters() {
+        MetImageMetrics metrics = new MetImageMetrics("granule_a.csv");
+        FilterCombination combination = new FilterCombination("DAY", "LAND", "LOW");
+
+        metrics.stop(metrics.start(), MetImageMetrics.Phase.TSKIN_READ);
+        metrics.stop(metrics.start(), MetImageMetrics.Phase.HISTOGRAM_BUILD, combination, "H1");
+        metrics.stop(metrics.start(), MetImageMetrics.Phase.HISTOGRAM_BUILD, combination, "N1");
+        metrics.stop(metrics.start(), MetImageMetrics.Phase.SKILL_INTEGRATION, combination, "N1");
+        metrics.increment("skillTasks", 2);
+        metrics.increment("skillTasks", 3);
+        metrics.finish();
+
+        assertEquals(1L, (long) metrics.getPhaseCounts().get("tskinRead"));
+        assertEquals(2L, (long) metrics.getPhaseCounts().get("histogramBuild"));
+        assertEquals(1L, (long) metrics.getPhaseCounts().get("skillIntegration"));
+        assertEquals(0L, (long) metrics.getPhaseCounts().get("equalization"));
+        assertEquals(5L, (long) metrics.getCounters().get("skillTasks"));
+        assertTrue(metrics.getPeakHeapBytes() > 0);
+        assertEquals(metrics.getElapsedSeconds(), metrics.getElapsedSeconds(), 0.0);
+
+        JSONObject report = (JSONObject) JSONValue.parse(metrics.createJsonReport());
+        assertEquals("granule_a.csv", report.get("scene"));
+        JSONObject phases = (JSONObject) report.get("phases");
+        assertEquals(2L, ((JSONObject) phases.get("histogramBuild")).get("count"));
+        JSONArray combinations = (JSONArray) report.get("combinations");
+        assertEquals(1, combinations.size());
+        JSONObject combinationReport = (JSONObject) combinations.get(0);
+        assertEquals("DAY, LAND, LOW", combinationReport.get("combination"));
+        JSONArray measures = (JSONArray) combinationReport.get("measures");
+        assertEquals(2, measures.size());
+        JSONObject n1 = (JSONObject) measures.get(1);
+        assertEquals("N1", n1.get("measure"));
+        assertEquals(2, ((JSONObject) n1.get("phases")).size());
+    }
+
+    @Test
+    public void testRegisterAndUnregister() throws Exception {
+        MetImageMetrics metrics = new MetImageMetrics("granule_b.csv");
+        ObjectName objectName = new ObjectName(MetImageMetrics.OBJECT_NAME_PREFIX + ObjectName.quote("granule_b.csv"));
+
+        metrics.register();
+        try {
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+            assertEquals("granule_b.csv", ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "SceneName"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+}
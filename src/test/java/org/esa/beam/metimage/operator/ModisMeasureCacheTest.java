@@ -0,0 +1,47 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.metimage.MetImageConstants;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ModisMeasureCacheTest {
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final Rectangle sceneRect = new Rectangle(7, 5);
+        ModisMeasurePlanes planes = new ModisMeasurePlanes(sceneRect);
+        planes.getMeasures(MetImageConstants.MEASURE_HERITAGE_1)[0] = 12.5;
+        planes.getMeasures(MetImageConstants.MEASURE_NEW_7)[3] = -0.25;
+        planes.getCutOffSamples(MetImageConstants.MEASURE_HERITAGE_2).set(2);
+        planes.getDaytime()[1] = 2;
+        planes.getSurfaceType()[2] = 7;
+        planes.getCloudHeight()[3] = 4;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ModisMeasureCache.write(new DataOutputStream(bytes), "key", planes, sceneRect);
+        final ModisMeasurePlanes read =
+                ModisMeasureCache.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "key");
+
+        assertEquals(planes.getNumSamples(), read.getNumSamples());
+        for (int measureId = 1; measureId <= 14; measureId++) {
+            assertArrayEquals(planes.getMeasures(measureId), read.getMeasures(measureId), 0.0);
+            assertEquals(planes.getCutOffSamples(measureId), read.getCutOffSamples(measureId));
+        }
+        assertArrayEquals(planes.getDaytime(), read.getDaytime());
+        assertArrayEquals(planes.getSurfaceType(), read.getSurfaceType());
+        assertArrayEquals(planes.getCloudHeight(), read.getCloudHeight());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadWithOtherKey() throws IOException {
+        final Rectangle sceneRect = new Rectangle(7, 5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ModisMeasureCache.write(new DataOutputStream(bytes), "key", new ModisMeasurePlanes(sceneRect), sceneRect);
+        ModisMeasureCache.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "other key");
+    }
+}
@@ -1,5 +1,6 @@
 package org.esa.beam.metimage.operator;
 
+import org.esa.beam.metimage.MetImageConstants;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -36,4 +37,46 @@ public class ModisMeasuresTest {
         assertEquals(265.0, ModisMeasures.convertModisEmissiveRadianceToTemperature(radiance, bandnumber), 1.E-2);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testConvertModisEmissiveRadiancesToTemperatures() {
+        final double[] radiances = {0.388822, 0.834006, 3.683158, 4.405360, 4.61078, 0.0, -1.0, Double.NaN};
+        final double[] temperatures = new double[radiances.length];
+        for (int bandnumber = 20; bandnumber <= 36; bandnumber++) {
+            ModisMeasures.convertModisEmissiveRadiancesToTemperatures(radiances, bandnumber, temperatures);
+            for (int i = 0; i < radiances.length; i++) {
+                final double expected = convertWithoutPrecomputation(radiances[i], bandnumber);
+                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(temperatures[i]));
+                final double scalar = ModisMeasures.convertModisEmissiveRadianceToTemperature(radiances[i], bandnumber);
+                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(scalar));
+            }
+        }
+    }
+
+    @Test
+    public void testConvertTemperatureToRadiance() {
+        for (int bandnumber = 20; bandnumber <= 36; bandnumber++) {
+            if (bandnumber == 26) {
+                continue;   // 1375nm, a reflective band
+            }
+            final ModisEmissiveBand band = ModisEmissiveBand.getBand(bandnumber);
+            for (double temperature = 200.0; temperature <= 320.0; temperature += 15.0) {
+                final double radiance = band.convertTemperatureToRadiance(temperature);
+                assertTrue(radiance > 0.0);
+                assertEquals(temperature, band.convertRadianceToTemperature(radiance), 1.E-9);
+            }
+        }
+    }
+
+    // the conversion as originally implemented, evaluating all constants per call
+    private static double convertWithoutPrecomputation(double radiance, int emissiveBandNumber) {
+        final int wvlIndex = emissiveBandNumber - 20;
+        final double c1 = 2.0 * MetImageConstants.PLANCK_CONSTANT *
+                Math.pow(MetImageConstants.VACUUM_LIGHT_SPEED, 2.0);
+        final double c2 = MetImageConstants.PLANCK_CONSTANT * MetImageConstants.VACUUM_LIGHT_SPEED /
+                MetImageConstants.BOLTZMANN_CONSTANT;
+        final double wvlMetres = MetImageConstants.MODIS_EMISSIVE_WAVELENGTHS[wvlIndex] / 1.E9;
+        final double radMetres = radiance * 1.E6;
+        double temperature = c2 / (wvlMetres * Math.log(c1 / (radMetres * Math.pow(wvlMetres, 5.0)) + 1.0));
+        return (temperature - MetImageConstants.TCI[wvlIndex]) / MetImageConstants.TCS[wvlIndex];
+    }
+}
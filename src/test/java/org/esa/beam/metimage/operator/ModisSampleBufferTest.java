@@ -0,0 +1,45 @@
+package org.esa.beam.metimage.operator;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+public class ModisSampleBufferTest {
+
+    @Test
+    public void testAddGrowsBuffer() throws Exception {
+        ModisSampleBuffer buffer = new ModisSampleBuffer(2);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(i * 0.5);
+        }
+        assertEquals(5, buffer.size());
+        assertEquals(0.0, buffer.get(0), 1.E-6);
+        assertEquals(2.0, buffer.get(4), 1.E-6);
+        assertEquals(5, buffer.toArray().length);
+        assertEquals(1.5, buffer.toArray()[3], 1.E-6);
+    }
+
+    @Test
+    public void testResetKeepsCapacity() throws Exception {
+        ModisSampleBuffer buffer = new ModisSampleBuffer(4);
+        buffer.add(1.0);
+        buffer.add(2.0);
+        final double[] values = buffer.getValues();
+
+        buffer.reset();
+        assertEquals(0, buffer.size());
+        buffer.add(3.0);
+        assertEquals(1, buffer.size());
+        assertEquals(3.0, buffer.get(0), 1.E-6);
+        assertSame(values, buffer.getValues());
+
+        try {
+            buffer.get(1);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException expected) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.esa.beam.metimage.operator;
+
+import org.esa.beam.framework.datamodel.CrsGeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.datamodel.Product;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TskinCollocationTest {
+
+    // global 0.75 deg grid as the ERA-Interim Tskin product, pixel edges at -180..180 and 90..-90
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 240;
+    private static final double STEP = 0.75;
+
+    private TskinCollocation closedForm;
+    private TskinCollocation fallback;
+
+    @Before
+    public void setUp() throws Exception {
+        final CrsGeoCoding geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, WIDTH, HEIGHT,
+                                                        -180.0 + STEP / 2, 90.0 - STEP / 2, STEP, STEP);
+        // same grid, but without geographic positions, so that the collocation inverts the geocoding for each position
+        final CrsGeoCoding pixelPosOnlyGeoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, WIDTH, HEIGHT,
+                                                                    -180.0 + STEP / 2, 90.0 - STEP / 2, STEP, STEP) {
+            @Override
+            public GeoPos getGeoPos(PixelPos pixelPos, GeoPos geoPos) {
+                return new GeoPos(Float.NaN, Float.NaN);
+            }
+        };
+        closedForm = new TskinCollocation(createProduct(geoCoding), new double[WIDTH * HEIGHT]);
+        fallback = new TskinCollocation(createProduct(pixelPosOnlyGeoCoding), new double[WIDTH * HEIGHT]);
+    }
+
+    @Test
+    public void testRegularGridDetection() {
+        assertTrue(closedForm.isRegularGrid());
+        assertFalse(fallback.isRegularGrid());
+    }
+
+    @Test
+    public void testEdgeCells() {
+        final float[][] positions = {
+                {0.0f, 0.0f}, {45.3f, 7.1f}, {-33.9f, -151.2f},
+                {0.0f, -180.0f}, {0.0f, -179.9f}, {0.0f, 179.9f}, {0.0f, 180.0f},
+                {90.0f, 0.0f}, {89.9f, 0.0f}, {-89.9f, 0.0f}, {-90.0f, 0.0f},
+                {90.0f, -180.0f}, {90.0f, 180.0f}, {-90.0f, -180.0f}, {-90.0f, 180.0f},
+                {89.9f, 179.9f}, {-89.9f, -179.9f}
+        };
+        for (float[] position : positions) {
+            assertEquals("lat " + position[0] + ", lon " + position[1],
+                         fallback.getOffset(position[0], position[1]), closedForm.getOffset(position[0], position[1]));
+        }
+        assertEquals(0, closedForm.getOffset(90.0f, -180.0f));
+        assertEquals(WIDTH - 1, closedForm.getOffset(90.0f, 180.0f));
+        assertEquals(WIDTH * HEIGHT - 1, closedForm.getOffset(-90.0f, 180.0f));
+    }
+
+    @Test
+    public void testRandomPositions() {
+        final Random random = new Random(4711);
+        for (int i = 0; i < 100000; i++) {
+            final float lat = (float) (random.nextDouble() * 180.0 - 90.0);
+            final float lon = (float) (random.nextDouble() * 360.0 - 180.0);
+            assertEquals("lat " + lat + ", lon " + lon, fallback.getOffset(lat, lon), closedForm.getOffset(lat, lon));
+        }
+    }
+
+    private static Product createProduct(CrsGeoCoding geoCoding) {
+        final Product product = new Product("tskin", "tskin", WIDTH, HEIGHT);
+        product.setGeoCoding(geoCoding);
+        return product;
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import util.MetImageUtils;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
@@ -63,4 +64,17 @@ public class MetImageUtilsTest {
         assertEquals(1.0, dPrimArr[0], 1.E-6);
         assertEquals(2.0, dPrimArr[1], 1.E-6);
     }
+
+    @Test
+    public void testGlobToRegex() throws Exception {
+        final String regex = MetImageUtils.globToRegex("MOD021KM.A2012*.h(1)+?.hdf");
+        assertTrue("MOD021KM.A2012001.h(1)+x.hdf".matches(regex));
+        assertTrue("MOD021KM.A2012.h(1)+x.hdf".matches(regex));
+        assertFalse("MOD021KM.A2012001.h(1)+.hdf".matches(regex));
+        assertFalse("MOD021KMxA2012001.h(1)+x.hdf".matches(regex));
+        assertFalse("MOD021KM.A2012001.h1+x.hdf".matches(regex));
+        assertFalse("MOD021KM.A2012001.h(1)x.hdf".matches(regex));
+        assertTrue("a$b^c".matches(MetImageUtils.globToRegex("a$b^c")));
+        assertTrue("x\\Ey".matches(MetImageUtils.globToRegex("x\\E?")));
+    }
 }